@@ -0,0 +1,81 @@
+package benchmarks;
+
+// imports that are using in this project
+import client.TFTPUDPClient;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// time for a number of clients downloading the same file at once, to see how the servers scale...
+// with perfect scaling the time stays the same as the number of concurrent transfers goes up
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ConcurrentTransferBenchmark {
+    @Param({Transfers.UDP_THREADED, Transfers.UDP_NIO, Transfers.TCP})
+    public String protocol;
+
+    @Param({"1", "16", "128"})
+    public int concurrency;
+
+    @Param({"1048576"})
+    public long fileSize;
+
+    private String serverFile;
+    private String[] downloadFiles;
+    // every client runs on its own virtual thread
+    private ExecutorService clients;
+
+    @Setup
+    public void setup() throws IOException, InterruptedException {
+        LoopbackServers.start();
+        TFTPUDPClient.blockSize = 1428;
+        TFTPUDPClient.windowSize = 16;
+        String filename = LoopbackServers.file(fileSize);
+        serverFile = LoopbackServers.serverPath(filename);
+        downloadFiles = new String[concurrency];
+        for (int i = 0; i < concurrency; i++) {
+            downloadFiles[i] = LoopbackServers.clientPath("download-" + i + "-" + filename);
+        }
+        clients = Executors.newVirtualThreadPerTaskExecutor();
+    }
+
+    @TearDown
+    public void tearDown() {
+        clients.shutdownNow();
+    }
+
+    @Benchmark
+    public void concurrentReads() throws InterruptedException, ExecutionException {
+        List<Future<?>> transfers = new ArrayList<>(concurrency);
+        for (String downloadFile : downloadFiles) {
+            transfers.add(clients.submit(() -> {
+                Transfers.read(protocol, serverFile, downloadFile);
+                return null;
+            }));
+        }
+        for (Future<?> transfer : transfers) {
+            transfer.get();
+        }
+    }
+}
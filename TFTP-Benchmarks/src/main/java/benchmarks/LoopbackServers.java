@@ -0,0 +1,135 @@
+package benchmarks;
+
+// imports that are using in this project
+import TFTPTCPServer.TFTPTCPServer;
+import client.TFTPUDPClient;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import server.TFTPUDPServer;
+
+// the servers the transfer benchmarks run against, started once in the benchmark's JVM...
+// everything runs on localhost, the UDP server in both of its modes and the TCP server each on their own port
+final class LoopbackServers {
+    static final InetAddress LOOPBACK = InetAddress.getLoopbackAddress();
+    static final int UDP_THREADED_PORT = 9100;
+    static final int UDP_NIO_PORT = 9101;
+    static final int TCP_PORT = 9102;
+
+    // files are served from (and uploaded to) serverDirectory, clients download into clientDirectory
+    static Path serverDirectory;
+    static Path clientDirectory;
+
+    private static boolean started;
+
+    private LoopbackServers() {
+    }
+
+    // method to start the servers the first time a benchmark needs them
+    static synchronized void start() throws IOException, InterruptedException {
+        if (started) {
+            return;
+        }
+        started = true;
+        // the clients and servers print a line for every packet, which would be measured as well
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+
+        serverDirectory = Files.createTempDirectory("tftp-server");
+        clientDirectory = Files.createTempDirectory("tftp-client");
+
+        // the servers read their port from a static field when they start, so they are started one at a time
+        startServer(() -> {
+            TFTPUDPServer.serverPort = UDP_THREADED_PORT;
+            TFTPUDPServer.main(new String[] {"threaded"});
+        });
+        awaitUdpServer(UDP_THREADED_PORT);
+        startServer(() -> {
+            TFTPUDPServer.serverPort = UDP_NIO_PORT;
+            TFTPUDPServer.main(new String[] {"nio"});
+        });
+        awaitUdpServer(UDP_NIO_PORT);
+        startServer(() -> {
+            TFTPTCPServer.serverPort = TCP_PORT;
+            TFTPTCPServer.main(new String[] {"virtual"});
+        });
+        awaitTcpServer(TCP_PORT);
+    }
+
+    private static void startServer(Runnable server) {
+        Thread serverThread = new Thread(server, "benchmark-server");
+        serverThread.setDaemon(true);
+        serverThread.start();
+    }
+
+    // method to wait until the UDP server answers (a request for a file that doesn't exist gets an ERROR back)
+    private static void awaitUdpServer(int port) throws IOException {
+        ByteBuffer request = TFTPUDPClient.createReadRequest("no-such-file", TFTPUDPClient.mode, Map.of());
+        byte[] responseData = new byte[516];
+        try (DatagramSocket socket = new DatagramSocket()) {
+            socket.setSoTimeout(100);
+            for (int attempt = 0; attempt < 100; attempt++) {
+                socket.send(new DatagramPacket(request.array(), request.limit(), LOOPBACK, port));
+                try {
+                    socket.receive(new DatagramPacket(responseData, responseData.length));
+                    return;
+                } catch (SocketTimeoutException e) {
+                    // not listening yet
+                }
+            }
+        }
+        throw new IOException("UDP server on port " + port + " did not start");
+    }
+
+    // method to wait until the TCP server accepts connections
+    private static void awaitTcpServer(int port) throws IOException, InterruptedException {
+        for (int attempt = 0; attempt < 100; attempt++) {
+            try {
+                new Socket(LOOPBACK, port).close();
+                return;
+            } catch (IOException e) {
+                Thread.sleep(100);
+            }
+        }
+        throw new IOException("TCP server on port " + port + " did not start");
+    }
+
+    // method to create a file of the given size on both the server and the client side (if it doesn't exist yet)
+    static String file(long size) throws IOException {
+        String filename = "file-" + size + ".txt";
+        for (Path directory : new Path[] {serverDirectory, clientDirectory}) {
+            Path file = directory.resolve(filename);
+            if (Files.exists(file) && Files.size(file) == size) {
+                continue;
+            }
+            try (Writer writer = Files.newBufferedWriter(file)) {
+                String line = "0123456789abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789abcdefghijklmnopqrstuvwxyz-=\n";
+                long written = 0;
+                while (written + line.length() <= size) {
+                    writer.write(line);
+                    written += line.length();
+                }
+                writer.write(line, 0, (int) (size - written));
+            }
+        }
+        return filename;
+    }
+
+    // the full path of a file on the server, sent in the requests as the servers resolve names against their own directory
+    static String serverPath(String filename) {
+        return serverDirectory.resolve(filename).toString();
+    }
+
+    static String clientPath(String filename) {
+        return clientDirectory.resolve(filename).toString();
+    }
+}
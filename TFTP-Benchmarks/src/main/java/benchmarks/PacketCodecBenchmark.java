@@ -0,0 +1,87 @@
+package benchmarks;
+
+// imports that are using in this project
+import common.PacketCodec;
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+// cost of encoding and decoding single packets with the PacketCodec...
+// run with "-prof gc" to check that DATA and ACK packets are built without garbage
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PacketCodecBenchmark {
+    @Param({"512", "1428", "8192"})
+    public int blockSize;
+
+    private byte[] fileData;
+    private ByteBuffer dataPacket;
+    private ByteBuffer ackPacket;
+    private ByteBuffer requestPacket;
+    private ByteBuffer optionAckPacket;
+    private Map<String, String> options;
+    private int blockNumber;
+
+    @Setup
+    public void setup() {
+        fileData = new byte[blockSize];
+        dataPacket = ByteBuffer.allocate(blockSize + PacketCodec.DATA_HEADER_SIZE);
+        ackPacket = ByteBuffer.allocate(PacketCodec.DATA_HEADER_SIZE);
+        PacketCodec.encodeData(dataPacket, 1, fileData, 0, fileData.length);
+        options = new LinkedHashMap<>();
+        options.put("blksize", String.valueOf(blockSize));
+        options.put("windowsize", "16");
+        options.put("timeout", "1");
+        requestPacket = PacketCodec.encodeRequest(ByteBuffer.allocate(PacketCodec.MAX_REQUEST_SIZE), PacketCodec.RRQ, "firmware.bin", "octet", options);
+        optionAckPacket = PacketCodec.encodeOptionAck(ByteBuffer.allocate(PacketCodec.MAX_REQUEST_SIZE), options);
+    }
+
+    @Benchmark
+    public ByteBuffer encodeData() {
+        return PacketCodec.encodeData(dataPacket, ++blockNumber, fileData, 0, fileData.length);
+    }
+
+    @Benchmark
+    public ByteBuffer encodeAck() {
+        return PacketCodec.encodeAck(ackPacket, ++blockNumber);
+    }
+
+    @Benchmark
+    public void decodeData(Blackhole blackhole) {
+        blackhole.consume(PacketCodec.opcode(dataPacket));
+        blackhole.consume(PacketCodec.blockNumber(dataPacket));
+        blackhole.consume(PacketCodec.dataLength(dataPacket));
+    }
+
+    @Benchmark
+    public ByteBuffer encodeRequest() {
+        return PacketCodec.encodeRequest(requestPacket, PacketCodec.RRQ, "firmware.bin", "octet", options);
+    }
+
+    @Benchmark
+    public PacketCodec.Request decodeRequest() {
+        return PacketCodec.decodeRequest(requestPacket);
+    }
+
+    @Benchmark
+    public Map<String, String> decodeOptionAck() {
+        return PacketCodec.decodeOptionAck(optionAckPacket);
+    }
+}
@@ -0,0 +1,97 @@
+package benchmarks;
+
+// imports that are using in this project
+import TFTPTCPClient.TFTPConnection;
+import TFTPTCPClient.TFTPConnectionPool;
+import common.FrameCodec;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// time to download many small files over TCP, where connecting and waiting for each answer costs more than the data...
+// one connection per file (like the client's menu), one pipelined connection, and a pool of pipelined connections
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SmallFilesBenchmark {
+    @Param({"1000"})
+    public int files;
+
+    @Param({"4096"})
+    public long fileSize;
+
+    @Param({"4"})
+    public int poolSize;
+
+    private String serverFile;
+    private String[] downloadFiles;
+    private TFTPConnection connection;
+    private TFTPConnectionPool pool;
+
+    @Setup
+    public void setup() throws IOException, InterruptedException {
+        LoopbackServers.start();
+        String filename = LoopbackServers.file(fileSize);
+        serverFile = LoopbackServers.serverPath(filename);
+        downloadFiles = new String[files];
+        for (int i = 0; i < files; i++) {
+            downloadFiles[i] = LoopbackServers.clientPath("small-" + i + "-" + filename);
+        }
+        String address = LoopbackServers.LOOPBACK.getHostAddress();
+        connection = new TFTPConnection(address, LoopbackServers.TCP_PORT);
+        pool = new TFTPConnectionPool(address, LoopbackServers.TCP_PORT, poolSize);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        connection.close();
+        pool.close();
+    }
+
+    @Benchmark
+    public void connectionPerFile() throws IOException {
+        for (String downloadFile : downloadFiles) {
+            Transfers.read(Transfers.TCP, serverFile, downloadFile);
+        }
+    }
+
+    // every request is sent before the first answer arrives
+    @Benchmark
+    public void pipelined() throws IOException {
+        List<CompletableFuture<FrameCodec.Status>> reads = new ArrayList<>(files);
+        for (String downloadFile : downloadFiles) {
+            reads.add(connection.read(serverFile, downloadFile));
+        }
+        for (CompletableFuture<FrameCodec.Status> read : reads) {
+            Transfers.check(read.join());
+        }
+    }
+
+    @Benchmark
+    public void pooled() throws IOException {
+        List<CompletableFuture<FrameCodec.Status>> reads = new ArrayList<>(files);
+        for (String downloadFile : downloadFiles) {
+            reads.add(pool.read(serverFile, downloadFile));
+        }
+        for (CompletableFuture<FrameCodec.Status> read : reads) {
+            Transfers.check(read.join());
+        }
+    }
+}
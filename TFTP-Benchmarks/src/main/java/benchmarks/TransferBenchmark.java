@@ -0,0 +1,67 @@
+package benchmarks;
+
+// imports that are using in this project
+import client.TFTPUDPClient;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// time of a single download or upload over loopback, for each protocol and a few file sizes...
+// throughput is the file size divided by the reported time
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TransferBenchmark {
+    @Param({Transfers.UDP_THREADED, Transfers.UDP_NIO, Transfers.TCP})
+    public String protocol;
+
+    @Param({"16384", "1048576", "16777216"})
+    public long fileSize;
+
+    // options the UDP client asks for (ignored by the TCP version)
+    @Param({"1428"})
+    public int blockSize;
+
+    @Param({"16"})
+    public int windowSize;
+
+    private String serverFile;
+    private String clientFile;
+    private String downloadFile;
+    private String uploadFile;
+
+    @Setup
+    public void setup() throws IOException, InterruptedException {
+        LoopbackServers.start();
+        TFTPUDPClient.blockSize = blockSize;
+        TFTPUDPClient.windowSize = windowSize;
+        String filename = LoopbackServers.file(fileSize);
+        serverFile = LoopbackServers.serverPath(filename);
+        clientFile = LoopbackServers.clientPath(filename);
+        downloadFile = LoopbackServers.clientPath("download-" + filename);
+        uploadFile = LoopbackServers.serverPath("upload-" + filename);
+    }
+
+    @Benchmark
+    public void read() throws IOException {
+        Transfers.read(protocol, serverFile, downloadFile);
+    }
+
+    @Benchmark
+    public void write() throws IOException {
+        Transfers.write(protocol, clientFile, uploadFile);
+    }
+}
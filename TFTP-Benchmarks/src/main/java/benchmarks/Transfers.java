@@ -0,0 +1,67 @@
+package benchmarks;
+
+// imports that are using in this project
+import TFTPTCPClient.TFTPConnection;
+import client.TFTPUDPClient;
+import common.FrameCodec;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.nio.ByteBuffer;
+
+// a single download or upload through one of the clients, the way the client's own menu does it...
+// the file on the server and the file on the client have different paths, as both sides run in the same directory tree
+final class Transfers {
+    // the protocols (and server modes) a benchmark can be run against
+    static final String UDP_THREADED = "udp-threaded";
+    static final String UDP_NIO = "udp-nio";
+    static final String TCP = "tcp";
+
+    private Transfers() {
+    }
+
+    // method to download serverFile into localFile
+    static void read(String protocol, String serverFile, String localFile) throws IOException {
+        if (protocol.equals(TCP)) {
+            // a new connection for every file, like the client's own menu
+            try (TFTPConnection connection = new TFTPConnection(LoopbackServers.LOOPBACK.getHostAddress(), LoopbackServers.TCP_PORT)) {
+                check(connection.read(serverFile, localFile).join());
+            }
+            return;
+        }
+        try (DatagramSocket socket = new DatagramSocket()) {
+            ByteBuffer request = TFTPUDPClient.createReadRequest(serverFile, TFTPUDPClient.mode, TFTPUDPClient.requestOptions());
+            if (!TFTPUDPClient.receiveFile(socket, localFile, new DatagramPacket(request.array(), request.limit(), LoopbackServers.LOOPBACK, udpPort(protocol)))) {
+                throw new IOException("Download of " + serverFile + " failed");
+            }
+        }
+    }
+
+    // method to upload localFile as serverFile
+    static void write(String protocol, String localFile, String serverFile) throws IOException {
+        if (protocol.equals(TCP)) {
+            try (TFTPConnection connection = new TFTPConnection(LoopbackServers.LOOPBACK.getHostAddress(), LoopbackServers.TCP_PORT)) {
+                // returns once the server confirms the file has been written
+                check(connection.write(localFile, serverFile).join());
+            }
+            return;
+        }
+        try (DatagramSocket socket = new DatagramSocket()) {
+            ByteBuffer request = TFTPUDPClient.createWriteRequest(serverFile, TFTPUDPClient.mode, TFTPUDPClient.requestOptions());
+            if (!TFTPUDPClient.sendFile(socket, localFile, new DatagramPacket(request.array(), request.limit(), LoopbackServers.LOOPBACK, udpPort(protocol)))) {
+                throw new IOException("Upload of " + localFile + " failed");
+            }
+        }
+    }
+
+    // method to make a failed TCP transfer fail the benchmark instead of being measured
+    static void check(FrameCodec.Status status) throws IOException {
+        if (!status.isOk()) {
+            throw new IOException(status.message());
+        }
+    }
+
+    private static int udpPort(String protocol) {
+        return protocol.equals(UDP_NIO) ? LoopbackServers.UDP_NIO_PORT : LoopbackServers.UDP_THREADED_PORT;
+    }
+}
@@ -0,0 +1,61 @@
+package common;
+
+// imports that are using in this project
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+
+// pool of packet buffers shared by every transfer...
+// a transfer takes its buffers when it starts and gives them back when it ends, so with thousands of transfers
+// coming and going the buffers (up to 64 KB each with a large blksize) are reused instead of allocated every time
+// buffers are pooled by size class (powers of two from 512 bytes to 128 KB)
+public final class BufferPool {
+    // most memory kept in the pool for each size class
+    public static long MAX_POOLED_BYTES_PER_SIZE = 64L * 1024 * 1024;
+
+    private static final int SMALLEST_SIZE_SHIFT = 9;
+    private static final int LARGEST_SIZE_SHIFT = 17;
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static final ArrayBlockingQueue<ByteBuffer>[] pools = new ArrayBlockingQueue[LARGEST_SIZE_SHIFT - SMALLEST_SIZE_SHIFT + 1];
+
+    static {
+        for (int i = 0; i < pools.length; i++) {
+            int bufferSize = 1 << (i + SMALLEST_SIZE_SHIFT);
+            pools[i] = new ArrayBlockingQueue<>((int) Math.max(1, MAX_POOLED_BYTES_PER_SIZE / bufferSize));
+        }
+    }
+
+    private BufferPool() {
+    }
+
+    // method to take a cleared buffer that can hold at least the given number of bytes
+    public static ByteBuffer acquire(int capacity) {
+        int sizeClass = sizeClass(capacity);
+        if (sizeClass >= pools.length) {
+            return ByteBuffer.allocate(capacity);
+        }
+        ByteBuffer buffer = pools[sizeClass].poll();
+        if (buffer == null) {
+            buffer = ByteBuffer.allocate(1 << (sizeClass + SMALLEST_SIZE_SHIFT));
+        }
+        return buffer.clear();
+    }
+
+    // method to give a buffer back, it must not be used afterwards
+    public static void release(ByteBuffer buffer) {
+        if (buffer == null) {
+            return;
+        }
+        int sizeClass = sizeClass(buffer.capacity());
+        // only buffers that came from the pool (exactly the size of their class) go back into it
+        if (sizeClass < pools.length && buffer.capacity() == 1 << (sizeClass + SMALLEST_SIZE_SHIFT)) {
+            pools[sizeClass].offer(buffer);
+        }
+    }
+
+    // method to find the smallest size class that holds the given number of bytes
+    private static int sizeClass(int capacity) {
+        int shift = 32 - Integer.numberOfLeadingZeros(Math.max(1, capacity) - 1);
+        return Math.max(0, shift - SMALLEST_SIZE_SHIFT);
+    }
+}
@@ -0,0 +1,180 @@
+package common;
+
+// imports that are using in this project
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+// the progress of an incoming file, so a transfer that dies can be resumed instead of started again...
+// the file is written under a temporary name ("<file>.part") and renamed once it is complete, and a small sidecar
+// ("<file>.part.ckpt") holds the offset up to which the data is known to be on disk
+// the data is forced to disk before the offset is saved, so after a crash the part file may hold more than the
+// checkpoint says (that extra data is written again) but never less
+// the complete file is forced to disk before it is renamed, and the rename is atomic, so someone reading the file
+// (another transfer, or after a crash) sees either the old file or the whole new one, never half of it
+// a server claims the part file before it loads or starts the checkpoint, so two transfers of the same file never
+// write to (or delete) the same part file
+public final class Checkpoint {
+    // how much data is received between two checkpoints
+    public static long INTERVAL = 8L * 1024 * 1024;
+
+    private static final String PART_SUFFIX = ".part";
+    private static final String CHECKPOINT_SUFFIX = ".part.ckpt";
+
+    // the part files claimed by a transfer that is still running
+    private static final Set<Path> claimed = ConcurrentHashMap.newKeySet();
+
+    private final Path partFile;
+    private final Path checkpointFile;
+    // the offset the transfer can be resumed from
+    private long offset;
+
+    private Checkpoint(Path partFile, Path checkpointFile, long offset) {
+        this.partFile = partFile;
+        this.checkpointFile = checkpointFile;
+        this.offset = offset;
+    }
+
+    // method to make the part file of a file the transfer's own, returns false if another transfer has claimed it
+    public static boolean claim(String filename) {
+        return claimed.add(claimedPath(filename));
+    }
+
+    // method to give the part file of a file back once the transfer that claimed it is over
+    public static void release(String filename) {
+        claimed.remove(claimedPath(filename));
+    }
+
+    private static Path claimedPath(String filename) {
+        return Path.of(filename + PART_SUFFIX).toAbsolutePath().normalize();
+    }
+
+    // method to find the checkpoint of a file, the offset is 0 if there is no part file (or no checkpoint) for it
+    public static Checkpoint load(String filename) throws IOException {
+        Path partFile = Path.of(filename + PART_SUFFIX);
+        Path checkpointFile = Path.of(filename + CHECKPOINT_SUFFIX);
+        long offset = 0;
+        if (Files.isRegularFile(partFile) && Files.isRegularFile(checkpointFile)) {
+            String content = Files.readString(checkpointFile, StandardCharsets.UTF_8).trim();
+            try {
+                offset = Long.parseLong(content.substring(content.indexOf('=') + 1));
+            } catch (NumberFormatException e) {
+                // a damaged checkpoint, the transfer starts again
+                offset = 0;
+            }
+            // the part file can't be shorter than the checkpoint unless it was changed by someone else
+            offset = Math.max(0, Math.min(offset, Files.size(partFile)));
+        }
+        return new Checkpoint(partFile, checkpointFile, offset);
+    }
+
+    // method to start a transfer that isn't resumed, the checkpoint of an earlier attempt no longer matches the
+    // part file once it is written again, so it is deleted
+    public static Checkpoint start(String filename) throws IOException {
+        Path checkpointFile = Path.of(filename + CHECKPOINT_SUFFIX);
+        Files.deleteIfExists(checkpointFile);
+        return new Checkpoint(Path.of(filename + PART_SUFFIX), checkpointFile, 0);
+    }
+
+    // method to open the part file to write the rest of the file from the offset onwards
+    // size is the size of the complete file if it is known (tsize option), the part file is given that size first
+    public WriteBuffer open(long size) throws IOException {
+        FileChannel fileChannel = FileChannel.open(partFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        try {
+            fileChannel.truncate(offset);
+            WriteBuffer out = new WriteBuffer(fileChannel, offset);
+            out.preallocate(size);
+            return out;
+        } catch (IOException e) {
+            fileChannel.close();
+            throw e;
+        }
+    }
+
+    public Path partFile() {
+        return partFile;
+    }
+
+    public long offset() {
+        return offset;
+    }
+
+    // whether enough data has been received since the last checkpoint to save a new one
+    public boolean due(long position) {
+        return position - offset >= INTERVAL;
+    }
+
+    // method to save a checkpoint at the position of out, once everything written to the part file is on disk
+    // the sidecar is written under another name and renamed, so a crash never leaves half a checkpoint
+    public void save(WriteBuffer out) throws IOException {
+        out.flush();
+        out.channel().force(false);
+        long offset = out.position();
+        Path temporaryFile = Path.of(checkpointFile + ".tmp");
+        Files.writeString(temporaryFile, "offset=" + offset + "\n", StandardCharsets.UTF_8);
+        Files.move(temporaryFile, checkpointFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        this.offset = offset;
+    }
+
+    // method to keep a transfer that failed for later, or to throw it away if nothing was received
+    public void keep(WriteBuffer out) throws IOException {
+        if (out.position() > 0) {
+            save(out);
+        } else {
+            discard();
+        }
+    }
+
+    // method to give the complete file its real name and remove the checkpoint, the file ends at the position of out
+    public void complete(WriteBuffer out, String filename) throws IOException {
+        out.flush();
+        complete(out.channel(), out.position(), filename);
+    }
+
+    // method to give the complete file (of the given size) its real name and remove the checkpoint
+    public void complete(FileChannel fileChannel, long size, String filename) throws IOException {
+        // a preallocated part file is cut back to the data that was received
+        fileChannel.truncate(size);
+        // the data and the size of the file are on disk before the rename, so the new name never points at less
+        fileChannel.force(true);
+        fileChannel.close();
+        Path file = Path.of(filename);
+        try {
+            Files.move(partFile, file, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(partFile, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+        Files.deleteIfExists(checkpointFile);
+        syncDirectory(file);
+    }
+
+    // method to go back to the start of the file when it is written again from the beginning, the saved checkpoint
+    // would point past data that is no longer there
+    public void reset() throws IOException {
+        Files.deleteIfExists(checkpointFile);
+        offset = 0;
+    }
+
+    // method to delete the part file and its checkpoint
+    public void discard() throws IOException {
+        Files.deleteIfExists(partFile);
+        Files.deleteIfExists(checkpointFile);
+    }
+
+    // method to force the directory of a file to disk, so its rename is too
+    // not every platform can open a directory (Windows can't), there the rename is left to the file system
+    private static void syncDirectory(Path file) {
+        try (FileChannel directory = FileChannel.open(file.toAbsolutePath().getParent(), StandardOpenOption.READ)) {
+            directory.force(true);
+        } catch (IOException e) {
+            // nothing more can be done
+        }
+    }
+}
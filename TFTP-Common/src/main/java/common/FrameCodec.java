@@ -0,0 +1,159 @@
+package common;
+
+// imports that are using in this project
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+// framing of the TCP version of the protocol, shared by the TCP client and server...
+// every message is a frame with an opcode, the length of its payload and the payload itself, so files are
+// moved as raw bytes (binary files and files containing any kind of line arrive unchanged)
+//
+// structure of a frame
+// 2 bytes     4 bytes       4 bytes      n bytes
+//  -----------------------------------------------
+// | Opcode |  Request #  |   Length   |  Payload   |
+//  -----------------------------------------------
+//
+// a read is a RRQ frame answered with DATA frames and an END frame, or with a STATUS frame if it fails
+// a write is a WRQ frame followed by DATA frames and an END frame, answered with a STATUS frame
+// every frame carries the number the client gave to its request, so a client can send many requests on one
+// connection without waiting (pipelining) and match each response frame to its request
+public final class FrameCodec {
+    // payload is the filename (UTF-8)
+    public static final int RRQ = 1;
+    public static final int WRQ = 2;
+    // payload is a chunk of the file
+    public static final int DATA = 3;
+    // end of the file, no payload
+    public static final int END = 4;
+    // payload is a 2 byte status code followed by a message (UTF-8)
+    public static final int STATUS = 5;
+
+    // status codes, the error codes are the ones of the RFC 1350
+    public static final int STATUS_OK = 0;
+    public static final int STATUS_FILE_NOT_FOUND = 1;
+    public static final int STATUS_ACCESS_VIOLATION = 2;
+    public static final int STATUS_ILLEGAL_OPERATION = 4;
+
+    public static final int HEADER_SIZE = 10;
+    // size of the DATA frames a file is split into
+    public static final int CHUNK_SIZE = 64 * 1024;
+    // longest filename (or status message) read, the length comes from the other side so a longer one could make
+    // the reader allocate as much memory as it asks for
+    public static final int MAX_STRING_LENGTH = 4096;
+
+    private FrameCodec() {
+    }
+
+    // the opcode, request number and payload length of a frame, the payload itself is read by the caller
+    public record Header(int opcode, int requestId, int length) {
+    }
+
+    // method to read the header of the next frame, or null if the other side closed the connection between frames
+    public static Header readHeader(DataInputStream in) throws IOException {
+        int opcodeHigh = in.read();
+        if (opcodeHigh < 0) {
+            return null;
+        }
+        int opcode = (opcodeHigh << 8) | in.readUnsignedByte();
+        int requestId = in.readInt();
+        int length = in.readInt();
+        if (length < 0) {
+            throw new IOException("Invalid frame length " + length);
+        }
+        return new Header(opcode, requestId, length);
+    }
+
+    public static void writeHeader(DataOutputStream out, int opcode, int requestId, int length) throws IOException {
+        out.writeShort(opcode);
+        out.writeInt(requestId);
+        out.writeInt(length);
+    }
+
+    // method to send a RRQ or WRQ frame
+    public static void writeRequest(DataOutputStream out, int opcode, int requestId, String filename) throws IOException {
+        byte[] filenameBytes = filename.getBytes(StandardCharsets.UTF_8);
+        writeHeader(out, opcode, requestId, filenameBytes.length);
+        out.write(filenameBytes);
+    }
+
+    // method to send a chunk of a file as a DATA frame
+    public static void writeData(DataOutputStream out, int requestId, byte[] data, int offset, int length) throws IOException {
+        writeHeader(out, DATA, requestId, length);
+        out.write(data, offset, length);
+    }
+
+    public static void writeEnd(DataOutputStream out, int requestId) throws IOException {
+        writeHeader(out, END, requestId, 0);
+    }
+
+    // structure of the STATUS payload
+    // 2 bytes     n bytes
+    //  -----------------------
+    // |  Code  |   Message    |
+    //  -----------------------
+    public static void writeStatus(DataOutputStream out, int requestId, int code, String message) throws IOException {
+        byte[] messageBytes = message.getBytes(StandardCharsets.UTF_8);
+        writeHeader(out, STATUS, requestId, 2 + messageBytes.length);
+        out.writeShort(code);
+        out.write(messageBytes);
+    }
+
+    // method to read the payload of a RRQ or WRQ frame, a payload longer than MAX_STRING_LENGTH isn't read
+    public static String readString(DataInputStream in, int length) throws IOException {
+        if (length > MAX_STRING_LENGTH) {
+            throw new IOException("String of " + length + " bytes is too long");
+        }
+        byte[] valueBytes = new byte[length];
+        in.readFully(valueBytes);
+        return new String(valueBytes, StandardCharsets.UTF_8);
+    }
+
+    // a decoded STATUS payload
+    public record Status(int code, String message) {
+        public boolean isOk() {
+            return code == STATUS_OK;
+        }
+    }
+
+    public static Status readStatus(DataInputStream in, int length) throws IOException {
+        if (length < 2) {
+            throw new IOException("Invalid status frame");
+        }
+        int code = in.readUnsignedShort();
+        return new Status(code, readString(in, length - 2));
+    }
+
+    // method to copy the payload of a DATA frame to a file (or anywhere else) through the given buffer
+    public static void copyPayload(DataInputStream in, int length, OutputStream out, byte[] buffer) throws IOException {
+        while (length > 0) {
+            int bytesRead = in.read(buffer, 0, Math.min(buffer.length, length));
+            if (bytesRead < 0) {
+                throw new EOFException("Connection closed in the middle of a frame");
+            }
+            out.write(buffer, 0, bytesRead);
+            length -= bytesRead;
+        }
+    }
+
+    // method to copy the payload of a DATA frame to the buffer in front of a file
+    public static void copyPayload(DataInputStream in, int length, WriteBuffer out, byte[] buffer) throws IOException {
+        while (length > 0) {
+            int bytesRead = in.read(buffer, 0, Math.min(buffer.length, length));
+            if (bytesRead < 0) {
+                throw new EOFException("Connection closed in the middle of a frame");
+            }
+            out.write(buffer, 0, bytesRead);
+            length -= bytesRead;
+        }
+    }
+
+    // method to skip the payload of a frame that isn't wanted
+    public static void skipPayload(DataInputStream in, int length) throws IOException {
+        in.skipNBytes(length);
+    }
+}
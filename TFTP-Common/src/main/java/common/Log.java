@@ -0,0 +1,183 @@
+package common;
+
+// imports that are using in this project
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+// logging of the clients and servers...
+// every line has a level and only the lines at the chosen level (or more important) are logged, a line for every
+// packet is TRACE, a line for every transfer is INFO, so by default a transfer logs one summary line
+// the per-packet lines are guarded by the caller, so when TRACE is off they cost a comparison and build nothing:
+//     if (Log.isEnabled(Log.Level.TRACE)) {
+//         Log.trace(host + ": Sent Packet " + block);
+//     }
+//
+// the lines go into a ring buffer and a thread of its own writes them out, so the threads moving packets never
+// wait for the console (System.out is synchronized, with a line per packet every thread queues on it)
+// at most MAX_LINES_PER_SECOND lines are taken a second (and none while the ring is full), the extra lines are
+// dropped and their number is logged instead, errors are always logged
+public final class Log {
+    // levels, most important first
+    public enum Level {
+        ERROR, WARN, INFO, DEBUG, TRACE;
+
+        // method to read a level from the command line, e.g. "trace"
+        public static Level parse(String name) {
+            return valueOf(name.trim().toUpperCase());
+        }
+    }
+
+    // the least important level that is logged, change with "-log <level>"
+    public static volatile Level level = Level.INFO;
+    // most lines waiting to be written
+    public static int RING_SIZE = 8192;
+    // most lines (other than errors) logged per second
+    public static int MAX_LINES_PER_SECOND = 10000;
+
+    // a line and whether it goes to System.err
+    private record Line(boolean error, String text) {
+    }
+
+    private static final ArrayBlockingQueue<Line> ring = new ArrayBlockingQueue<>(RING_SIZE);
+    // lines dropped since the last time their number was logged
+    private static final LongAdder dropped = new LongAdder();
+    // the second the lines are being counted for and the number of lines taken in it
+    private static volatile long currentSecond;
+    private static final AtomicInteger linesThisSecond = new AtomicInteger();
+    // held while lines are written, so flush() and the writer thread don't mix their lines
+    private static final ReentrantLock writeLock = new ReentrantLock();
+
+    static {
+        Thread writer = Thread.ofPlatform().daemon().name("log-writer").unstarted(Log::writeLines);
+        writer.start();
+        // the lines still in the ring are written before the program exits
+        Runtime.getRuntime().addShutdownHook(new Thread(Log::flush));
+    }
+
+    private Log() {
+    }
+
+    public static boolean isEnabled(Level lineLevel) {
+        return lineLevel.ordinal() <= level.ordinal();
+    }
+
+    public static void error(String text) {
+        // an error is never dropped, the thread waits for room in the ring instead
+        try {
+            ring.put(new Line(true, text));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public static void warn(String text) {
+        if (isEnabled(Level.WARN)) {
+            add(true, text);
+        }
+    }
+
+    public static void info(String text) {
+        if (isEnabled(Level.INFO)) {
+            add(false, text);
+        }
+    }
+
+    public static void debug(String text) {
+        if (isEnabled(Level.DEBUG)) {
+            add(false, text);
+        }
+    }
+
+    public static void trace(String text) {
+        if (isEnabled(Level.TRACE)) {
+            add(false, text);
+        }
+    }
+
+    // method to build the summary line of a transfer, e.g.
+    // "127.0.0.1: RRQ big.bin completed, 10485760 bytes in 412 ms (24.27 MB/s)"
+    public static String summary(String host, String requestType, String filename, boolean completed, long bytes, long nanos) {
+        double megabytesPerSecond = bytes / 1048576.0 / Math.max(nanos, 1) * 1_000_000_000L;
+        return host + ": " + requestType + " " + filename + (completed ? " completed, " : " failed, ") + bytes + " bytes in "
+                + nanos / 1_000_000 + " ms (" + String.format("%.2f", megabytesPerSecond) + " MB/s)";
+    }
+
+    // method to write every line logged so far, e.g. before the program prints to the console itself
+    public static void flush() {
+        writeLock.lock();
+        try {
+            List<Line> lines = new ArrayList<>();
+            ring.drainTo(lines);
+            write(lines);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    // method to put a line in the ring, unless the rate limit has been reached or the ring is full
+    private static void add(boolean error, String text) {
+        long second = System.nanoTime() / 1_000_000_000L;
+        if (second != currentSecond) {
+            currentSecond = second;
+            linesThisSecond.set(0);
+        }
+        if (linesThisSecond.incrementAndGet() > MAX_LINES_PER_SECOND || !ring.offer(new Line(error, text))) {
+            dropped.increment();
+        }
+    }
+
+    // method run by the writer thread, writes the lines in the ring in batches
+    private static void writeLines() {
+        List<Line> lines = new ArrayList<>();
+        while (true) {
+            Line first;
+            try {
+                first = ring.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            writeLock.lock();
+            try {
+                lines.add(first);
+                ring.drainTo(lines);
+                write(lines);
+            } finally {
+                writeLock.unlock();
+            }
+            lines.clear();
+        }
+    }
+
+    // method to write a batch of lines, the lines for each stream are joined so a batch is a few writes
+    private static void write(List<Line> lines) {
+        StringBuilder text = new StringBuilder();
+        boolean error = false;
+        for (Line line : lines) {
+            if (line.error() != error && !text.isEmpty()) {
+                print(error, text);
+            }
+            error = line.error();
+            text.append(line.text()).append(System.lineSeparator());
+        }
+        print(error, text);
+        long droppedLines = dropped.sumThenReset();
+        if (droppedLines > 0) {
+            print(true, new StringBuilder("(" + droppedLines + " log lines dropped)" + System.lineSeparator()));
+        }
+    }
+
+    private static void print(boolean error, StringBuilder text) {
+        if (text.isEmpty()) {
+            return;
+        }
+        PrintStream stream = error ? System.err : System.out;
+        stream.print(text);
+        stream.flush();
+        text.setLength(0);
+    }
+}
@@ -0,0 +1,317 @@
+package common;
+
+// imports that are using in this project
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+// counters and histograms of the transfers of a server...
+// the transfers only add to them (a few atomic additions per packet), they are read through JMX (see
+// MetricsMXBean) or as plain text over HTTP, one "name value" line per metric in the Prometheus text format
+// so a local scraper (or curl) can read them, e.g. "curl localhost:9100/metrics"
+public final class Metrics {
+    // counters, updated by every session
+    private static final LongAdder activeSessions = new LongAdder();
+    private static final LongAdder sessionsStarted = new LongAdder();
+    private static final LongAdder sessionsCompleted = new LongAdder();
+    private static final LongAdder sessionsFailed = new LongAdder();
+    private static final LongAdder bytesSent = new LongAdder();
+    private static final LongAdder bytesReceived = new LongAdder();
+    private static final LongAdder blocksSent = new LongAdder();
+    private static final LongAdder blocksReceived = new LongAdder();
+    private static final LongAdder retransmits = new LongAdder();
+    private static final LongAdder timeouts = new LongAdder();
+
+    // distributions
+    public static final Histogram ROUND_TRIP_MICROS = new Histogram();
+    public static final Histogram TRANSFER_MILLIS = new Histogram();
+    public static final Histogram TRANSFER_KILOBYTES_PER_SECOND = new Histogram();
+
+    // values owned by the server (e.g. the file cache), read when the metrics are read
+    private static final Map<String, LongSupplier> gauges = new ConcurrentSkipListMap<>();
+
+    // bytes and blocks (sent and received) in the last whole second, updated once a second
+    private static final AtomicLong bytesPerSecond = new AtomicLong();
+    private static final AtomicLong blocksPerSecond = new AtomicLong();
+    private static boolean sampling;
+
+    private Metrics() {
+    }
+
+    // a histogram with a bucket per power of two, so recording is one atomic addition and the quantiles are
+    // within a factor of two
+    public static final class Histogram {
+        private final AtomicLongArray buckets = new AtomicLongArray(64);
+        private final LongAdder count = new LongAdder();
+        private final LongAdder sum = new LongAdder();
+        private final AtomicLong max = new AtomicLong();
+
+        public void record(long value) {
+            value = Math.max(0, value);
+            buckets.incrementAndGet(64 - Long.numberOfLeadingZeros(value));
+            count.increment();
+            sum.add(value);
+            max.accumulateAndGet(value, Math::max);
+        }
+
+        // the upper bound of the bucket the given quantile (0 to 1) falls in
+        public long quantile(double quantile) {
+            long rank = (long) Math.ceil(quantile * count.sum());
+            long seen = 0;
+            for (int i = 0; i < buckets.length(); i++) {
+                seen += buckets.get(i);
+                if (seen >= rank && seen > 0) {
+                    return Math.min(upperBound(i), max.get());
+                }
+            }
+            return 0;
+        }
+
+        // method to summarise the histogram for JMX
+        public Map<String, Long> summary() {
+            Map<String, Long> summary = new LinkedHashMap<>();
+            long samples = count.sum();
+            summary.put("count", samples);
+            summary.put("mean", samples == 0 ? 0 : sum.sum() / samples);
+            summary.put("p50", quantile(0.5));
+            summary.put("p90", quantile(0.9));
+            summary.put("p99", quantile(0.99));
+            summary.put("max", max.get());
+            return summary;
+        }
+
+        // values in bucket i are below 2^i
+        private static long upperBound(int bucket) {
+            return bucket >= 63 ? Long.MAX_VALUE : (1L << bucket) - 1;
+        }
+    }
+
+    // methods called by the sessions
+    public static void sessionStarted() {
+        sessionsStarted.increment();
+        activeSessions.increment();
+    }
+
+    // method to record the end of a session, with how much it moved and how long it took
+    public static void sessionEnded(boolean completed, long bytes, long nanos) {
+        activeSessions.decrement();
+        if (!completed) {
+            sessionsFailed.increment();
+            return;
+        }
+        sessionsCompleted.increment();
+        long millis = nanos / 1_000_000;
+        TRANSFER_MILLIS.record(millis);
+        TRANSFER_KILOBYTES_PER_SECOND.record(bytes * 1_000_000_000L / 1024 / Math.max(1, nanos));
+    }
+
+    public static void blockSent(int bytes) {
+        blocksSent.increment();
+        bytesSent.add(bytes);
+    }
+
+    public static void blockReceived(int bytes) {
+        blocksReceived.increment();
+        bytesReceived.add(bytes);
+    }
+
+    public static void retransmitted() {
+        retransmits.increment();
+    }
+
+    public static void timedOut() {
+        timeouts.increment();
+    }
+
+    public static void roundTrip(long nanos) {
+        ROUND_TRIP_MICROS.record(nanos / 1000);
+    }
+
+    // method to add a value owned by the server, e.g. gauge("cache_hits", FileCache::getHits)
+    public static void gauge(String name, LongSupplier value) {
+        gauges.put(name, value);
+    }
+
+    // method to make the metrics visible through JMX as "tftp:type=Metrics,name=<name>"
+    public static void registerMBean(String name) {
+        startSampling();
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(new View(), new ObjectName("tftp:type=Metrics,name=" + name));
+        } catch (JMException e) {
+            Log.error("Could not register the metrics with JMX: " + e.getMessage());
+        }
+    }
+
+    // method to serve the metrics as text on http://localhost:<port>/metrics, only to the local machine
+    public static void serveHttp(int port) throws IOException {
+        startSampling();
+        HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.createContext("/metrics", exchange -> {
+            byte[] body = render().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.start();
+        Log.info("Metrics on http://localhost:" + port + "/metrics");
+    }
+
+    // method to write every metric as text
+    public static String render() {
+        StringBuilder text = new StringBuilder();
+        counter(text, "tftp_sessions_active", "gauge", activeSessions.sum());
+        counter(text, "tftp_sessions_started_total", "counter", sessionsStarted.sum());
+        counter(text, "tftp_sessions_completed_total", "counter", sessionsCompleted.sum());
+        counter(text, "tftp_sessions_failed_total", "counter", sessionsFailed.sum());
+        counter(text, "tftp_bytes_sent_total", "counter", bytesSent.sum());
+        counter(text, "tftp_bytes_received_total", "counter", bytesReceived.sum());
+        counter(text, "tftp_blocks_sent_total", "counter", blocksSent.sum());
+        counter(text, "tftp_blocks_received_total", "counter", blocksReceived.sum());
+        counter(text, "tftp_bytes_per_second", "gauge", bytesPerSecond.get());
+        counter(text, "tftp_blocks_per_second", "gauge", blocksPerSecond.get());
+        counter(text, "tftp_retransmits_total", "counter", retransmits.sum());
+        counter(text, "tftp_timeouts_total", "counter", timeouts.sum());
+        histogram(text, "tftp_round_trip_microseconds", ROUND_TRIP_MICROS);
+        histogram(text, "tftp_transfer_duration_milliseconds", TRANSFER_MILLIS);
+        histogram(text, "tftp_transfer_throughput_kilobytes_per_second", TRANSFER_KILOBYTES_PER_SECOND);
+        for (Map.Entry<String, LongSupplier> gauge : gauges.entrySet()) {
+            counter(text, "tftp_" + gauge.getKey(), "gauge", gauge.getValue().getAsLong());
+        }
+        return text.toString();
+    }
+
+    private static void counter(StringBuilder text, String name, String type, long value) {
+        text.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+        text.append(name).append(' ').append(value).append('\n');
+    }
+
+    // a histogram is written as cumulative buckets, only up to the largest bucket in use
+    private static void histogram(StringBuilder text, String name, Histogram histogram) {
+        text.append("# TYPE ").append(name).append(" histogram\n");
+        int last = 0;
+        for (int i = 0; i < histogram.buckets.length(); i++) {
+            if (histogram.buckets.get(i) > 0) {
+                last = i;
+            }
+        }
+        long cumulative = 0;
+        for (int i = 0; i <= last; i++) {
+            cumulative += histogram.buckets.get(i);
+            text.append(name).append("_bucket{le=\"").append(Histogram.upperBound(i)).append("\"} ").append(cumulative).append('\n');
+        }
+        text.append(name).append("_bucket{le=\"+Inf\"} ").append(histogram.count.sum()).append('\n');
+        text.append(name).append("_sum ").append(histogram.sum.sum()).append('\n');
+        text.append(name).append("_count ").append(histogram.count.sum()).append('\n');
+    }
+
+    // method to start the thread that works out the rates once a second, only when someone reads the metrics
+    private static synchronized void startSampling() {
+        if (sampling) {
+            return;
+        }
+        sampling = true;
+        Thread.ofVirtual().name("metrics-sampler").start(() -> {
+            long lastBytes = bytesSent.sum() + bytesReceived.sum();
+            long lastBlocks = blocksSent.sum() + blocksReceived.sum();
+            while (true) {
+                try {
+                    Thread.sleep(1000);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                long bytes = bytesSent.sum() + bytesReceived.sum();
+                long blocks = blocksSent.sum() + blocksReceived.sum();
+                bytesPerSecond.set(bytes - lastBytes);
+                blocksPerSecond.set(blocks - lastBlocks);
+                lastBytes = bytes;
+                lastBlocks = blocks;
+            }
+        });
+    }
+
+    // the metrics as an MXBean, the getters read the same counters as render()
+    private static final class View implements MetricsMXBean {
+        public long getActiveSessions() {
+            return activeSessions.sum();
+        }
+
+        public long getSessionsStarted() {
+            return sessionsStarted.sum();
+        }
+
+        public long getSessionsCompleted() {
+            return sessionsCompleted.sum();
+        }
+
+        public long getSessionsFailed() {
+            return sessionsFailed.sum();
+        }
+
+        public long getBytesSent() {
+            return bytesSent.sum();
+        }
+
+        public long getBytesReceived() {
+            return bytesReceived.sum();
+        }
+
+        public long getBlocksSent() {
+            return blocksSent.sum();
+        }
+
+        public long getBlocksReceived() {
+            return blocksReceived.sum();
+        }
+
+        public long getBytesPerSecond() {
+            return bytesPerSecond.get();
+        }
+
+        public long getBlocksPerSecond() {
+            return blocksPerSecond.get();
+        }
+
+        public long getRetransmits() {
+            return retransmits.sum();
+        }
+
+        public long getTimeouts() {
+            return timeouts.sum();
+        }
+
+        public Map<String, Long> getRoundTripMicros() {
+            return ROUND_TRIP_MICROS.summary();
+        }
+
+        public Map<String, Long> getTransferMillis() {
+            return TRANSFER_MILLIS.summary();
+        }
+
+        public Map<String, Long> getTransferKilobytesPerSecond() {
+            return TRANSFER_KILOBYTES_PER_SECOND.summary();
+        }
+
+        public Map<String, Long> getGauges() {
+            Map<String, Long> values = new LinkedHashMap<>();
+            for (Map.Entry<String, LongSupplier> gauge : gauges.entrySet()) {
+                values.put(gauge.getKey(), gauge.getValue().getAsLong());
+            }
+            return values;
+        }
+    }
+}
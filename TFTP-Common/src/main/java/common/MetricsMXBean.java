@@ -0,0 +1,41 @@
+package common;
+
+// imports that are using in this project
+import java.util.Map;
+
+// the counters of Metrics as seen through JMX (e.g. in JConsole or VisualVM under "tftp")
+// the histograms are maps of count, mean, p50, p90, p99 and max
+public interface MetricsMXBean {
+    long getActiveSessions();
+
+    long getSessionsStarted();
+
+    long getSessionsCompleted();
+
+    long getSessionsFailed();
+
+    long getBytesSent();
+
+    long getBytesReceived();
+
+    long getBlocksSent();
+
+    long getBlocksReceived();
+
+    long getBytesPerSecond();
+
+    long getBlocksPerSecond();
+
+    long getRetransmits();
+
+    long getTimeouts();
+
+    Map<String, Long> getRoundTripMicros();
+
+    Map<String, Long> getTransferMillis();
+
+    Map<String, Long> getTransferKilobytesPerSecond();
+
+    // values registered by the server itself, e.g. the hits and misses of its file cache
+    Map<String, Long> getGauges();
+}
@@ -0,0 +1,280 @@
+package common;
+
+// imports that are using in this project
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// encoding and decoding of every TFTP packet, shared by the UDP client and server...
+// packets are written into (and read from) ByteBuffers owned by the caller, so a transfer can reuse the same
+// few buffers for every DATA and ACK packet and creates no garbage per packet
+// encoders leave the buffer flipped (ready to send), decoders read relative to the buffer's position
+public final class PacketCodec {
+    public static final int RRQ = 1;
+    public static final int WRQ = 2;
+    public static final int DATA = 3;
+    public static final int ACK = 4;
+    public static final int ERROR = 5;
+    // option acknowledgment, as it states in the RFC 2347
+    public static final int OACK = 6;
+
+    // as it states in the RFC 1350, packet size will be 512 (excluding headers) unless the blksize option is used
+    public static final int DEFAULT_BLOCK_SIZE = 512;
+    // as it states in the RFC 2348, the largest block size a client can negotiate with the blksize option
+    public static final int MAX_BLOCK_SIZE = 65464;
+    // opcode and block number in front of the data of a DATA packet
+    public static final int DATA_HEADER_SIZE = 4;
+    // as it states in the RFC 2347, a request (with its options) fits in 512 bytes
+    public static final int MAX_REQUEST_SIZE = 512;
+    // most blocks after the acknowledged one a selective ACK can report (the sack option), so it fits in the same 512 bytes
+    public static final int MAX_SACK_BLOCKS = (MAX_REQUEST_SIZE - DATA_HEADER_SIZE) * 8;
+
+    private PacketCodec() {
+    }
+
+    // method to read the opcode of any packet
+    public static int opcode(ByteBuffer packet) {
+        return packet.getShort(packet.position()) & 0xFFFF;
+    }
+
+    // method to read the block number of a DATA or ACK packet (0 to 65535)
+    public static int blockNumber(ByteBuffer packet) {
+        return packet.getShort(packet.position() + 2) & 0xFFFF;
+    }
+
+    // the block number is only 16 bits, so after block 65535 it rolls over, to 0 as most implementations do or to 1
+    // if the rollover option says so, a transfer counts its blocks from the first one and only the packets carry the
+    // rolled over number (e.g. with rollover 0, block 65536 of the file is sent as block 0, with rollover 1 as block 1)
+    // method to get the block number a block of the transfer is sent (or acknowledged) with
+    public static int wireBlockNumber(long block, int rollover) {
+        if (rollover == 1) {
+            // block 0 (the acknowledgment of an OACK) stays 0, every later block is 1 to 65535
+            return (int) ((block - 1) % 0xFFFF) + 1;
+        }
+        return (int) (block & 0xFFFF);
+    }
+
+    // method to find the block of the transfer a block number is for, the first one at or after block from with it
+    public static long blockAfter(long from, int blockNumber, int rollover) {
+        // the block numbers repeat every 65536 blocks, or every 65535 when 0 is skipped
+        int period = rollover == 1 ? 0xFFFF : 0x10000;
+        return from + Math.floorMod(blockNumber - wireBlockNumber(from, rollover), period);
+    }
+
+    // method to read the number of data bytes in a DATA packet
+    public static int dataLength(ByteBuffer packet) {
+        return packet.remaining() - DATA_HEADER_SIZE;
+    }
+
+    // method to move the buffer's position to the data of a DATA packet, e.g. to write it to a FileChannel
+    public static ByteBuffer skipDataHeader(ByteBuffer packet) {
+        return packet.position(packet.position() + DATA_HEADER_SIZE);
+    }
+
+    // structure of the DATA Packet as mentioned in the RFC1350
+    // 2 bytes     2 bytes      n bytes
+    //  ----------------------------------
+    // | Opcode |   Block #  |   Data     |
+    //  ----------------------------------
+    // method to write the header of a DATA packet, the data is then put (or read from a file) after it
+    public static ByteBuffer beginData(ByteBuffer buffer, int blockNumber) {
+        buffer.clear();
+        buffer.putShort((short) DATA);
+        buffer.putShort((short) blockNumber);
+        return buffer;
+    }
+
+    // method to finish a DATA packet started with beginData once its data has been put
+    public static ByteBuffer endData(ByteBuffer buffer) {
+        return buffer.flip();
+    }
+
+    // method to write a whole DATA packet from an array of file data
+    public static ByteBuffer encodeData(ByteBuffer buffer, int blockNumber, byte[] data, int offset, int length) {
+        beginData(buffer, blockNumber);
+        buffer.put(data, offset, length);
+        return buffer.flip();
+    }
+
+    // structure of the ACK Packet as mentioned in the RFC1350
+    // 2 bytes     2 bytes
+    //  ---------------------
+    // | Opcode |   Block #  |
+    //  ---------------------
+    public static ByteBuffer encodeAck(ByteBuffer buffer, int blockNumber) {
+        buffer.clear();
+        buffer.putShort((short) ACK);
+        buffer.putShort((short) blockNumber);
+        return buffer.flip();
+    }
+
+    // structure of a selective ACK (the sack option, an extension of this project, see ReorderBuffer)
+    // 2 bytes     2 bytes      n bytes
+    //  ---------------------------------
+    // | Opcode |   Block #  |   Bitmap  |
+    //  ---------------------------------
+    // a plain ACK followed by a bitmap of the blocks received after the acknowledged one, bit i (the high bit of the
+    // first byte is bit 0) is set if block # + 1 + i has been received, so a plain ACK reports no blocks at all
+    public static ByteBuffer encodeSelectiveAck(ByteBuffer buffer, int blockNumber, BitSet received) {
+        buffer.clear();
+        buffer.putShort((short) ACK);
+        buffer.putShort((short) blockNumber);
+        int bits = Math.min(received.length(), MAX_SACK_BLOCKS);
+        for (int i = 0; i < bits; i += 8) {
+            int bitmapByte = 0;
+            for (int bit = 0; bit < 8; bit++) {
+                if (received.get(i + bit)) {
+                    bitmapByte |= 0x80 >> bit;
+                }
+            }
+            buffer.put((byte) bitmapByte);
+        }
+        return buffer.flip();
+    }
+
+    // method to read bit i of the bitmap of a selective ACK, whether block # + 1 + i has been received
+    public static boolean isSelectivelyAcked(ByteBuffer packet, int i) {
+        int index = packet.position() + DATA_HEADER_SIZE + i / 8;
+        return i >= 0 && index < packet.limit() && (packet.get(index) & (0x80 >> (i % 8))) != 0;
+    }
+
+    // structure of the ERROR Packet as mentioned in the RFC1350
+    // 2 bytes     2 bytes      string    1 byte
+    //  -----------------------------------------
+    // | Opcode |  ErrorCode |   ErrMsg   |   0  |
+    //  -----------------------------------------
+    public static ByteBuffer encodeError(ByteBuffer buffer, int errorCode, String errorMessage) {
+        buffer.clear();
+        buffer.putShort((short) ERROR);
+        buffer.putShort((short) errorCode);
+        putString(buffer, errorMessage);
+        return buffer.flip();
+    }
+
+    // method to read the error code of an ERROR packet
+    public static int errorCode(ByteBuffer packet) {
+        return packet.getShort(packet.position() + 2) & 0xFFFF;
+    }
+
+    // method to read the message of an ERROR packet
+    public static String errorMessage(ByteBuffer packet) {
+        return getString(packet, packet.position() + 4);
+    }
+
+    // structure of the RRQ/WRQ Packet as mentioned in the RFC1350 (with the options of the RFC2347 at the end)
+    // 2 bytes     string    1 byte     string   1 byte    string   1 byte   string   1 byte
+    //  ----------------------------------------------------------------------------------
+    // | Opcode |  Filename  |   0  |    Mode    |   0  |   opt1   |   0  |  value1 |   0  | ...
+    //  ----------------------------------------------------------------------------------
+    public static ByteBuffer encodeRequest(ByteBuffer buffer, int opcode, String filename, String mode, Map<String, String> options) {
+        buffer.clear();
+        buffer.putShort((short) opcode);
+        putString(buffer, filename);
+        putString(buffer, mode);
+        putOptions(buffer, options);
+        return buffer.flip();
+    }
+
+    // a decoded RRQ or WRQ packet
+    public record Request(int opcode, String filename, String mode, Map<String, String> options) {
+    }
+
+    // method to read a RRQ or WRQ packet, option names are lower case as they are case-insensitive
+    // as it states in the RFC 1350, the filename, the mode (and every option) end with a null byte, a request that
+    // is cut short throws an IllegalArgumentException (the server answers it with an illegal operation ERROR)
+    public static Request decodeRequest(ByteBuffer packet) {
+        int opcode = opcode(packet);
+        int index = packet.position() + 2;
+        // the last string ends at the end of the packet, so every string before it is ended too
+        if (index >= packet.limit() || packet.get(packet.limit() - 1) != 0) {
+            throw new IllegalArgumentException("Request is not null terminated");
+        }
+        String filename = getString(packet, index);
+        index = skipString(packet, index);
+        if (index >= packet.limit()) {
+            throw new IllegalArgumentException("Request has no mode");
+        }
+        String mode = getString(packet, index);
+        index = skipString(packet, index);
+        return new Request(opcode, filename, mode, getOptions(packet, index));
+    }
+
+    // structure of the OACK Packet as mentioned in the RFC2347
+    // 2 bytes     string    1 byte    string   1 byte
+    //  -----------------------------------------------
+    // | Opcode |   opt1   |   0   |  value1  |   0   | ...
+    //  -----------------------------------------------
+    public static ByteBuffer encodeOptionAck(ByteBuffer buffer, Map<String, String> options) {
+        buffer.clear();
+        buffer.putShort((short) OACK);
+        putOptions(buffer, options);
+        return buffer.flip();
+    }
+
+    // method to read the options of an OACK packet
+    public static Map<String, String> decodeOptionAck(ByteBuffer packet) {
+        return getOptions(packet, packet.position() + 2);
+    }
+
+    private static void putOptions(ByteBuffer buffer, Map<String, String> options) {
+        for (Map.Entry<String, String> option : options.entrySet()) {
+            putString(buffer, option.getKey());
+            putString(buffer, option.getValue());
+        }
+    }
+
+    private static Map<String, String> getOptions(ByteBuffer packet, int index) {
+        Map<String, String> options = new LinkedHashMap<>();
+        while (index < packet.limit()) {
+            String name = getString(packet, index);
+            index = skipString(packet, index);
+            if (index >= packet.limit()) {
+                break;
+            }
+            options.put(name.toLowerCase(), getString(packet, index));
+            index = skipString(packet, index);
+        }
+        return options;
+    }
+
+    // as the requirements say, file transfer should be done in raw sequence of bytes
+    // strings are written one byte per character (no garbage), names outside of ASCII are written as UTF-8
+    private static void putString(ByteBuffer buffer, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            if (value.charAt(i) >= 0x80) {
+                buffer.put(value.getBytes(StandardCharsets.UTF_8));
+                buffer.put((byte) 0);
+                return;
+            }
+        }
+        for (int i = 0; i < value.length(); i++) {
+            buffer.put((byte) value.charAt(i));
+        }
+        buffer.put((byte) 0);
+    }
+
+    // method to read the null terminated string starting at index, a string cut short by the end of the packet is
+    // read up to there, and there is no string (an empty one) at or past the end of the packet
+    private static String getString(ByteBuffer packet, int index) {
+        int end = index;
+        while (end < packet.limit() && packet.get(end) != 0) {
+            end++;
+        }
+        if (end <= index) {
+            return "";
+        }
+        byte[] valueBytes = new byte[end - index];
+        packet.get(index, valueBytes);
+        return new String(valueBytes, StandardCharsets.UTF_8);
+    }
+
+    // method to find the index after the null byte of the string starting at index
+    private static int skipString(ByteBuffer packet, int index) {
+        while (index < packet.limit() && packet.get(index) != 0) {
+            index++;
+        }
+        return index + 1;
+    }
+}
@@ -0,0 +1,180 @@
+package common;
+
+// imports that are using in this project
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+// a read-ahead buffer in front of the file a transfer is sent from...
+// a thread of its own reads the file in chunks ahead of the transfer, so when an acknowledgment arrives the data
+// of the next DATA packets is already in memory and the thread sending the packets never waits for the disk
+// (a read from a network file system can take milliseconds, which would otherwise be added to every round trip)
+// the reader keeps at most CHUNKS chunks ahead, then waits until the transfer has used one
+//
+// the chunks are packet buffers from the BufferPool, an error reading the file is thrown by the next read()
+public final class ReadAhead implements Closeable {
+    // how much of the file is read at once
+    public static int CHUNK_SIZE = 128 * 1024;
+    // most chunks read ahead of the transfer, including the one being used
+    public static int CHUNKS = 4;
+
+    private final FileChannel fileChannel;
+    // the chunk the transfer is reading from
+    private ByteBuffer current;
+
+    // everything below is shared with the reader thread
+    private final ReentrantLock lock = new ReentrantLock();
+    // signalled when the reader thread has read a chunk (or stopped)
+    private final Condition chunkRead = lock.newCondition();
+    // signalled when the transfer has used a chunk (or closed the file)
+    private final Condition chunkUsed = lock.newCondition();
+    // chunks read and not used yet, oldest first
+    private final ArrayDeque<ByteBuffer> ready = new ArrayDeque<>();
+    // chunks taken from the pool and not given back yet
+    private int chunks;
+    private boolean endOfFile;
+    private boolean closed;
+    // the error the reader thread ran into
+    private IOException failure;
+
+    // method to start reading the file ahead from the given position
+    public ReadAhead(FileChannel fileChannel, long position) {
+        this.fileChannel = fileChannel;
+        Thread.ofVirtual().name("read-ahead").start(() -> readChunks(position));
+    }
+
+    // method to copy the next length bytes of the file to data, returns the number of bytes copied which is only
+    // less than length at the end of the file
+    public int read(byte[] data, int offset, int length) throws IOException {
+        int total = 0;
+        while (total < length) {
+            if (current == null || !current.hasRemaining()) {
+                if (current != null) {
+                    release(current);
+                }
+                current = nextChunk();
+                if (current == null) {
+                    break;
+                }
+            }
+            int bytes = Math.min(current.remaining(), length - total);
+            current.get(data, offset + total, bytes);
+            total += bytes;
+        }
+        return total;
+    }
+
+    // closes the file, the reader thread stops and the chunks go back to the pool
+    @Override
+    public void close() throws IOException {
+        lock.lock();
+        try {
+            closed = true;
+            for (ByteBuffer chunk : ready) {
+                BufferPool.release(chunk);
+            }
+            ready.clear();
+            chunkUsed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        BufferPool.release(current);
+        current = null;
+        fileChannel.close();
+    }
+
+    // method run by the reader thread, reads the file chunk by chunk until the end of the file
+    private void readChunks(long position) {
+        while (true) {
+            lock.lock();
+            try {
+                while (chunks >= CHUNKS && !closed) {
+                    chunkUsed.awaitUninterruptibly();
+                }
+                if (closed) {
+                    return;
+                }
+                chunks++;
+            } finally {
+                lock.unlock();
+            }
+
+            ByteBuffer chunk = BufferPool.acquire(CHUNK_SIZE);
+            chunk.limit(Math.min(chunk.capacity(), CHUNK_SIZE));
+            boolean lastChunk = false;
+            IOException error = null;
+            try {
+                while (chunk.hasRemaining()) {
+                    int bytesRead = fileChannel.read(chunk, position);
+                    if (bytesRead < 0) {
+                        lastChunk = true;
+                        break;
+                    }
+                    position += bytesRead;
+                }
+            } catch (IOException e) {
+                error = e;
+            }
+            chunk.flip();
+
+            lock.lock();
+            try {
+                if (closed) {
+                    BufferPool.release(chunk);
+                    return;
+                }
+                if (error != null) {
+                    failure = error;
+                    BufferPool.release(chunk);
+                } else if (chunk.hasRemaining()) {
+                    ready.add(chunk);
+                } else {
+                    chunks--;
+                    BufferPool.release(chunk);
+                }
+                endOfFile = lastChunk;
+                chunkRead.signalAll();
+                if (lastChunk || error != null) {
+                    return;
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    // method to wait for the next chunk the reader thread reads, null at the end of the file
+    private ByteBuffer nextChunk() throws IOException {
+        lock.lock();
+        try {
+            while (ready.isEmpty() && !endOfFile && failure == null) {
+                chunkRead.awaitUninterruptibly();
+            }
+            if (!ready.isEmpty()) {
+                return ready.poll();
+            }
+            if (failure != null) {
+                throw new IOException("Could not read file", failure);
+            }
+            return null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // method to give a used chunk back, so the reader thread can read the next one
+    private void release(ByteBuffer chunk) {
+        BufferPool.release(chunk);
+        lock.lock();
+        try {
+            chunks--;
+            chunkUsed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+}
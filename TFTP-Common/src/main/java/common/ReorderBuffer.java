@@ -0,0 +1,119 @@
+package common;
+
+// imports that are using in this project
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.BitSet;
+
+// the receiving side of a transfer (the client of a RRQ, the server of a WRQ), in front of its WriteBuffer...
+// a DATA packet that arrives ahead of the next block in order is held (up to capacity blocks ahead) instead of
+// being dropped, and written once the blocks before it have arrived, so a single lost block only has to be sent
+// again on its own instead of with the rest of its window
+// duplicates, blocks too far ahead and blocks after the final (short) one are dropped, so none of them can end up in
+// the file, and the blocks are still handed to the WriteBuffer in order (one sequential stream of large writes)
+//
+// with the sack option the acknowledgments also carry a bitmap of the blocks held (see PacketCodec.encodeSelectiveAck),
+// the option's value is the number of blocks the receiver holds, each side can answer with fewer
+// blocks are counted from the first block of the transfer, so the count keeps going when the block numbers of the
+// packets roll over (to 0 or 1, see PacketCodec.wireBlockNumber)
+public final class ReorderBuffer {
+    // results of accept() for a packet that was dropped, and for a block that was held
+    public static final long DROPPED = -1;
+    public static final long HELD = -2;
+
+    private final int blockSize;
+    // the block number after 65535, as negotiated with the rollover option
+    private final int rollover;
+    // most blocks held ahead of the next block in order
+    private final int capacity;
+    // the blocks held, block n in slot n % (capacity + 1), the buffers are only allocated when a slot is first used
+    private final ByteBuffer[] blocks;
+    private final boolean[] held;
+    private int heldCount;
+    // last block written in order, and the final (short) block once it has arrived (0 until then)
+    private long inOrder;
+    private long lastBlock;
+    // reused for the bitmap of every selective acknowledgment
+    private final BitSet bitmap = new BitSet();
+
+    public ReorderBuffer(int blockSize, int capacity, int rollover) {
+        this.blockSize = blockSize;
+        this.rollover = rollover;
+        this.capacity = Math.max(0, capacity);
+        this.blocks = new ByteBuffer[this.capacity + 1];
+        this.held = new boolean[this.capacity + 1];
+    }
+
+    // method to take a DATA packet, returns the number of bytes written to out (the data of the block and of the
+    // held blocks that follow it), HELD or DROPPED
+    public long accept(ByteBuffer packet, WriteBuffer out) throws IOException {
+        // how far ahead of the next block in order the packet is, the block numbers roll over after 65535
+        long block = PacketCodec.blockAfter(inOrder + 1, PacketCodec.blockNumber(packet), rollover);
+        long distance = block - (inOrder + 1);
+        int dataLength = PacketCodec.dataLength(packet);
+        if (distance > capacity || (lastBlock != 0 && block > lastBlock) || held[slot(block)] || dataLength > blockSize) {
+            return DROPPED;
+        }
+        // as it states in the RFC 1350, a DATA packet with less than a full block is the last one
+        if (dataLength < blockSize) {
+            lastBlock = block;
+        }
+        PacketCodec.skipDataHeader(packet);
+        if (distance > 0) {
+            int slot = slot(block);
+            if (blocks[slot] == null) {
+                blocks[slot] = ByteBuffer.allocate(blockSize);
+            }
+            blocks[slot].clear();
+            blocks[slot].put(packet);
+            held[slot] = true;
+            heldCount++;
+            return HELD;
+        }
+        out.write(packet);
+        inOrder++;
+        long written = dataLength;
+        // the held blocks that follow on from it
+        while (heldCount > 0 && held[slot(inOrder + 1)]) {
+            int slot = slot(inOrder + 1);
+            written += blocks[slot].flip().remaining();
+            out.write(blocks[slot]);
+            held[slot] = false;
+            heldCount--;
+            inOrder++;
+        }
+        return written;
+    }
+
+    // last block written in order, counted from the first block of the transfer
+    public long inOrder() {
+        return inOrder;
+    }
+
+    // whether blocks are held, i.e. a block before them is missing
+    public boolean hasGap() {
+        return heldCount > 0;
+    }
+
+    // whether every block up to the final (short) one has been written
+    public boolean isComplete() {
+        return lastBlock != 0 && inOrder == lastBlock;
+    }
+
+    // method to write the acknowledgment of the last block in order, with the bitmap of the blocks held when selective
+    public ByteBuffer encodeAck(ByteBuffer buffer, boolean selective) {
+        bitmap.clear();
+        if (selective) {
+            for (int i = 1; i <= capacity && heldCount > 0; i++) {
+                if (held[slot(inOrder + 1 + i)]) {
+                    bitmap.set(i);
+                }
+            }
+        }
+        return PacketCodec.encodeSelectiveAck(buffer, PacketCodec.wireBlockNumber(inOrder, rollover), bitmap);
+    }
+
+    private int slot(long block) {
+        return (int) (block % (capacity + 1));
+    }
+}
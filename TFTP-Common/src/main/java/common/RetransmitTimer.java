@@ -0,0 +1,76 @@
+package common;
+
+// retransmission timer of a single transfer...
+// instead of waiting a fixed 60 seconds for every lost packet, the timeout follows the measured round trip time
+// (smoothed RTT + 4 * RTT variance, as TCP does in the RFC 6298) and doubles after every timeout
+public class RetransmitTimer {
+    // timeout used until the first round trip has been measured, in milliseconds
+    public static int INITIAL_TIMEOUT = 1000;
+    // bounds for the computed timeout, in milliseconds
+    // the floor is 200 ms as TCP has on Linux (the RFC 6298 says 1 second), so on a LAN, where a round trip is well
+    // under a millisecond, a few late packets aren't taken as lost and the retries of a transfer last long enough to
+    // ride out a short outage instead of giving up within seconds
+    public static int MIN_TIMEOUT = 200;
+    public static int MAX_TIMEOUT = 60000;
+
+    // smoothed round trip time and its variance, in milliseconds (negative until the first sample)
+    private double smoothedRtt = -1;
+    private double rttVariance;
+    // current retransmission timeout, in milliseconds
+    private int timeout;
+    // set when the timeout was agreed with the timeout option (RFC 2349) and must not change
+    private final boolean fixed;
+
+    public RetransmitTimer() {
+        this.timeout = INITIAL_TIMEOUT;
+        this.fixed = false;
+    }
+
+    private RetransmitTimer(int timeout) {
+        this.timeout = timeout;
+        this.fixed = true;
+    }
+
+    // method to create a timer that always waits the given time, e.g. the one negotiated with the timeout option
+    public static RetransmitTimer fixed(int timeoutMillis) {
+        return new RetransmitTimer(timeoutMillis);
+    }
+
+    // method to add a round trip measurement
+    // as Karn's algorithm says, only packets that were sent once may be measured, a retransmitted packet's ACK is ambiguous
+    public void onSample(long rttNanos) {
+        if (fixed) {
+            return;
+        }
+        double rtt = rttNanos / 1_000_000.0;
+        if (smoothedRtt < 0) {
+            smoothedRtt = rtt;
+            rttVariance = rtt / 2;
+        } else {
+            rttVariance = 0.75 * rttVariance + 0.25 * Math.abs(smoothedRtt - rtt);
+            smoothedRtt = 0.875 * smoothedRtt + 0.125 * rtt;
+        }
+        timeout = clamp((int) Math.ceil(smoothedRtt + 4 * rttVariance));
+    }
+
+    // method to back off after a timeout, the timeout doubles until a new measurement arrives
+    public void onTimeout() {
+        if (!fixed) {
+            timeout = clamp(timeout * 2);
+        }
+    }
+
+    // the time to wait for the next packet, in milliseconds
+    public int getTimeout() {
+        return timeout;
+    }
+
+    // the smoothed round trip time in milliseconds, or -1 if nothing has been measured yet
+    public double getSmoothedRtt() {
+        return smoothedRtt;
+    }
+
+    private static int clamp(int timeout) {
+        return Math.max(MIN_TIMEOUT, Math.min(MAX_TIMEOUT, timeout));
+    }
+}
@@ -0,0 +1,51 @@
+package common;
+
+// imports that are using in this project
+import java.nio.ByteBuffer;
+
+// the sending side of a transfer with the sack option, what the receiver has reported in its selective ACKs...
+// a block the receiver reports as held isn't sent again, and a block it hasn't reported is taken as lost once a block
+// sent after it (the last time it was sent) has been reported, and is sent again straight away (as TCP does with the
+// RFC 8985), the blocks sent after the last one reported are still on their way
+// so an ACK for a block in the middle of the window doesn't send the rest of the window again as in the RFC 7440, that
+// is only done after a timeout (the blocks at the end of a window have no later block to report them missing)
+// block n of the window is kept in slot n % windowSize, so the scoreboard is as big as the window
+public final class SackScoreboard {
+    // the block reported as held in each slot of the window (0 if none)
+    private final int[] reported;
+    // when the block in each slot was last sent, counted in packets sent, and the latest of those reported as held
+    private final long[] sentAt;
+    private long packetsSent;
+    private long latestReported;
+
+    public SackScoreboard(int windowSize) {
+        this.reported = new int[windowSize];
+        this.sentAt = new long[windowSize];
+    }
+
+    // method to call every time a block is sent (or sent again)
+    public void sent(int block) {
+        sentAt[block % sentAt.length] = ++packetsSent;
+    }
+
+    // method to record the bitmap of an ACK for block acked, blocks after lastSent can't have been received
+    public void record(ByteBuffer ackPacket, int acked, int lastSent) {
+        for (int block = acked + 1; block <= lastSent && block < acked + 1 + reported.length; block++) {
+            if (PacketCodec.isSelectivelyAcked(ackPacket, block - acked - 1)) {
+                int slot = block % reported.length;
+                reported[slot] = block;
+                latestReported = Math.max(latestReported, sentAt[slot]);
+            }
+        }
+    }
+
+    // whether the receiver holds the block already
+    public boolean isReported(int block) {
+        return reported[block % reported.length] == block;
+    }
+
+    // whether the block is missing at the receiver, i.e. a block sent after it has been reported but it hasn't
+    public boolean isMissing(int block) {
+        return !isReported(block) && sentAt[block % sentAt.length] < latestReported;
+    }
+}
@@ -0,0 +1,58 @@
+package common;
+
+// a token bucket, the rate limiter of the TrafficShaper...
+// the bucket fills up with a token per byte at the rate it is given, up to its burst, and sending a packet takes a
+// token for each of its bytes, so over any stretch of time no more than the rate (plus one burst) is sent
+// the rate is passed to every call instead of being kept, so a limit changed at runtime applies straight away
+// a bucket can be taken below empty (into debt), it then has to fill up past 0 again before it lets anything through
+public final class TokenBucket {
+    // the most a bucket holds, in milliseconds at its rate, but at least one packet of the largest size
+    public static int BURST_MILLIS = 50;
+    public static int MIN_BURST = 64 * 1024;
+
+    // bytes that can be sent now, negative while in debt, and when the bucket was last filled up
+    private double tokens;
+    private long refilledAt;
+
+    // a bucket starts with the given number of tokens, e.g. 0 so a new transfer starts at its rate
+    public TokenBucket(long initialTokens) {
+        this.tokens = initialTokens;
+        this.refilledAt = System.nanoTime();
+    }
+
+    // method to take the tokens for the bytes if the bucket has them, returns whether it did
+    // a packet bigger than the burst goes through once the bucket is full
+    public synchronized boolean tryTake(long bytes, long rate, long now) {
+        refill(rate, now);
+        if (tokens < Math.min(bytes, burst(rate))) {
+            return false;
+        }
+        tokens -= bytes;
+        return true;
+    }
+
+    // method to take the tokens for the bytes whether or not the bucket has them
+    public synchronized void take(long bytes, long rate, long now) {
+        refill(rate, now);
+        tokens -= bytes;
+    }
+
+    // method to work out how long until the bucket has the tokens for the bytes, 0 if it has them now
+    public synchronized long nanosUntil(long bytes, long rate, long now) {
+        refill(rate, now);
+        double missing = Math.min(bytes, burst(rate)) - tokens;
+        return missing <= 0 ? 0 : (long) Math.ceil(missing * 1_000_000_000L / rate);
+    }
+
+    private void refill(long rate, long now) {
+        long elapsed = now - refilledAt;
+        if (elapsed > 0) {
+            tokens = Math.min(burst(rate), tokens + (double) elapsed * rate / 1_000_000_000L);
+            refilledAt = now;
+        }
+    }
+
+    private static long burst(long rate) {
+        return Math.max(rate * BURST_MILLIS / 1000, MIN_BURST);
+    }
+}
@@ -0,0 +1,263 @@
+package common;
+
+// imports that are using in this project
+import java.io.InterruptedIOException;
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+// bandwidth limits of a server, for the whole server, for each client address and for each transfer...
+// every transfer that sends file data opens a Flow and asks it before each packet (or chunk), the limits are token
+// buckets (see TokenBucket) and 0 means no limit, with no limits at all a Flow lets everything through straight away
+//
+// the server and client limits are shared fairly between the transfers under them, as in a hierarchical token
+// bucket (the HTB of Linux traffic control): each transfer is assured its share of every limit it is under, in
+// proportion to its weight (the weight of its client address, 1 unless set), e.g. a boot client with weight 4 gets
+// 4 times the bandwidth of a bulk transfer with weight 1 when the server limit is reached
+// a transfer within its share always sends (the shared buckets can go into debt), one that has used its share only
+// sends what the others leave unused (while the shared buckets have tokens), so no bandwidth is wasted on the share of
+// a transfer that is waiting for acknowledgments, and a greedy transfer can't starve the rest
+//
+// the limits can be changed while the server runs, through JMX (see TrafficShaperMXBean) or setRates
+public final class TrafficShaper {
+    // shortest wait handed out, the transfers don't wake up more often than this
+    public static long MIN_WAIT_NANOS = 1_000_000;
+
+    // limits in bytes per second, 0 for no limit, for the whole server, for each client address and for each transfer
+    private static volatile long serverRate;
+    private static volatile long clientRate;
+    private static volatile long sessionRate;
+    // weights of client addresses, the ones not in here have weight 1
+    private static final Map<String, Integer> clientWeights = new ConcurrentHashMap<>();
+
+    // the whole server, and every client address with a transfer open
+    private static final Group server = new Group();
+    private static final Map<String, Group> clients = new HashMap<>();
+
+    // number of times a packet had to wait for the limits
+    private static final LongAdder deferrals = new LongAdder();
+
+    private TrafficShaper() {
+    }
+
+    // the transfers under a shared limit, with the sum of their weights
+    private static final class Group {
+        // shared buckets start full, so the first packets of a transfer don't wait
+        final TokenBucket bucket = new TokenBucket(TokenBucket.MIN_BURST);
+        volatile long weights;
+        int flows;
+    }
+
+    // a single transfer, used by one thread at a time
+    public static final class Flow {
+        private final Group client;
+        private final String clientAddress;
+        private final int weight;
+        // its assured share of the shared limits, and its own limit
+        private final TokenBucket share = new TokenBucket(0);
+        private final TokenBucket ceiling = new TokenBucket(0);
+        private boolean closed;
+
+        private Flow(Group client, String clientAddress, int weight) {
+            this.client = client;
+            this.clientAddress = clientAddress;
+            this.weight = weight;
+        }
+
+        // method to ask to send a packet of the given size now, returns 0 if it can be sent (its tokens are taken)
+        // or how many nanoseconds to wait before asking again, for a transfer that can't wait on its thread
+        public long reserve(long bytes) {
+            long serverLimit = serverRate;
+            long clientLimit = clientRate;
+            long sessionLimit = sessionRate;
+            if (serverLimit == 0 && clientLimit == 0 && sessionLimit == 0) {
+                return 0;
+            }
+            long now = System.nanoTime();
+            // the transfer's own limit first, nothing is taken if it has to wait for it
+            if (sessionLimit > 0) {
+                long wait = ceiling.nanosUntil(bytes, sessionLimit, now);
+                if (wait > 0) {
+                    return deferred(wait);
+                }
+            }
+            long shareRate = shareRate(serverLimit, clientLimit);
+            if (shareRate > 0 && !share.tryTake(bytes, shareRate, now)) {
+                // its share is used up, it can borrow what the other transfers have left in the shared buckets
+                long serverWait = serverLimit > 0 ? server.bucket.nanosUntil(bytes, serverLimit, now) : 0;
+                long clientWait = clientLimit > 0 ? client.bucket.nanosUntil(bytes, clientLimit, now) : 0;
+                long borrowWait = Math.max(serverWait, clientWait);
+                if (borrowWait > 0) {
+                    return deferred(Math.min(borrowWait, share.nanosUntil(bytes, shareRate, now)));
+                }
+            }
+            if (serverLimit > 0) {
+                server.bucket.take(bytes, serverLimit, now);
+            }
+            if (clientLimit > 0) {
+                client.bucket.take(bytes, clientLimit, now);
+            }
+            if (sessionLimit > 0) {
+                ceiling.take(bytes, sessionLimit, now);
+            }
+            return 0;
+        }
+
+        // method to wait until a packet (or chunk) of the given size can be sent, for a transfer with a thread of its own
+        public void acquire(long bytes) throws InterruptedIOException {
+            long wait;
+            while ((wait = reserve(bytes)) > 0) {
+                try {
+                    Thread.sleep(wait / 1_000_000, (int) (wait % 1_000_000));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting for the bandwidth limit");
+                }
+            }
+        }
+
+        // whether any limit is set, e.g. to send the file in smaller chunks
+        public boolean isLimited() {
+            return serverRate > 0 || clientRate > 0 || sessionRate > 0;
+        }
+
+        // method to end the transfer, its share goes to the other transfers, only the first call does anything
+        public void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            synchronized (clients) {
+                server.weights -= weight;
+                server.flows--;
+                client.weights -= weight;
+                if (--client.flows == 0) {
+                    clients.remove(clientAddress);
+                }
+            }
+        }
+
+        // the rate the transfer is assured, its weighted share of each shared limit (the smallest of them)
+        private long shareRate(long serverLimit, long clientLimit) {
+            long rate = 0;
+            if (serverLimit > 0) {
+                rate = Math.max(1, serverLimit * weight / Math.max(1, server.weights));
+            }
+            if (clientLimit > 0) {
+                long clientShare = Math.max(1, clientLimit * weight / Math.max(1, client.weights));
+                rate = rate == 0 ? clientShare : Math.min(rate, clientShare);
+            }
+            return rate;
+        }
+
+        private static long deferred(long wait) {
+            deferrals.increment();
+            return Math.max(wait, MIN_WAIT_NANOS);
+        }
+    }
+
+    // method to open the flow of a transfer to a client, it has to be closed when the transfer ends
+    public static Flow open(String clientAddress) {
+        int weight = Math.max(1, clientWeights.getOrDefault(clientAddress, 1));
+        synchronized (clients) {
+            Group client = clients.computeIfAbsent(clientAddress, address -> new Group());
+            client.weights += weight;
+            client.flows++;
+            server.weights += weight;
+            server.flows++;
+            return new Flow(client, clientAddress, weight);
+        }
+    }
+
+    // method to set the limits, in bytes per second (0 for no limit)
+    public static void setRates(long serverBytesPerSecond, long clientBytesPerSecond, long sessionBytesPerSecond) {
+        serverRate = Math.max(0, serverBytesPerSecond);
+        clientRate = Math.max(0, clientBytesPerSecond);
+        sessionRate = Math.max(0, sessionBytesPerSecond);
+    }
+
+    // method to set the weight of a client address, for the transfers it starts from now on (1 is the default)
+    public static void setWeight(String clientAddress, int weight) {
+        if (weight <= 1) {
+            clientWeights.remove(clientAddress);
+        } else {
+            clientWeights.put(clientAddress, weight);
+        }
+    }
+
+    // method to read a command line option of the form "<address>=<weight>", e.g. "-weight 10.0.0.7=4"
+    public static void parseWeight(String option) {
+        int separator = option.lastIndexOf('=');
+        if (separator < 0) {
+            throw new IllegalArgumentException("Expected <address>=<weight>: " + option);
+        }
+        setWeight(option.substring(0, separator).trim(), Integer.parseInt(option.substring(separator + 1).trim()));
+    }
+
+    public static long getDeferrals() {
+        return deferrals.sum();
+    }
+
+    public static long getFlows() {
+        synchronized (clients) {
+            return server.flows;
+        }
+    }
+
+    // method to make the limits visible (and changeable) through JMX as "tftp:type=TrafficShaper,name=<name>"
+    public static void registerMBean(String name) {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(new View(), new ObjectName("tftp:type=TrafficShaper,name=" + name));
+        } catch (JMException e) {
+            Log.error("Could not register the traffic shaper with JMX: " + e.getMessage());
+        }
+    }
+
+    // the limits as an MXBean, in kilobytes per second as the command line options
+    private static final class View implements TrafficShaperMXBean {
+        public long getServerKilobytesPerSecond() {
+            return serverRate / 1024;
+        }
+
+        public void setServerKilobytesPerSecond(long kilobytesPerSecond) {
+            serverRate = Math.max(0, kilobytesPerSecond) * 1024;
+        }
+
+        public long getClientKilobytesPerSecond() {
+            return clientRate / 1024;
+        }
+
+        public void setClientKilobytesPerSecond(long kilobytesPerSecond) {
+            clientRate = Math.max(0, kilobytesPerSecond) * 1024;
+        }
+
+        public long getSessionKilobytesPerSecond() {
+            return sessionRate / 1024;
+        }
+
+        public void setSessionKilobytesPerSecond(long kilobytesPerSecond) {
+            sessionRate = Math.max(0, kilobytesPerSecond) * 1024;
+        }
+
+        public Map<String, Integer> getClientWeights() {
+            return new TreeMap<>(clientWeights);
+        }
+
+        public void setClientWeight(String clientAddress, int weight) {
+            setWeight(clientAddress, weight);
+        }
+
+        public long getActiveFlows() {
+            return getFlows();
+        }
+
+        public long getDeferredSends() {
+            return getDeferrals();
+        }
+    }
+}
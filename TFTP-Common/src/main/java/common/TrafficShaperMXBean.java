@@ -0,0 +1,30 @@
+package common;
+
+// imports that are using in this project
+import java.util.Map;
+
+// the limits of the TrafficShaper as seen through JMX (e.g. in JConsole or VisualVM under "tftp"), they can be
+// changed while the server runs, in kilobytes per second (0 for no limit)
+public interface TrafficShaperMXBean {
+    long getServerKilobytesPerSecond();
+
+    void setServerKilobytesPerSecond(long kilobytesPerSecond);
+
+    long getClientKilobytesPerSecond();
+
+    void setClientKilobytesPerSecond(long kilobytesPerSecond);
+
+    long getSessionKilobytesPerSecond();
+
+    void setSessionKilobytesPerSecond(long kilobytesPerSecond);
+
+    // weights of the client addresses that don't have the default weight of 1
+    Map<String, Integer> getClientWeights();
+
+    // an operation, applies to the transfers the client starts from then on
+    void setClientWeight(String clientAddress, int weight);
+
+    long getActiveFlows();
+
+    long getDeferredSends();
+}
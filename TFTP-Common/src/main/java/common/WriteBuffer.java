@@ -0,0 +1,222 @@
+package common;
+
+// imports that are using in this project
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+// a write-behind buffer in front of the file a transfer is written to...
+// a DATA packet only holds 512 bytes unless a larger blksize was negotiated, so writing every block to the file on
+// its own is a system call per block, instead the blocks are collected in chunks and written a chunk at a time
+// the chunks are written by a thread of their own, so the thread receiving the packets (and sending the ACKs)
+// never waits for the disk, unless the disk falls behind by a whole ring of chunks (then it waits for a free one)
+//
+// the chunks are written in the order they were filled, at positions of the file (not at the channel's own
+// position), so several buffers can fill in different parts of the same file (see RangeDownload)
+// an error writing a chunk is thrown by the next write() or flush()
+public final class WriteBuffer implements Closeable {
+    // how much data is collected before it is handed to the writer thread
+    public static int CHUNK_SIZE = 256 * 1024;
+    // most chunks a file can have, the ones waiting for the writer thread and the one being filled
+    public static int CHUNKS = 8;
+
+    // data waiting to be written at a position of the file
+    private static final class Chunk {
+        // a direct buffer, so the data isn't copied again on its way to the file
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(CHUNK_SIZE);
+        long position;
+    }
+
+    private final FileChannel fileChannel;
+    // the chunk being filled and the position in the file of its first byte
+    private Chunk current;
+    private long currentPosition;
+
+    // everything below is shared with the writer thread
+    private final ReentrantLock lock = new ReentrantLock();
+    // signalled whenever the writer thread has written a chunk (or stopped)
+    private final Condition chunkWritten = lock.newCondition();
+    // chunks handed to the writer thread, oldest first
+    private final ArrayDeque<Chunk> filled = new ArrayDeque<>();
+    // chunks that have been written and can be filled again
+    private final ArrayDeque<Chunk> free = new ArrayDeque<>();
+    // chunks allocated so far, they are only allocated when needed so a small file only has one
+    private int allocated;
+    // whether the writer thread is running, it stops when there is nothing left to write
+    private boolean writing;
+    // the first error the writer thread ran into
+    private IOException failure;
+
+    public WriteBuffer(FileChannel fileChannel, long position) {
+        this.fileChannel = fileChannel;
+        this.currentPosition = position;
+    }
+
+    public FileChannel channel() {
+        return fileChannel;
+    }
+
+    // position in the file of the next byte written
+    public long position() {
+        return currentPosition + (current != null ? current.buffer.position() : 0);
+    }
+
+    // method to add the remaining bytes of data to the file, the chunk is handed to the writer thread whenever it is full
+    public void write(ByteBuffer data) throws IOException {
+        while (data.hasRemaining()) {
+            if (current == null) {
+                current = takeFreeChunk();
+            } else if (!current.buffer.hasRemaining()) {
+                handOff();
+                current = takeFreeChunk();
+            }
+            ByteBuffer buffer = current.buffer;
+            int length = Math.min(buffer.remaining(), data.remaining());
+            int limit = data.limit();
+            data.limit(data.position() + length);
+            buffer.put(data);
+            data.limit(limit);
+        }
+    }
+
+    public void write(byte[] data, int offset, int length) throws IOException {
+        write(ByteBuffer.wrap(data, offset, length));
+    }
+
+    // method to write everything received so far to the file, returns once it has been written
+    public void flush() throws IOException {
+        if (current != null && current.buffer.position() > 0) {
+            handOff();
+        }
+        awaitWritten();
+    }
+
+    // method to throw away the data that hasn't been handed to the writer thread and continue writing at another
+    // position, the chunks already handed over are written first so none of them lands after the change
+    public void reset(long position) throws IOException {
+        awaitWritten();
+        if (current != null) {
+            current.buffer.clear();
+        }
+        currentPosition = position;
+    }
+
+    // method to give the file its final size before the data arrives, so the file system can find room for all of
+    // it at once instead of growing the file a chunk at a time (Java can't ask for the blocks themselves, so on
+    // some file systems the file stays sparse until it is written)
+    public void preallocate(long size) throws IOException {
+        if (size > fileChannel.size()) {
+            fileChannel.write(ByteBuffer.allocate(1), size - 1);
+        }
+    }
+
+    // closes the file, data that wasn't flushed is lost
+    @Override
+    public void close() throws IOException {
+        fileChannel.close();
+    }
+
+    // method to take an empty chunk, allocating a new one while there are fewer than CHUNKS
+    // waits for the writer thread when every chunk is full (the backpressure on the thread receiving the data)
+    private Chunk takeFreeChunk() throws IOException {
+        Chunk chunk;
+        lock.lock();
+        try {
+            while (free.isEmpty() && allocated >= CHUNKS && failure == null) {
+                chunkWritten.awaitUninterruptibly();
+            }
+            checkFailure();
+            if (free.isEmpty()) {
+                allocated++;
+                chunk = new Chunk();
+            } else {
+                chunk = free.poll();
+            }
+        } finally {
+            lock.unlock();
+        }
+        chunk.buffer.clear();
+        return chunk;
+    }
+
+    // method to give the chunk being filled to the writer thread, starting the thread if it isn't running
+    private void handOff() throws IOException {
+        Chunk chunk = current;
+        current = null;
+        chunk.position = currentPosition;
+        currentPosition += chunk.buffer.position();
+        chunk.buffer.flip();
+        lock.lock();
+        try {
+            checkFailure();
+            filled.add(chunk);
+            if (!writing) {
+                writing = true;
+                Thread.ofVirtual().name("write-behind").start(this::writeChunks);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // method run by the writer thread, writes the chunks in order until there are none left
+    private void writeChunks() {
+        while (true) {
+            Chunk chunk;
+            lock.lock();
+            try {
+                chunk = filled.poll();
+                if (chunk == null || failure != null) {
+                    writing = false;
+                    chunkWritten.signalAll();
+                    return;
+                }
+            } finally {
+                lock.unlock();
+            }
+            IOException error = null;
+            try {
+                ByteBuffer buffer = chunk.buffer;
+                long position = chunk.position;
+                while (buffer.hasRemaining()) {
+                    position += fileChannel.write(buffer, position);
+                }
+            } catch (IOException e) {
+                error = e;
+            }
+            lock.lock();
+            try {
+                if (error != null && failure == null) {
+                    failure = error;
+                }
+                free.add(chunk);
+                chunkWritten.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    // method to wait until the writer thread has written every chunk handed to it
+    private void awaitWritten() throws IOException {
+        lock.lock();
+        try {
+            while (writing) {
+                chunkWritten.awaitUninterruptibly();
+            }
+            checkFailure();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void checkFailure() throws IOException {
+        if (failure != null) {
+            throw new IOException("Could not write to file", failure);
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package common;
+
+// imports that are using in this project
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class CheckpointTest {
+    @TempDir
+    Path directory;
+
+    private String filename() {
+        return directory.resolve("upload.bin").toString();
+    }
+
+    @Test
+    void savedCheckpointIsLoadedAgain() throws IOException {
+        Checkpoint checkpoint = Checkpoint.start(filename());
+        try (WriteBuffer out = checkpoint.open(-1)) {
+            out.write(new byte[1000], 0, 1000);
+            checkpoint.save(out);
+        }
+        Checkpoint resumed = Checkpoint.load(filename());
+        assertEquals(1000, resumed.offset());
+        // the rest is written after the offset
+        try (WriteBuffer out = resumed.open(-1)) {
+            assertEquals(1000, out.position());
+        }
+    }
+
+    @Test
+    void restartedTransferThatDiesResumesFromTheStart() throws IOException {
+        Checkpoint checkpoint = Checkpoint.start(filename());
+        try (WriteBuffer out = checkpoint.open(-1)) {
+            out.write(new byte[1000], 0, 1000);
+            checkpoint.save(out);
+        }
+        // the server doesn't resume, the file is received again from the start into a preallocated part file
+        Checkpoint resumed = Checkpoint.load(filename());
+        try (WriteBuffer out = resumed.open(-1)) {
+            out.reset(0);
+            out.channel().truncate(0);
+            resumed.reset();
+            out.preallocate(5000);
+            assertTrue(resumed.due(Checkpoint.INTERVAL));
+            out.write(new byte[100], 0, 100);
+            // and dies before a new checkpoint
+        }
+        assertEquals(0, Checkpoint.load(filename()).offset());
+    }
+
+    @Test
+    void noPartFileMeansNoOffset() throws IOException {
+        assertEquals(0, Checkpoint.load(filename()).offset());
+    }
+
+    @Test
+    void damagedCheckpointStartsAgain() throws IOException {
+        Files.write(Path.of(filename() + ".part"), new byte[100]);
+        Files.writeString(Path.of(filename() + ".part.ckpt"), "offset=garbage", StandardCharsets.UTF_8);
+        assertEquals(0, Checkpoint.load(filename()).offset());
+    }
+
+    @Test
+    void checkpointPastThePartFileIsCutBack() throws IOException {
+        Files.write(Path.of(filename() + ".part"), new byte[100]);
+        Files.writeString(Path.of(filename() + ".part.ckpt"), "offset=5000", StandardCharsets.UTF_8);
+        assertEquals(100, Checkpoint.load(filename()).offset());
+    }
+
+    @Test
+    void completeRenamesThePartFile() throws IOException {
+        Checkpoint checkpoint = Checkpoint.start(filename());
+        WriteBuffer out = checkpoint.open(4096);
+        out.write(new byte[] {1, 2, 3}, 0, 3);
+        checkpoint.save(out);
+        checkpoint.complete(out, filename());
+        out.close();
+        // the preallocated file is cut back to what was written
+        assertEquals(3, Files.size(Path.of(filename())));
+        assertFalse(Files.exists(checkpoint.partFile()));
+        assertFalse(Files.exists(Path.of(filename() + ".part.ckpt")));
+    }
+
+    @Test
+    void keepWithNothingReceivedDiscards() throws IOException {
+        Checkpoint checkpoint = Checkpoint.start(filename());
+        WriteBuffer out = checkpoint.open(-1);
+        assertTrue(Files.exists(checkpoint.partFile()));
+        checkpoint.keep(out);
+        out.close();
+        assertFalse(Files.exists(checkpoint.partFile()));
+    }
+
+    @Test
+    void partFileIsClaimedOnce() {
+        assertTrue(Checkpoint.claim(filename()));
+        try {
+            // a second transfer of the same file, even under another spelling of its name
+            assertFalse(Checkpoint.claim(directory.resolve(".").resolve("upload.bin").toString()));
+        } finally {
+            Checkpoint.release(filename());
+        }
+        assertTrue(Checkpoint.claim(filename()));
+        Checkpoint.release(filename());
+    }
+}
@@ -0,0 +1,89 @@
+package common;
+
+// imports that are using in this project
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import org.junit.jupiter.api.Test;
+
+class FrameCodecTest {
+    private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    private final DataOutputStream out = new DataOutputStream(bytes);
+
+    private DataInputStream written() {
+        return new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+    }
+
+    @Test
+    void requestRoundTrip() throws IOException {
+        FrameCodec.writeRequest(out, FrameCodec.RRQ, 42, "image.bin");
+        DataInputStream in = written();
+        FrameCodec.Header header = FrameCodec.readHeader(in);
+        assertEquals(FrameCodec.RRQ, header.opcode());
+        assertEquals(42, header.requestId());
+        assertEquals("image.bin", FrameCodec.readString(in, header.length()));
+        // the connection was closed between frames
+        assertNull(FrameCodec.readHeader(in));
+    }
+
+    @Test
+    void dataAndEndFrames() throws IOException {
+        byte[] data = {1, 2, 3, 4, 5};
+        FrameCodec.writeData(out, 7, data, 1, 3);
+        FrameCodec.writeEnd(out, 7);
+        DataInputStream in = written();
+        FrameCodec.Header header = FrameCodec.readHeader(in);
+        assertEquals(FrameCodec.DATA, header.opcode());
+        assertEquals(3, header.length());
+        ByteArrayOutputStream payload = new ByteArrayOutputStream();
+        FrameCodec.copyPayload(in, header.length(), payload, new byte[2]);
+        assertArrayEquals(new byte[] {2, 3, 4}, payload.toByteArray());
+        FrameCodec.Header end = FrameCodec.readHeader(in);
+        assertEquals(FrameCodec.END, end.opcode());
+        assertEquals(0, end.length());
+    }
+
+    @Test
+    void statusRoundTrip() throws IOException {
+        FrameCodec.writeStatus(out, 3, FrameCodec.STATUS_FILE_NOT_FOUND, "File not found");
+        DataInputStream in = written();
+        FrameCodec.Header header = FrameCodec.readHeader(in);
+        FrameCodec.Status status = FrameCodec.readStatus(in, header.length());
+        assertEquals(FrameCodec.STATUS_FILE_NOT_FOUND, status.code());
+        assertEquals("File not found", status.message());
+        assertTrue(FrameCodec.readStatus(new DataInputStream(new ByteArrayInputStream(new byte[] {0, 0})), 2).isOk());
+    }
+
+    @Test
+    void negativeLengthIsRejected() throws IOException {
+        FrameCodec.writeHeader(out, FrameCodec.DATA, 1, -1);
+        assertThrows(IOException.class, () -> FrameCodec.readHeader(written()));
+    }
+
+    @Test
+    void longStringIsNotRead() throws IOException {
+        FrameCodec.writeHeader(out, FrameCodec.RRQ, 1, Integer.MAX_VALUE);
+        DataInputStream in = written();
+        FrameCodec.Header header = FrameCodec.readHeader(in);
+        assertThrows(IOException.class, () -> FrameCodec.readString(in, header.length()));
+        assertThrows(IOException.class, () -> FrameCodec.readStatus(in, FrameCodec.MAX_STRING_LENGTH + 3));
+    }
+
+    @Test
+    void connectionClosedInTheMiddleOfAFrame() throws IOException {
+        FrameCodec.writeHeader(out, FrameCodec.DATA, 1, 10);
+        out.write(new byte[4]);
+        DataInputStream in = written();
+        FrameCodec.Header header = FrameCodec.readHeader(in);
+        assertThrows(EOFException.class, () -> FrameCodec.copyPayload(in, header.length(), new ByteArrayOutputStream(), new byte[8]));
+    }
+}
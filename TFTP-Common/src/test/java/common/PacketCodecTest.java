@@ -0,0 +1,135 @@
+package common;
+
+// imports that are using in this project
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+
+class PacketCodecTest {
+    private final ByteBuffer buffer = ByteBuffer.allocate(PacketCodec.MAX_REQUEST_SIZE);
+
+    @Test
+    void requestRoundTripWithOptions() {
+        Map<String, String> options = new LinkedHashMap<>();
+        options.put("blksize", "1428");
+        options.put("windowsize", "16");
+        PacketCodec.encodeRequest(buffer, PacketCodec.RRQ, "image.bin", "octet", options);
+
+        PacketCodec.Request request = PacketCodec.decodeRequest(buffer);
+        assertEquals(PacketCodec.RRQ, request.opcode());
+        assertEquals("image.bin", request.filename());
+        assertEquals("octet", request.mode());
+        assertEquals(options, request.options());
+    }
+
+    @Test
+    void optionNamesAreLowerCase() {
+        PacketCodec.encodeRequest(buffer, PacketCodec.WRQ, "a", "octet", Map.of("BlkSize", "8192"));
+        assertEquals(Map.of("blksize", "8192"), PacketCodec.decodeRequest(buffer).options());
+    }
+
+    // method to build a packet out of an opcode followed by the bytes of text, "|" standing for a null byte
+    private static ByteBuffer packet(int opcode, String text) {
+        byte[] textBytes = text.replace('|', '\0').getBytes(StandardCharsets.US_ASCII);
+        return ByteBuffer.allocate(2 + textBytes.length).putShort((short) opcode).put(textBytes).flip();
+    }
+
+    @Test
+    void truncatedRequestsAreRejected() {
+        assertThrows(IllegalArgumentException.class, () -> PacketCodec.decodeRequest(packet(PacketCodec.RRQ, "")));
+        assertThrows(IllegalArgumentException.class, () -> PacketCodec.decodeRequest(packet(PacketCodec.RRQ, "x")));
+        // a filename without a mode
+        assertThrows(IllegalArgumentException.class, () -> PacketCodec.decodeRequest(packet(PacketCodec.WRQ, "x|")));
+    }
+
+    @Test
+    void unterminatedRequestsAreRejected() {
+        assertThrows(IllegalArgumentException.class, () -> PacketCodec.decodeRequest(packet(PacketCodec.RRQ, "x|octet")));
+        assertThrows(IllegalArgumentException.class, () -> PacketCodec.decodeRequest(packet(PacketCodec.RRQ, "x|octet|blksize|1428")));
+    }
+
+    @Test
+    void optionWithoutValueIsIgnored() {
+        PacketCodec.Request request = PacketCodec.decodeRequest(packet(PacketCodec.RRQ, "x|octet|tsize|0|blksize|"));
+        assertEquals("x", request.filename());
+        assertEquals(Map.of("tsize", "0"), request.options());
+    }
+
+    @Test
+    void truncatedErrorAndOptionAckAreReadUpToTheirEnd() {
+        assertEquals("Disk fu", PacketCodec.errorMessage(packet(PacketCodec.ERROR, "|\3Disk fu")));
+        assertEquals("", PacketCodec.errorMessage(ByteBuffer.allocate(4).putShort((short) PacketCodec.ERROR).putShort((short) 0).flip()));
+        assertEquals(Map.of("blksize", "14"), PacketCodec.decodeOptionAck(packet(PacketCodec.OACK, "blksize|14")));
+    }
+
+    @Test
+    void dataPacketHeader() {
+        byte[] data = {1, 2, 3};
+        PacketCodec.encodeData(buffer, 65535, data, 0, data.length);
+        assertEquals(PacketCodec.DATA, PacketCodec.opcode(buffer));
+        assertEquals(65535, PacketCodec.blockNumber(buffer));
+        assertEquals(3, PacketCodec.dataLength(buffer));
+    }
+
+    @Test
+    void errorRoundTrip() {
+        PacketCodec.encodeError(buffer, 1, "File not found");
+        assertEquals(PacketCodec.ERROR, PacketCodec.opcode(buffer));
+        assertEquals(1, PacketCodec.errorCode(buffer));
+        assertEquals("File not found", PacketCodec.errorMessage(buffer));
+    }
+
+    @Test
+    void rolloverToZero() {
+        assertEquals(0, PacketCodec.wireBlockNumber(0, 0));
+        assertEquals(65535, PacketCodec.wireBlockNumber(65535, 0));
+        assertEquals(0, PacketCodec.wireBlockNumber(65536, 0));
+        assertEquals(1, PacketCodec.wireBlockNumber(65537, 0));
+        assertEquals(65536, PacketCodec.blockAfter(65535, 0, 0));
+        assertEquals(65537, PacketCodec.blockAfter(65530, 1, 0));
+        assertEquals(65530, PacketCodec.blockAfter(65530, 65530, 0));
+    }
+
+    @Test
+    void rolloverToOne() {
+        // block 0 is only the acknowledgment of the OACK
+        assertEquals(0, PacketCodec.wireBlockNumber(0, 1));
+        assertEquals(65535, PacketCodec.wireBlockNumber(65535, 1));
+        assertEquals(1, PacketCodec.wireBlockNumber(65536, 1));
+        assertEquals(65535, PacketCodec.wireBlockNumber(131070, 1));
+        assertEquals(1, PacketCodec.wireBlockNumber(131071, 1));
+        assertEquals(65536, PacketCodec.blockAfter(65535, 1, 1));
+        assertEquals(131071, PacketCodec.blockAfter(131070, 1, 1));
+        assertEquals(5, PacketCodec.blockAfter(0, 5, 1));
+    }
+
+    @Test
+    void selectiveAckBitmap() {
+        BitSet received = new BitSet();
+        received.set(0);
+        received.set(9);
+        PacketCodec.encodeSelectiveAck(buffer, 7, received);
+        assertEquals(PacketCodec.ACK, PacketCodec.opcode(buffer));
+        assertEquals(7, PacketCodec.blockNumber(buffer));
+        assertTrue(PacketCodec.isSelectivelyAcked(buffer, 0));
+        assertFalse(PacketCodec.isSelectivelyAcked(buffer, 1));
+        assertTrue(PacketCodec.isSelectivelyAcked(buffer, 9));
+        // past the end of the bitmap nothing is reported
+        assertFalse(PacketCodec.isSelectivelyAcked(buffer, 100));
+    }
+
+    @Test
+    void plainAckReportsNothing() {
+        PacketCodec.encodeAck(buffer, 3);
+        assertEquals(4, buffer.remaining());
+        assertFalse(PacketCodec.isSelectivelyAcked(buffer, 0));
+    }
+}
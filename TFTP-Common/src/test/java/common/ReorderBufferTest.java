@@ -0,0 +1,148 @@
+package common;
+
+// imports that are using in this project
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class ReorderBufferTest {
+    private static final int BLOCK_SIZE = 8;
+
+    @TempDir
+    Path directory;
+    private Path file;
+    private WriteBuffer out;
+    private final ByteBuffer packet = ByteBuffer.allocate(BLOCK_SIZE + PacketCodec.DATA_HEADER_SIZE);
+
+    @BeforeEach
+    void openFile() throws IOException {
+        file = directory.resolve("received.bin");
+        out = new WriteBuffer(FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE), 0);
+    }
+
+    @AfterEach
+    void closeFile() throws IOException {
+        out.close();
+    }
+
+    // method to build the DATA packet of a block, filled with the low byte of the block (length bytes of it)
+    private ByteBuffer data(long block, int length, int rollover) {
+        byte[] content = new byte[length];
+        Arrays.fill(content, (byte) block);
+        return PacketCodec.encodeData(packet, PacketCodec.wireBlockNumber(block, rollover), content, 0, length);
+    }
+
+    private byte[] written() throws IOException {
+        out.flush();
+        return Files.readAllBytes(file);
+    }
+
+    @Test
+    void blocksInOrderAreWritten() throws IOException {
+        ReorderBuffer reorder = new ReorderBuffer(BLOCK_SIZE, 4, 0);
+        assertEquals(BLOCK_SIZE, reorder.accept(data(1, BLOCK_SIZE, 0), out));
+        assertEquals(3, reorder.accept(data(2, 3, 0), out));
+        assertTrue(reorder.isComplete());
+        assertEquals(2, reorder.inOrder());
+        assertEquals(BLOCK_SIZE + 3, written().length);
+    }
+
+    @Test
+    void blockAheadIsHeldUntilTheGapIsFilled() throws IOException {
+        ReorderBuffer reorder = new ReorderBuffer(BLOCK_SIZE, 4, 0);
+        assertEquals(ReorderBuffer.HELD, reorder.accept(data(2, BLOCK_SIZE, 0), out));
+        assertEquals(ReorderBuffer.HELD, reorder.accept(data(3, 0, 0), out));
+        assertTrue(reorder.hasGap());
+        assertEquals(0, reorder.inOrder());
+        // block 1 arrives, blocks 2 and 3 follow it out of the buffer
+        assertEquals(2 * BLOCK_SIZE, reorder.accept(data(1, BLOCK_SIZE, 0), out));
+        assertFalse(reorder.hasGap());
+        assertTrue(reorder.isComplete());
+        byte[] expected = new byte[2 * BLOCK_SIZE];
+        Arrays.fill(expected, 0, BLOCK_SIZE, (byte) 1);
+        Arrays.fill(expected, BLOCK_SIZE, 2 * BLOCK_SIZE, (byte) 2);
+        assertArrayEquals(expected, written());
+    }
+
+    @Test
+    void emptyLastBlockInOrderIsNotHeld() throws IOException {
+        ReorderBuffer reorder = new ReorderBuffer(BLOCK_SIZE, 4, 0);
+        assertEquals(0, reorder.accept(data(1, 0, 0), out));
+        assertTrue(reorder.isComplete());
+    }
+
+    @Test
+    void duplicatesAndBlocksOutsideTheWindowAreDropped() throws IOException {
+        ReorderBuffer reorder = new ReorderBuffer(BLOCK_SIZE, 2, 0);
+        reorder.accept(data(1, BLOCK_SIZE, 0), out);
+        // already written
+        assertEquals(ReorderBuffer.DROPPED, reorder.accept(data(1, BLOCK_SIZE, 0), out));
+        // held already
+        assertEquals(ReorderBuffer.HELD, reorder.accept(data(3, BLOCK_SIZE, 0), out));
+        assertEquals(ReorderBuffer.DROPPED, reorder.accept(data(3, BLOCK_SIZE, 0), out));
+        // more than capacity blocks ahead of the next one (block 2)
+        assertEquals(ReorderBuffer.HELD, reorder.accept(data(4, BLOCK_SIZE, 0), out));
+        assertEquals(ReorderBuffer.DROPPED, reorder.accept(data(5, BLOCK_SIZE, 0), out));
+        // larger than the block size
+        assertEquals(ReorderBuffer.DROPPED, reorder.accept(PacketCodec.encodeData(ByteBuffer.allocate(64), 2, new byte[BLOCK_SIZE + 1], 0, BLOCK_SIZE + 1), out));
+    }
+
+    @Test
+    void blocksAfterTheLastOneAreDropped() throws IOException {
+        ReorderBuffer reorder = new ReorderBuffer(BLOCK_SIZE, 4, 0);
+        assertEquals(ReorderBuffer.HELD, reorder.accept(data(2, 1, 0), out));
+        assertEquals(ReorderBuffer.DROPPED, reorder.accept(data(3, BLOCK_SIZE, 0), out));
+    }
+
+    @Test
+    void withoutCapacityOnlyTheNextBlockIsTaken() throws IOException {
+        ReorderBuffer reorder = new ReorderBuffer(BLOCK_SIZE, 0, 0);
+        assertEquals(ReorderBuffer.DROPPED, reorder.accept(data(2, BLOCK_SIZE, 0), out));
+        assertEquals(BLOCK_SIZE, reorder.accept(data(1, BLOCK_SIZE, 0), out));
+    }
+
+    @Test
+    void selectiveAckReportsHeldBlocks() throws IOException {
+        ReorderBuffer reorder = new ReorderBuffer(BLOCK_SIZE, 4, 0);
+        reorder.accept(data(1, BLOCK_SIZE, 0), out);
+        reorder.accept(data(3, BLOCK_SIZE, 0), out);
+        ByteBuffer ack = reorder.encodeAck(ByteBuffer.allocate(PacketCodec.MAX_REQUEST_SIZE), true);
+        assertEquals(1, PacketCodec.blockNumber(ack));
+        // bit i is block 1 + 1 + i
+        assertFalse(PacketCodec.isSelectivelyAcked(ack, 0));
+        assertTrue(PacketCodec.isSelectivelyAcked(ack, 1));
+        ByteBuffer plainAck = reorder.encodeAck(ByteBuffer.allocate(PacketCodec.MAX_REQUEST_SIZE), false);
+        assertEquals(4, plainAck.remaining());
+    }
+
+    @Test
+    void countKeepsGoingWhenBlockNumbersRollOver() throws IOException {
+        for (int rollover = 0; rollover <= 1; rollover++) {
+            ReorderBuffer reorder = new ReorderBuffer(BLOCK_SIZE, 4, rollover);
+            for (long block = 1; block <= 65534; block++) {
+                reorder.accept(data(block, BLOCK_SIZE, rollover), out);
+            }
+            // 65536 (sent as 0 or 1) arrives ahead of 65535
+            assertEquals(ReorderBuffer.HELD, reorder.accept(data(65536, BLOCK_SIZE, rollover), out));
+            assertEquals(2 * BLOCK_SIZE, reorder.accept(data(65535, BLOCK_SIZE, rollover), out));
+            assertEquals(65536, reorder.inOrder());
+            assertEquals(BLOCK_SIZE, reorder.accept(data(65537, BLOCK_SIZE, rollover), out));
+            ByteBuffer ack = reorder.encodeAck(ByteBuffer.allocate(PacketCodec.MAX_REQUEST_SIZE), false);
+            assertEquals(PacketCodec.wireBlockNumber(65537, rollover), PacketCodec.blockNumber(ack));
+            out.reset(0);
+        }
+    }
+}
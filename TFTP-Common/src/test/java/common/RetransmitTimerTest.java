@@ -0,0 +1,82 @@
+package common;
+
+// imports that are using in this project
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+class RetransmitTimerTest {
+    private static final long MILLIS = 1_000_000;
+
+    @Test
+    void startsWithTheInitialTimeout() {
+        RetransmitTimer timer = new RetransmitTimer();
+        assertEquals(RetransmitTimer.INITIAL_TIMEOUT, timer.getTimeout());
+        assertEquals(-1, timer.getSmoothedRtt());
+    }
+
+    @Test
+    void firstSampleSetsTheTimeout() {
+        RetransmitTimer timer = new RetransmitTimer();
+        timer.onSample(400 * MILLIS);
+        // as it states in the RFC 6298, SRTT = R, RTTVAR = R / 2, RTO = SRTT + 4 * RTTVAR
+        assertEquals(400, timer.getSmoothedRtt(), 0.001);
+        assertEquals(Math.max(RetransmitTimer.MIN_TIMEOUT, 1200), timer.getTimeout());
+    }
+
+    @Test
+    void smoothsLaterSamples() {
+        RetransmitTimer timer = new RetransmitTimer();
+        timer.onSample(400 * MILLIS);
+        timer.onSample(800 * MILLIS);
+        // SRTT = 7/8 * 400 + 1/8 * 800, RTTVAR = 3/4 * 200 + 1/4 * 400
+        assertEquals(450, timer.getSmoothedRtt(), 0.001);
+        assertEquals(Math.max(RetransmitTimer.MIN_TIMEOUT, 450 + 4 * 250), timer.getTimeout());
+    }
+
+    @Test
+    void tinyRoundTripsAreClampedToTheMinimum() {
+        RetransmitTimer timer = new RetransmitTimer();
+        for (int i = 0; i < 20; i++) {
+            timer.onSample(100_000);
+        }
+        assertEquals(RetransmitTimer.MIN_TIMEOUT, timer.getTimeout());
+    }
+
+    @Test
+    void backsOffUpToTheMaximum() {
+        RetransmitTimer timer = new RetransmitTimer();
+        int previous = timer.getTimeout();
+        timer.onTimeout();
+        assertEquals(Math.min(RetransmitTimer.MAX_TIMEOUT, 2 * previous), timer.getTimeout());
+        for (int i = 0; i < 30; i++) {
+            timer.onTimeout();
+        }
+        assertEquals(RetransmitTimer.MAX_TIMEOUT, timer.getTimeout());
+        // a new sample ends the back off
+        timer.onSample(400 * MILLIS);
+        assertTrue(timer.getTimeout() < RetransmitTimer.MAX_TIMEOUT);
+    }
+
+    @Test
+    void retriesOnALanStillTakeOverAMinute() {
+        RetransmitTimer timer = new RetransmitTimer();
+        timer.onSample(100_000);
+        // the first wait and 8 retries, each twice as long as the one before
+        long waited = 0;
+        for (int i = 0; i <= 8; i++) {
+            waited += timer.getTimeout();
+            timer.onTimeout();
+        }
+        assertTrue(waited > 60_000, "waited " + waited + " ms");
+    }
+
+    @Test
+    void fixedTimerNeverChanges() {
+        RetransmitTimer timer = RetransmitTimer.fixed(3000);
+        timer.onSample(10 * MILLIS);
+        timer.onTimeout();
+        assertEquals(3000, timer.getTimeout());
+    }
+}
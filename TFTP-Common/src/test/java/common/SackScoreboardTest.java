@@ -0,0 +1,77 @@
+package common;
+
+// imports that are using in this project
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.BitSet;
+import org.junit.jupiter.api.Test;
+
+class SackScoreboardTest {
+    // method to build a selective ACK for block acked that reports the given blocks as held
+    private static ByteBuffer ack(int acked, int... held) {
+        BitSet bitmap = new BitSet();
+        for (int block : held) {
+            bitmap.set(block - acked - 1);
+        }
+        return PacketCodec.encodeSelectiveAck(ByteBuffer.allocate(PacketCodec.MAX_REQUEST_SIZE), acked, bitmap);
+    }
+
+    @Test
+    void blockSentBeforeAReportedOneIsMissing() {
+        SackScoreboard scoreboard = new SackScoreboard(8);
+        for (int block = 1; block <= 5; block++) {
+            scoreboard.sent(block);
+        }
+        // blocks 1 and 2 lost, 3 and 4 held, 5 still on its way
+        scoreboard.record(ack(0, 3, 4), 0, 5);
+        assertTrue(scoreboard.isReported(3));
+        assertTrue(scoreboard.isReported(4));
+        assertTrue(scoreboard.isMissing(1));
+        assertTrue(scoreboard.isMissing(2));
+        assertFalse(scoreboard.isMissing(3));
+        assertFalse(scoreboard.isMissing(5));
+    }
+
+    @Test
+    void retransmittedBlockIsNotMissingUntilALaterOneIsReported() {
+        SackScoreboard scoreboard = new SackScoreboard(8);
+        for (int block = 1; block <= 3; block++) {
+            scoreboard.sent(block);
+        }
+        scoreboard.record(ack(0, 2), 0, 3);
+        assertTrue(scoreboard.isMissing(1));
+        // block 1 is sent again, it is on its way again
+        scoreboard.sent(1);
+        assertFalse(scoreboard.isMissing(1));
+        // block 3 was sent before the retransmission, reporting it says nothing about block 1
+        scoreboard.record(ack(0, 2, 3), 0, 3);
+        assertFalse(scoreboard.isMissing(1));
+        // a block sent after the retransmission is reported, so the retransmission was lost too
+        scoreboard.sent(4);
+        scoreboard.record(ack(0, 2, 3, 4), 0, 4);
+        assertTrue(scoreboard.isMissing(1));
+    }
+
+    @Test
+    void blocksAfterTheLastSentAreIgnored() {
+        SackScoreboard scoreboard = new SackScoreboard(8);
+        scoreboard.sent(1);
+        scoreboard.sent(2);
+        scoreboard.record(ack(0, 2, 3), 0, 2);
+        assertTrue(scoreboard.isReported(2));
+        assertFalse(scoreboard.isReported(3));
+    }
+
+    @Test
+    void slotsAreReusedByLaterWindows() {
+        SackScoreboard scoreboard = new SackScoreboard(4);
+        for (int block = 1; block <= 4; block++) {
+            scoreboard.sent(block);
+        }
+        scoreboard.record(ack(0, 2), 0, 4);
+        // block 6 uses the slot of block 2, it isn't reported just because block 2 was
+        assertFalse(scoreboard.isReported(6));
+    }
+}
@@ -0,0 +1,66 @@
+package common;
+
+// imports that are using in this project
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+class TokenBucketTest {
+    private static final long SECOND = 1_000_000_000L;
+    // the bucket was made a few microseconds before start, it may have filled up a little in that time
+    private static final long SLACK = SECOND / 10_000;
+    // 1 MB/s, so the burst is the minimum one (50 ms of it is less)
+    private static final long RATE = 1024 * 1024;
+
+    @Test
+    void emptyBucketFillsUpAtItsRate() {
+        TokenBucket bucket = new TokenBucket(0);
+        long start = System.nanoTime();
+        assertFalse(bucket.tryTake(1000, RATE, start));
+        // 1000 bytes take a little under 1 ms at 1 MB/s
+        assertEquals((long) Math.ceil(1000.0 * SECOND / RATE), bucket.nanosUntil(1000, RATE, start), SLACK);
+        assertTrue(bucket.tryTake(1000, RATE, start + SECOND / 1000));
+    }
+
+    @Test
+    void bucketHoldsNoMoreThanItsBurst() {
+        TokenBucket bucket = new TokenBucket(0);
+        long start = System.nanoTime();
+        long later = start + 10 * SECOND;
+        assertTrue(bucket.tryTake(TokenBucket.MIN_BURST, RATE, later));
+        // after a long pause only one burst was there
+        assertFalse(bucket.tryTake(1, RATE, later));
+    }
+
+    @Test
+    void takeCanGoIntoDebt() {
+        TokenBucket bucket = new TokenBucket(0);
+        long start = System.nanoTime();
+        bucket.take(RATE, RATE, start);
+        // one second of debt has to be paid back first
+        assertEquals(SECOND + 1000L * SECOND / RATE, bucket.nanosUntil(1000, RATE, start), SLACK);
+        assertFalse(bucket.tryTake(1000, RATE, start + SECOND / 2));
+        assertTrue(bucket.tryTake(1000, RATE, start + SECOND + SECOND / 500));
+    }
+
+    @Test
+    void packetBiggerThanTheBurstGoesThroughWhenFull() {
+        TokenBucket bucket = new TokenBucket(TokenBucket.MIN_BURST);
+        long start = System.nanoTime();
+        assertEquals(0, bucket.nanosUntil(10L * TokenBucket.MIN_BURST, RATE, start));
+        assertTrue(bucket.tryTake(10L * TokenBucket.MIN_BURST, RATE, start));
+        assertFalse(bucket.tryTake(1, RATE, start));
+    }
+
+    @Test
+    void rateChangeAppliesStraightAway() {
+        TokenBucket bucket = new TokenBucket(0);
+        long start = System.nanoTime();
+        bucket.tryTake(0, RATE, start);
+        // the same 10 ms fill up 10 times more at 10 times the rate
+        long later = start + SECOND / 100;
+        assertTrue(bucket.tryTake(RATE / 10, 10 * RATE, later));
+    }
+}
@@ -0,0 +1,229 @@
+package TFTPTCPClient;
+
+// imports used in this project
+import common.FrameCodec;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// a connection to the TCP server that stays open for many reads and writes...
+// requests are sent straight away without waiting for the previous ones to finish (pipelining), every request
+// gets a number and a reader thread hands each response frame to the request with the same number
+public class TFTPConnection implements Closeable {
+    private final Socket socket;
+    private final DataInputStream in;
+    private final DataOutputStream out;
+    // requests sent but not answered yet, by request number
+    private final Map<Integer, PendingRequest> pending = new ConcurrentHashMap<>();
+    private final AtomicInteger nextRequestId = new AtomicInteger(1);
+    private volatile boolean closed;
+
+    // a request waiting for its response, reads also have the file the DATA frames are written to
+    // a read is written to a part file next to filename and only given its real name once the whole file is there,
+    // so a read that fails (or is refused) leaves the file that was there before alone
+    private static class PendingRequest {
+        final CompletableFuture<FrameCodec.Status> result = new CompletableFuture<>();
+        final String filename;
+        final Path partFile;
+        final FileOutputStream fileOutputStream;
+
+        PendingRequest(String filename, Path partFile) throws IOException {
+            this.filename = filename;
+            this.partFile = partFile;
+            this.fileOutputStream = partFile == null ? null : new FileOutputStream(partFile.toFile());
+        }
+
+        // method to close the file the response was written to, it is renamed to filename if it is kept and deleted
+        // otherwise, returns whether it was kept
+        boolean closeFile(boolean keep) {
+            if (fileOutputStream == null) {
+                return keep;
+            }
+            try {
+                fileOutputStream.close();
+                if (keep) {
+                    try {
+                        Files.move(partFile, Path.of(filename), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                    } catch (AtomicMoveNotSupportedException e) {
+                        Files.move(partFile, Path.of(filename), StandardCopyOption.REPLACE_EXISTING);
+                    }
+                }
+            } catch (IOException e) {
+                keep = false;
+            }
+            if (!keep) {
+                try {
+                    Files.deleteIfExists(partFile);
+                } catch (IOException e) {
+                    // nothing more can be done
+                }
+            }
+            return keep;
+        }
+    }
+
+    public TFTPConnection(String address, int port) throws IOException {
+        socket = new Socket(address, port);
+        // requests are small, so they are sent as soon as they are written
+        socket.setTcpNoDelay(true);
+        in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), FrameCodec.CHUNK_SIZE));
+        out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), FrameCodec.CHUNK_SIZE));
+        Thread.ofVirtual().name("tftp-connection-reader").start(this::readResponses);
+    }
+
+    // method to request a file from the server, it is written to filename as it arrives
+    // the result is the server's status (or "File successfully received") once the whole file is there
+    public CompletableFuture<FrameCodec.Status> read(String remoteFilename, String filename) throws IOException {
+        checkOpen();
+        int requestId = nextRequestId.getAndIncrement();
+        // a part file of its own, the same file may be read more than once at the same time
+        Path file = Path.of(filename).toAbsolutePath();
+        PendingRequest request = new PendingRequest(filename, Files.createTempFile(file.getParent(), file.getFileName() + ".", ".part"));
+        addPending(requestId, request);
+        try {
+            synchronized (out) {
+                FrameCodec.writeRequest(out, FrameCodec.RRQ, requestId, remoteFilename);
+                out.flush();
+            }
+        } catch (IOException e) {
+            fail(requestId, e);
+            throw e;
+        }
+        return request.result;
+    }
+
+    // method to send a file to the server, returns once the file has been sent
+    // the result is the server's status once it has written the file
+    public CompletableFuture<FrameCodec.Status> write(String filename, String remoteFilename) throws IOException {
+        File file = new File(filename);
+        // checks if file exists
+        if (!file.exists()) {
+            throw new FileNotFoundException(filename);
+        }
+        checkOpen();
+        int requestId = nextRequestId.getAndIncrement();
+        PendingRequest request = new PendingRequest(filename, null);
+        addPending(requestId, request);
+        // the content of the file is sent in large chunks of raw bytes
+        byte[] buffer = new byte[FrameCodec.CHUNK_SIZE];
+        try (FileInputStream fileInputStream = new FileInputStream(file)) {
+            // the frames of one write can't be mixed with the frames of another request
+            synchronized (out) {
+                FrameCodec.writeRequest(out, FrameCodec.WRQ, requestId, remoteFilename);
+                int bytesRead;
+                while ((bytesRead = fileInputStream.read(buffer)) > 0) {
+                    FrameCodec.writeData(out, requestId, buffer, 0, bytesRead);
+                }
+                // a signal end of file transfer to server
+                FrameCodec.writeEnd(out, requestId);
+                out.flush();
+            }
+        } catch (IOException e) {
+            fail(requestId, e);
+            throw e;
+        }
+        return request.result;
+    }
+
+    // number of requests waiting for their response
+    public int pendingRequests() {
+        return pending.size();
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    // method run by the reader thread, hands every response frame to its request until the connection closes
+    private void readResponses() {
+        byte[] buffer = new byte[FrameCodec.CHUNK_SIZE];
+        try {
+            FrameCodec.Header frame;
+            while ((frame = FrameCodec.readHeader(in)) != null) {
+                PendingRequest request = pending.get(frame.requestId());
+                if (request == null) {
+                    // a response to a request we don't know about
+                    FrameCodec.skipPayload(in, frame.length());
+                    continue;
+                }
+                if (frame.opcode() == FrameCodec.DATA && request.fileOutputStream != null) {
+                    FrameCodec.copyPayload(in, frame.length(), request.fileOutputStream, buffer);
+                } else if (frame.opcode() == FrameCodec.END) {
+                    pending.remove(frame.requestId());
+                    if (request.closeFile(true)) {
+                        request.result.complete(new FrameCodec.Status(FrameCodec.STATUS_OK, "File successfully received"));
+                    } else {
+                        request.result.completeExceptionally(new IOException("Could not save " + request.filename));
+                    }
+                } else if (frame.opcode() == FrameCodec.STATUS) {
+                    FrameCodec.Status status = FrameCodec.readStatus(in, frame.length());
+                    pending.remove(frame.requestId());
+                    // a read answered with a STATUS frame failed, so its part file is deleted
+                    request.closeFile(false);
+                    request.result.complete(status);
+                } else {
+                    FrameCodec.skipPayload(in, frame.length());
+                }
+            }
+            failAll(new IOException("Connection closed by the server"));
+        } catch (IOException e) {
+            failAll(e);
+        }
+    }
+
+    private void checkOpen() throws IOException {
+        if (closed) {
+            throw new IOException("Connection is closed");
+        }
+    }
+
+    // method to add a request to the ones waiting for a response
+    // the reader thread may fail every request between checkOpen() and here (it sets closed first), so closed is
+    // checked again once the request is in, and the request fails instead of waiting for a response that never comes
+    private void addPending(int requestId, PendingRequest request) throws IOException {
+        pending.put(requestId, request);
+        if (closed) {
+            IOException e = new IOException("Connection is closed");
+            fail(requestId, e);
+            throw e;
+        }
+    }
+
+    private void fail(int requestId, IOException e) {
+        PendingRequest request = pending.remove(requestId);
+        if (request != null) {
+            request.closeFile(false);
+            request.result.completeExceptionally(e);
+        }
+    }
+
+    private void failAll(IOException e) {
+        closed = true;
+        for (Integer requestId : pending.keySet()) {
+            fail(requestId, e);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        // the reader thread stops and fails the requests that are still waiting
+        socket.close();
+    }
+}
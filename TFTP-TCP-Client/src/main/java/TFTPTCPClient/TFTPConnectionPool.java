@@ -0,0 +1,56 @@
+package TFTPTCPClient;
+
+// imports used in this project
+import common.FrameCodec;
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+
+// a few connections to the TCP server shared by many requests...
+// every request goes on the open connection with the fewest requests waiting, so thousands of small files can be
+// fetched without connecting for each one, and connections closed by the server are opened again when needed
+public class TFTPConnectionPool implements Closeable {
+    private final String address;
+    private final int port;
+    private final TFTPConnection[] connections;
+
+    public TFTPConnectionPool(String address, int port, int size) {
+        this.address = address;
+        this.port = port;
+        this.connections = new TFTPConnection[Math.max(1, size)];
+    }
+
+    // method to request a file from the server (see TFTPConnection.read)
+    public CompletableFuture<FrameCodec.Status> read(String remoteFilename, String filename) throws IOException {
+        return connection().read(remoteFilename, filename);
+    }
+
+    // method to send a file to the server (see TFTPConnection.write)
+    public CompletableFuture<FrameCodec.Status> write(String filename, String remoteFilename) throws IOException {
+        return connection().write(filename, remoteFilename);
+    }
+
+    // method to pick the least busy connection, opening one if a slot is empty or its connection was closed
+    private synchronized TFTPConnection connection() throws IOException {
+        int leastBusy = 0;
+        for (int i = 0; i < connections.length; i++) {
+            if (connections[i] == null || connections[i].isClosed()) {
+                connections[i] = new TFTPConnection(address, port);
+                return connections[i];
+            }
+            if (connections[i].pendingRequests() < connections[leastBusy].pendingRequests()) {
+                leastBusy = i;
+            }
+        }
+        return connections[leastBusy];
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        for (TFTPConnection connection : connections) {
+            if (connection != null) {
+                connection.close();
+            }
+        }
+    }
+}
@@ -1,15 +1,12 @@
 package TFTPTCPClient;
 
 // imports used in this project
+import common.FrameCodec;
 import java.io.BufferedReader;
-import java.io.BufferedWriter;
-import java.io.FileWriter;
-import java.io.FileReader;
-import java.io.InputStreamReader;
-import java.io.PrintWriter;
+import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.File;
-import java.net.Socket;
+import java.io.InputStreamReader;
+import java.util.concurrent.CompletionException;
 
 public class TFTPTCPClient {
     // as the requirements says, any port above 1024
@@ -18,13 +15,12 @@ public class TFTPTCPClient {
     public static String address = "localhost";
 
     public static void main(String[] args) {
-        try (Socket socket = new Socket(address, serverPort)) {
+        // the connection can carry any number of requests, this menu only sends one
+        try (TFTPConnection connection = new TFTPConnection(address, serverPort)) {
             // an output message for clients connecting to server
             System.out.println("Connected to server...");
-            // initialising input and output streams for communication with server
+            // initialising input stream for the user's choices
             BufferedReader userInput = new BufferedReader(new InputStreamReader(System.in));
-            PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
-            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
 
             // as the requirement says, user options for read or write
             System.out.println("Select an option: ");
@@ -38,11 +34,8 @@ public class TFTPTCPClient {
                 // user inputs the file they want to GET from the server
                 System.out.println("Enter file name to read: ");
                 String filename = userInput.readLine();
-                // sends the read request to server
-                out.println("Read Request" + filename);
-                // receives the file contents from server
                 // method receiveFile is called to handle Read Request
-                receiveFile(filename, in);
+                receiveFile(connection, filename);
 
             // if option 2 was selected...
             } else if (choice.equals("2")) {
@@ -51,7 +44,7 @@ public class TFTPTCPClient {
                 System.out.print("Enter file name to write: ");
                 String filename = userInput.readLine();
                 // method writeFile is called to handle Write Request
-                writeFile(filename, out);
+                writeFile(connection, filename, filename);
             } else {
                 System.err.println("Invalid choice.");
             }
@@ -62,27 +55,18 @@ public class TFTPTCPClient {
     }
 
     // as the requirement says, implement a protocol that operates like TFTP (i.e. supports only read and write operations)
-    // method to read the data received from the server
-    public static void receiveFile(String filename, BufferedReader in) {
-        try (BufferedWriter fileWriter = new BufferedWriter(new FileWriter(filename))) {
-            String line;
-            while ((line = in.readLine()) != null && !line.equals("EOFT")) {
-                if (line.startsWith("ERROR")) {
-                    // output the error message
-                    System.err.println("Error from server: " + line.substring(6)); // Extract the error message
-                    fileWriter.close();
-                    File file = new File(filename);
-                    // delete the file due to the error
-                    file.delete();
-                    return;
-                }
-                fileWriter.write(line);
-                fileWriter.newLine();
+    // method to request a file and wait until it has been received (the file is deleted if the read fails)
+    public static void receiveFile(TFTPConnection connection, String filename) {
+        try {
+            FrameCodec.Status status = connection.read(filename, filename).join();
+            if (!status.isOk()) {
+                // output the error message
+                System.err.println("Error from server: " + status.message());
+                return;
             }
-            fileWriter.flush();
             // output confirmation message
             System.out.println("File successfully received");
-        } catch (IOException e) {
+        } catch (IOException | CompletionException e) {
             // if an exception occurs during file being received
             e.printStackTrace();
             System.err.println("Error receiving file.");
@@ -90,37 +74,21 @@ public class TFTPTCPClient {
     }
 
     // as the requirement says, implement a protocol that operates like TFTP (i.e. supports only read and write operations)
-    // method to write the data from the client to the server
-    public static void writeFile(String filename, PrintWriter out) {
+    // method to write a local file to the server (remoteFilename may differ, e.g. a full path on the server)
+    // and wait for the server's answer
+    public static void writeFile(TFTPConnection connection, String filename, String remoteFilename) {
         try {
-            File file = new File(filename);
-            // checks if file exists
-            if (!file.exists()) {
-                // an output message if the file doesn't exist
-                System.err.println("File not found.");
+            FrameCodec.Status status = connection.write(filename, remoteFilename).join();
+            if (!status.isOk()) {
+                System.err.println("Error from server: " + status.message());
                 return;
             }
-            // sends write request to server
-            out.println("Write Request" + filename);
-            //bufferedWriter to read the content of the file and send it to the server
-            try (BufferedReader fileReader = new BufferedReader(new FileReader(file))) {
-                String line;
-                while ((line = fileReader.readLine()) != null) {
-                    // send line to server
-                    out.println(line);
-                }
-                // a signal end of file transfer to server
-                // I'm aware this might be an inefficient way to do it, but I wasn't sure if needed to split up the data into 512
-                // This is mainly due to that there wasn't much description on how to build the client server for TCP
-                // This could be sending extra data, but it still provides you with the same experience from the first task
-                out.println("EOFT");
-            } catch (IOException e) {
-                // if any exceptions that occur during file reading
-                e.printStackTrace();
-            }
             // an output file sent successfully message
             System.out.println("File sent successfully.");
-        } catch (Exception e) {
+        } catch (FileNotFoundException e) {
+            // an output message if the file doesn't exist
+            System.err.println("File not found.");
+        } catch (IOException | CompletionException e) {
             // if any exceptions that occur during client operation
             e.printStackTrace();
         }
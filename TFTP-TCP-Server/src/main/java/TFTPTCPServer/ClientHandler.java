@@ -1,27 +1,44 @@
 package TFTPTCPServer;
 
 // imports used in this project
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
-import java.io.FileWriter;
-import java.io.FileReader;
-import java.io.InputStreamReader;
-import java.io.PrintWriter;
+import common.Checkpoint;
+import common.FrameCodec;
+import common.Log;
+import common.Metrics;
+import common.TrafficShaper;
+import common.WriteBuffer;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
 import java.io.IOException;
 import java.net.Socket;
 import java.net.SocketTimeoutException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.StandardOpenOption;
 
 class ClientHandler implements Runnable {
+    // largest DATA frame sent by a read, the file goes from the page cache to the socket in frames of this size
+    public static int SENDFILE_FRAME_SIZE = 64 * 1024 * 1024;
+
+    private SocketChannel clientChannel;
     private Socket clientSocket;
-    private PrintWriter out;
+    private DataInputStream in;
+    private DataOutputStream out;
     private int timeOut;
+    // buffer the file content goes through, one per connection
+    private final byte[] buffer = new byte[FrameCodec.CHUNK_SIZE];
 
-    public ClientHandler(Socket socket) {
-        this.clientSocket = socket;
+    public ClientHandler(SocketChannel channel) {
+        this.clientChannel = channel;
+        this.clientSocket = channel.socket();
         // 60 seconds timeout
         this.timeOut = 60000;
         try {
-            this.out = new PrintWriter(clientSocket.getOutputStream(), true);
+            this.in = new DataInputStream(new BufferedInputStream(clientSocket.getInputStream(), FrameCodec.CHUNK_SIZE));
+            this.out = new DataOutputStream(new BufferedOutputStream(clientSocket.getOutputStream(), FrameCodec.CHUNK_SIZE));
             clientSocket.setSoTimeout(timeOut);
         } catch (IOException e) {
             e.printStackTrace();
@@ -30,36 +47,48 @@ class ClientHandler implements Runnable {
 
     public void run() {
         try {
-            try (BufferedReader in = new BufferedReader(new InputStreamReader(clientSocket.getInputStream()))) {
-                String request;
-                while ((request = in.readLine()) != null) {
+            try {
+                FrameCodec.Header request;
+                // requests are handled one after the other until the client closes the connection
+                // (a client may send the next requests before the previous ones are answered, they wait in the socket)
+                while ((request = FrameCodec.readHeader(in)) != null) {
+                    boolean fileRequest = request.opcode() == FrameCodec.RRQ || request.opcode() == FrameCodec.WRQ;
+                    // a filename longer than any file system allows isn't read into memory, the client is told instead
+                    if (fileRequest && request.length() > FrameCodec.MAX_STRING_LENGTH) {
+                        FrameCodec.skipPayload(in, request.length());
+                        Log.warn(clientSocket.getInetAddress().getHostAddress() + ": Filename of " + request.length() + " bytes is too long");
+                        // the DATA frames of a write follow its request, they are read and thrown away so they aren't
+                        // taken for requests (a frame that isn't part of the write has been answered already)
+                        if (request.opcode() == FrameCodec.RRQ || receiveFileData(request.requestId(), null)) {
+                            FrameCodec.writeStatus(out, request.requestId(), FrameCodec.STATUS_ILLEGAL_OPERATION, "Filename too long");
+                        }
+                    }
                     // if the request received is a read request...
-                    if (request.startsWith("Read Request")) {
+                    else if (request.opcode() == FrameCodec.RRQ) {
                         // extracts the filename
-                        // index 12 as you want after the "Read Request"
-                        String filename = request.substring(12);
-                        System.out.println(clientSocket.getInetAddress().getHostAddress() + ": Read Request on " + filename);
+                        String filename = FrameCodec.readString(in, request.length());
+                        Log.debug(clientSocket.getInetAddress().getHostAddress() + ": Read Request on " + filename);
                         // a method to handle read request
-                        readFile(filename);
-                        // reset the timeout
-                        clientSocket.setSoTimeout(timeOut);
+                        readFile(request.requestId(), filename);
                     }
                     // if the request received is a write request...
-                    else if (request.startsWith("Write Request")) {
+                    else if (request.opcode() == FrameCodec.WRQ) {
                         // extracts the filename
-                        // index 13 as you want after the "Write Request"
-                        String filename = request.substring(13);
-                        System.out.println(clientSocket.getInetAddress().getHostAddress() + ": Write Request on " + filename);
+                        String filename = FrameCodec.readString(in, request.length());
+                        Log.debug(clientSocket.getInetAddress().getHostAddress() + ": Write Request on " + filename);
                         // a method to handle write request
-                        writeFile(filename, in);
+                        writeFile(request.requestId(), filename);
                     } else {
                         // an output error message if the user sends any other requests
-                        System.err.println(clientSocket.getInetAddress().getHostAddress() + ": Invalid Request");
+                        FrameCodec.skipPayload(in, request.length());
+                        Log.warn(clientSocket.getInetAddress().getHostAddress() + ": Invalid Request");
+                        FrameCodec.writeStatus(out, request.requestId(), FrameCodec.STATUS_ILLEGAL_OPERATION, "Invalid request");
                     }
+                    out.flush();
                 }
             } catch (SocketTimeoutException e) {
                 // an output error message in case of a timeout
-                System.err.println(clientSocket.getInetAddress().getHostAddress() + ": Timeout - No request received within 60 seconds.");
+                Log.debug(clientSocket.getInetAddress().getHostAddress() + ": Timeout - No request received within 60 seconds.");
             }
         } catch (IOException e) {
             e.printStackTrace();
@@ -73,45 +102,183 @@ class ClientHandler implements Runnable {
     }
 
     // method to handle read request
-    private void readFile(String filename) {
-        try (BufferedReader fileReader = new BufferedReader(new FileReader(filename))) {
-            String line;
-            while ((line = fileReader.readLine()) != null) {
-                out.println(line);
-            }
-            // a signal to indicate end of file transfer
-            // I'm aware this might be an inefficient way to do it, but I wasn't sure if needed to split up the data into 512
-            // This is mainly due to that there wasn't much description on how to build the client server for TCP
-            // This could be sending extra data, but it still provides you with the same experience from the first task
-            out.println("EOFT");
-            // an output message if the file transfer was successful
-            System.out.println(clientSocket.getInetAddress().getHostAddress() + ": " + filename + " content sent successfully");
-        } catch (IOException e) {
+    // the file is sent as DATA frames followed by an END frame
+    private void readFile(int requestId, String filename) throws IOException {
+        File file = new File(filename);
+        if (!file.isFile()) {
             // error handling only for File Not Found (as the requirement says)
-            out.println("ERROR: File not found");
+            FrameCodec.writeStatus(out, requestId, FrameCodec.STATUS_FILE_NOT_FOUND, "File not found");
             // an output error message if File Not Found
-            System.err.println(clientSocket.getInetAddress().getHostAddress() + ":"  + filename + " File not found");
+            Log.warn(clientSocket.getInetAddress().getHostAddress() + ": " + filename + " File not found");
+            return;
+        }
+        FileChannel fileChannel;
+        try {
+            fileChannel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        } catch (IOException e) {
+            // the file couldn't be opened, the client is told instead of sending it
+            FrameCodec.writeStatus(out, requestId, FrameCodec.STATUS_ACCESS_VIOLATION, "Could not read file");
+            Log.warn(clientSocket.getInetAddress().getHostAddress() + ": Could not read " + filename);
+            return;
+        }
+        // every read is a transfer in the Metrics, and every DATA frame a block
+        Metrics.sessionStarted();
+        long startedAt = System.nanoTime();
+        long position = 0;
+        boolean sent = false;
+        // the read's share of the bandwidth limits (see TrafficShaper)
+        TrafficShaper.Flow flow = TrafficShaper.open(clientSocket.getInetAddress().getHostAddress());
+        try (fileChannel) {
+            long fileSize = fileChannel.size();
+            while (position < fileSize) {
+                int frameSize = (int) Math.min(SENDFILE_FRAME_SIZE, fileSize - position);
+                FrameCodec.writeHeader(out, FrameCodec.DATA, requestId, frameSize);
+                out.flush();
+                sendFileData(fileChannel, position, frameSize, flow);
+                position += frameSize;
+                Metrics.blockSent(frameSize);
+            }
+            // a signal to indicate end of file transfer
+            FrameCodec.writeEnd(out, requestId);
+            sent = true;
+        } finally {
+            flow.close();
+            long nanos = System.nanoTime() - startedAt;
+            Metrics.sessionEnded(sent, position, nanos);
+            // one line for the whole transfer, successful or not
+            if (Log.isEnabled(Log.Level.INFO)) {
+                Log.info(Log.summary(clientSocket.getInetAddress().getHostAddress(), "RRQ", filename, sent, position, nanos));
+            }
+        }
+    }
+
+    // method to send part of a file straight from the file to the socket with transferTo
+    // the bytes never go through the JVM's heap (on Linux this is the sendfile system call)
+    // with bandwidth limits the part is sent a chunk at a time, each once the limits allow it
+    private void sendFileData(FileChannel fileChannel, long position, long count, TrafficShaper.Flow flow) throws IOException {
+        long allowed = 0;
+        while (count > 0) {
+            if (allowed == 0) {
+                allowed = flow.isLimited() ? Math.min(count, FrameCodec.CHUNK_SIZE) : count;
+                flow.acquire(allowed);
+            }
+            long bytesSent = fileChannel.transferTo(position, allowed, clientChannel);
+            if (bytesSent <= 0 && position >= fileChannel.size()) {
+                // the file got shorter while it was being sent, the frame can't be completed
+                throw new IOException("File changed while it was being sent");
+            }
+            position += bytesSent;
+            count -= bytesSent;
+            allowed -= bytesSent;
         }
     }
 
-    // method to handle write request
-    private void writeFile(String filename, BufferedReader in) {
+    // method to handle write request, every write is a transfer in the Metrics (and every DATA frame a block)
+    private void writeFile(int requestId, String filename) throws IOException {
+        Metrics.sessionStarted();
+        long startedAt = System.nanoTime();
+        long bytesWritten = -1;
+        try {
+            bytesWritten = receiveFile(requestId, filename);
+        } finally {
+            long nanos = System.nanoTime() - startedAt;
+            Metrics.sessionEnded(bytesWritten >= 0, Math.max(0, bytesWritten), nanos);
+            // one line for the whole transfer, successful or not
+            if (Log.isEnabled(Log.Level.INFO)) {
+                Log.info(Log.summary(clientSocket.getInetAddress().getHostAddress(), "WRQ", filename, bytesWritten >= 0, Math.max(0, bytesWritten), nanos));
+            }
+        }
+    }
 
-        try (BufferedWriter fileWriter = new BufferedWriter(new FileWriter(filename))) {
-            String line;
-            while ((line = in.readLine()) != null && !line.equals("EOFT")) {
-                fileWriter.write(line);
-                fileWriter.newLine();
+    // method to receive the file of a write request
+    // reads the DATA frames up to the END frame and answers with a STATUS frame, returns the size of the file
+    // written or -1 if it wasn't
+    // the file is written as "<file>.part" (see Checkpoint) and only given its real name once the END frame has
+    // arrived, so a read of the same file in the meantime gets the old file instead of half of the new one
+    // the part file belongs to this write alone (see Checkpoint.claim), a write of a file that is still being
+    // written (on this connection or another) is refused once its DATA frames have been read
+    private long receiveFile(int requestId, String filename) throws IOException {
+        if (!Checkpoint.claim(filename)) {
+            Log.warn(clientSocket.getInetAddress().getHostAddress() + ": Refused write of " + filename + ", it is already being written");
+            if (receiveFileData(requestId, null)) {
+                FrameCodec.writeStatus(out, requestId, FrameCodec.STATUS_ACCESS_VIOLATION, "File is being written");
             }
-            fileWriter.flush();
-            // a message to let the client know the file transfer was successful
-            out.println("File successfully written");
-            // an output message if the file transfer was successful
-            System.out.println(clientSocket.getInetAddress().getHostAddress() + ": " + filename + " content received successfully");
+            return -1;
+        }
+        try {
+            return receiveClaimedFile(requestId, filename);
+        } finally {
+            Checkpoint.release(filename);
+        }
+    }
+
+    // method to receive the file of a write request once its part file has been claimed
+    private long receiveClaimedFile(int requestId, String filename) throws IOException {
+        Checkpoint checkpoint = Checkpoint.start(filename);
+        WriteBuffer fileOutput = null;
+        try {
+            fileOutput = checkpoint.open(-1);
         } catch (IOException e) {
-            e.printStackTrace();
-            // an output error message if the file couldn't be written due to an error
-            System.err.println(clientSocket.getInetAddress().getHostAddress() + ": Could not write to file");
+            // an output error message if the file couldn't be created, the DATA frames are still read and thrown away
+            Log.warn(clientSocket.getInetAddress().getHostAddress() + ": Could not write to " + filename);
+        }
+
+        boolean complete = false;
+        boolean saved = false;
+        try {
+            complete = receiveFileData(requestId, fileOutput);
+            if (complete && fileOutput != null) {
+                // the file is forced to disk and renamed, the client is only told it was written once that worked
+                try {
+                    checkpoint.complete(fileOutput, filename);
+                    saved = true;
+                } catch (IOException e) {
+                    Log.warn(clientSocket.getInetAddress().getHostAddress() + ": Could not save " + filename + " - " + e.getMessage());
+                }
+            }
+        } finally {
+            if (fileOutput != null) {
+                fileOutput.close();
+                if (!saved) {
+                    checkpoint.discard();
+                }
+            }
+        }
+        if (!complete) {
+            // the client gave up (or sent something else) before the end of the file
+            Log.warn(clientSocket.getInetAddress().getHostAddress() + ": " + filename + " transfer abandoned by the client");
+            return -1;
+        }
+        if (!saved) {
+            FrameCodec.writeStatus(out, requestId, FrameCodec.STATUS_ACCESS_VIOLATION, fileOutput == null ? "Could not write to file" : "Could not save the file");
+            return -1;
+        }
+        // a message to let the client know the file transfer was successful
+        FrameCodec.writeStatus(out, requestId, FrameCodec.STATUS_OK, "File successfully written");
+        return fileOutput.position();
+    }
+
+    // method to copy the DATA frames to the file (or throw them away without one), returns whether the END frame was reached
+    // (a frame that isn't part of the file is answered with a STATUS frame, the connection closing isn't answered)
+    private boolean receiveFileData(int requestId, WriteBuffer fileOutput) throws IOException {
+        FrameCodec.Header frame;
+        while ((frame = FrameCodec.readHeader(in)) != null) {
+            if (frame.opcode() == FrameCodec.END && frame.requestId() == requestId) {
+                return true;
+            }
+            if (frame.opcode() != FrameCodec.DATA || frame.requestId() != requestId) {
+                // the client sent something else in the middle of the file, the write is abandoned and the client is told
+                FrameCodec.skipPayload(in, frame.length());
+                FrameCodec.writeStatus(out, requestId, FrameCodec.STATUS_ILLEGAL_OPERATION, "Unexpected frame during write");
+                return false;
+            }
+            Metrics.blockReceived(frame.length());
+            if (fileOutput != null) {
+                FrameCodec.copyPayload(in, frame.length(), fileOutput, buffer);
+            } else {
+                FrameCodec.skipPayload(in, frame.length());
+            }
         }
+        return false;
     }
 }
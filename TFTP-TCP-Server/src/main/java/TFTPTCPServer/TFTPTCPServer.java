@@ -1,27 +1,126 @@
 package TFTPTCPServer;
 
 // imports used in this project
+import common.Log;
+import common.Metrics;
+import common.TrafficShaper;
 import java.io.IOException;
-import java.net.ServerSocket;
-import java.net.Socket;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
 
 public class TFTPTCPServer {
     // as the requirements says, any port above 1024
     public static int serverPort = 9000;
 
-    public static void main(String[] args) {
+    // how the client connections are executed, can be chosen on the command line:
+    // "virtual" (default) - one virtual thread per connection, cheap enough for tens of thousands of idle connections
+    // "pool"              - a bounded pool of platform threads, e.g. "pool 200"
+    public static String executorMode = "virtual";
+    // number of platform threads in "pool" mode
+    public static int poolThreads = 200;
+    // admission limit, once this many connections are open the server stops accepting until one closes
+    public static int maxConnections = 10000;
+
+    public static void main(String[] options) {
+        // "-metrics <port>" serves the Metrics as text on http://localhost:<port>/metrics (they are always in JMX)
+        // "-rate <KB/s>", "-client-rate <KB/s>" and "-session-rate <KB/s>" limit the files read from the whole server,
+        // by each client address and by each read (see TrafficShaper, they can be changed later through JMX),
+        // "-weight <address>=<n>" gives a client n times the share of a limit of the others
+        // "-log <level>" sets what is logged, "info" (default) is a line per transfer, "debug" a line per request too
+        List<String> arguments = new ArrayList<>();
+        int metricsPort = 0;
+        long serverRate = 0;
+        long clientRate = 0;
+        long sessionRate = 0;
+        for (int i = 0; i < options.length; i++) {
+            if (options[i].equals("-metrics") && i + 1 < options.length) {
+                metricsPort = Integer.parseInt(options[++i]);
+            } else if (options[i].equals("-rate") && i + 1 < options.length) {
+                serverRate = Long.parseLong(options[++i]) * 1024;
+            } else if (options[i].equals("-client-rate") && i + 1 < options.length) {
+                clientRate = Long.parseLong(options[++i]) * 1024;
+            } else if (options[i].equals("-session-rate") && i + 1 < options.length) {
+                sessionRate = Long.parseLong(options[++i]) * 1024;
+            } else if (options[i].equals("-weight") && i + 1 < options.length) {
+                TrafficShaper.parseWeight(options[++i]);
+            } else if (options[i].equals("-log") && i + 1 < options.length) {
+                Log.level = Log.Level.parse(options[++i]);
+            } else {
+                arguments.add(options[i]);
+            }
+        }
+        String[] args = arguments.toArray(new String[0]);
+        // e.g. "virtual 20000" or "pool 200 5000" (mode, [pool threads], max connections)
+        if (args.length > 0) {
+            executorMode = args[0];
+        }
+        if (executorMode.equals("pool")) {
+            if (args.length > 1) {
+                poolThreads = Integer.parseInt(args[1]);
+            }
+            if (args.length > 2) {
+                maxConnections = Integer.parseInt(args[2]);
+            }
+        } else if (args.length > 1) {
+            maxConnections = Integer.parseInt(args[1]);
+        }
+
+        ExecutorService executor = executorMode.equals("pool")
+                ? Executors.newFixedThreadPool(poolThreads)
+                : Executors.newVirtualThreadPerTaskExecutor();
+        TrafficShaper.setRates(serverRate, clientRate, sessionRate);
+        Metrics.gauge("shaper_flows", TrafficShaper::getFlows);
+        Metrics.gauge("shaper_deferred_sends", TrafficShaper::getDeferrals);
+        Metrics.registerMBean("tcp-server");
+        TrafficShaper.registerMBean("tcp-server");
+        if (metricsPort > 0) {
+            try {
+                Metrics.serveHttp(metricsPort);
+            } catch (IOException e) {
+                Log.error("Could not serve the metrics on port " + metricsPort + ": " + e.getMessage());
+            }
+        }
+
+        // one permit per connection that may be open at the same time
+        Semaphore admission = new Semaphore(maxConnections);
+
         try {
             // create a server socket with to the specified port (9000)
-            ServerSocket serverSocket = new ServerSocket(serverPort);
-            System.out.println("Server is running...");
+            // (a channel, so files can be sent to the clients' socket channels with transferTo)
+            ServerSocketChannel serverSocket = ServerSocketChannel.open();
+            serverSocket.bind(new InetSocketAddress(serverPort));
+            Log.info("Server is running (" + executorMode + " mode, up to " + maxConnections + " connections)...");
 
             while (true) {
+                // backpressure: wait for a free slot before accepting, new clients queue up in the listen backlog
+                admission.acquireUninterruptibly();
                 // accepts a new client connection
-                Socket clientSocket = serverSocket.accept();
+                SocketChannel clientSocket;
+                try {
+                    clientSocket = serverSocket.accept();
+                } catch (IOException e) {
+                    admission.release();
+                    throw e;
+                }
                 // outputs the address of the connected client, so we know which client is requesting which data
-                System.out.println("New client connected: " + clientSocket.getInetAddress().getHostAddress());
-                // starts a new thread to handle the client connection
-                new Thread(new ClientHandler(clientSocket)).start();
+                if (Log.isEnabled(Log.Level.DEBUG)) {
+                    Log.debug("New client connected: " + clientSocket.socket().getInetAddress().getHostAddress());
+                }
+                // hands the client connection to the executor, the slot is freed once the connection is closed
+                ClientHandler clientHandler = new ClientHandler(clientSocket);
+                executor.execute(() -> {
+                    try {
+                        clientHandler.run();
+                    } finally {
+                        admission.release();
+                    }
+                });
             }
         } catch (IOException e) {
             // any exceptions that occur during server operation...
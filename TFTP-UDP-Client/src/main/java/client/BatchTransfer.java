@@ -0,0 +1,139 @@
+package client;
+
+// imports that are using in this project
+import common.Log;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+// batch mode of the client, many files downloaded or uploaded by one run of the program...
+// the transfers run at the same time on a number of sessions, each transfer with its own socket (so its own TID
+// as it states in the RFC 1350), and the total throughput is printed at the end
+//
+// the files are either a manifest, "@files.txt" with one filename per line (blank lines and lines starting with #
+// are skipped), or a glob of local files such as "logs/*.txt" or "data/**.bin" (only for uploads, as the client
+// can't list the files on the server), a filename without any wildcard is a single file
+public class BatchTransfer {
+    // the result of one transfer
+    private record Result(String filename, boolean ok, long bytes) {
+    }
+
+    // method to run a batch of downloads (get) or uploads (put), returns whether every transfer succeeded
+    public static boolean run(boolean get, String files, InetAddress serverAddress, int serverPort, int sessions) throws IOException {
+        List<String> filenames = filenames(files, get);
+        if (filenames.isEmpty()) {
+            Log.error("No files to transfer for " + files);
+            return false;
+        }
+        // every transfer logs its own summary line, the per-packet lines are only there at the trace level
+        Log.info((get ? "Downloading " : "Uploading ") + filenames.size() + " files on " + sessions + " sessions...");
+
+        long start = System.nanoTime();
+        List<Future<Result>> transfers = new ArrayList<>(filenames.size());
+        // every session runs on its own virtual thread, waiting on its socket costs nothing
+        try (ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, sessions), Thread.ofVirtual().factory())) {
+            for (String filename : filenames) {
+                transfers.add(executor.submit(() -> transfer(get, filename, serverAddress, serverPort)));
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+
+        int succeeded = 0;
+        long totalBytes = 0;
+        for (Future<Result> transfer : transfers) {
+            Result result;
+            try {
+                result = transfer.get();
+            } catch (InterruptedException | ExecutionException e) {
+                throw new IOException(e);
+            }
+            if (result.ok()) {
+                succeeded++;
+                totalBytes += result.bytes();
+            } else {
+                Log.warn(result.filename() + ": transfer failed");
+            }
+        }
+
+        // output the aggregate throughput of the whole batch
+        double seconds = elapsed / 1e9;
+        Log.info(String.format("%d of %d files transferred, %d bytes in %.3f s (%.2f MB/s, %.1f files/s)",
+                succeeded, filenames.size(), totalBytes, seconds, totalBytes / seconds / (1024 * 1024), succeeded / seconds));
+        return succeeded == filenames.size();
+    }
+
+    // method to run one transfer on its own socket
+    private static Result transfer(boolean get, String filename, InetAddress serverAddress, int serverPort) {
+        boolean ok;
+        try (DatagramSocket socket = new DatagramSocket()) {
+            if (get) {
+                ByteBuffer request = TFTPUDPClient.createReadRequest(filename, TFTPUDPClient.mode, TFTPUDPClient.requestOptions());
+                ok = TFTPUDPClient.receiveFile(socket, filename, new DatagramPacket(request.array(), request.limit(), serverAddress, serverPort));
+            } else {
+                ByteBuffer request = TFTPUDPClient.createWriteRequest(filename, TFTPUDPClient.mode, TFTPUDPClient.requestOptions());
+                ok = TFTPUDPClient.sendFile(socket, filename, new DatagramPacket(request.array(), request.limit(), serverAddress, serverPort));
+            }
+        } catch (IOException e) {
+            Log.warn(filename + ": " + e.getMessage());
+            ok = false;
+        }
+        return new Result(filename, ok, ok ? new File(filename).length() : 0);
+    }
+
+    // method to turn a manifest or a glob into the list of filenames
+    static List<String> filenames(String files, boolean get) throws IOException {
+        if (files.startsWith("@")) {
+            List<String> filenames = new ArrayList<>();
+            for (String line : Files.readAllLines(Path.of(files.substring(1)))) {
+                line = line.trim();
+                if (!line.isEmpty() && !line.startsWith("#")) {
+                    filenames.add(line);
+                }
+            }
+            return filenames;
+        }
+        int wildcard = firstWildcard(files);
+        if (wildcard < 0) {
+            return List.of(files);
+        }
+        if (get) {
+            throw new IOException("A glob can only be used to upload local files, use a manifest (@file) to download");
+        }
+        // the directory the glob starts from is the part before the first wildcard
+        int separator = files.lastIndexOf('/', wildcard);
+        Path base = Path.of(separator < 0 ? "." : files.substring(0, separator + 1));
+        PathMatcher matcher = base.getFileSystem().getPathMatcher("glob:" + files.substring(separator + 1));
+        try (Stream<Path> paths = Files.walk(base)) {
+            return paths.filter(Files::isRegularFile)
+                    .filter(path -> matcher.matches(base.relativize(path)))
+                    .map(path -> separator < 0 ? base.relativize(path).toString() : path.toString())
+                    .sorted()
+                    .toList();
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    private static int firstWildcard(String glob) {
+        for (int i = 0; i < glob.length(); i++) {
+            if ("*?[{".indexOf(glob.charAt(i)) >= 0) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,257 @@
+package client;
+
+// imports that are using in this project
+import common.BufferPool;
+import common.Log;
+import common.PacketCodec;
+import common.RetransmitTimer;
+import common.WriteBuffer;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.MulticastSocket;
+import java.net.NetworkInterface;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.util.BitSet;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// the client side of a file sent to a multicast group (RFC 2090)...
+// the server answers the multicast option with the group in its OACK, e.g. "multicast" "239.255.42.69,1758,0",
+// and sends the DATA packets to the group, so they arrive from wherever the server is in the file when the client
+// joins and a block missed once comes around again later
+// every block is written at its own offset in the file and the blocks received are kept in a BitSet, the file is
+// complete once every block up to the last (short) one has arrived
+// a block that arrives ahead of a missing one is held for a while (as in the ReorderBuffer), the missing block is
+// often only late, and the buffer is moved to another offset only when a gap really has to be skipped
+//
+// only the master client (the last number in the OACK is 1) acknowledges the DATA packets, with the last block it
+// has in order as for a unicast window (RFC 7440), the others only listen until the server makes them the master
+// with an OACK of "multicast" ",,1" sent to their own port, or until they have the whole file
+public class MulticastDownload {
+    // how often the client looks at the packets sent to its own port while it waits for the group
+    private static final int POLL_INTERVAL = 100;
+
+    private MulticastDownload() {
+    }
+
+    // method to receive the file from the group named in the OACK and write it to out, returns whether the whole
+    // file was received
+    public static boolean receive(DatagramSocket clientSocket, WriteBuffer out, InetAddress serverAddress, int serverPort, Map<String, String> acceptedOptions, RetransmitTimer timer) throws IOException {
+        String[] multicast = acceptedOptions.get("multicast").split(",", -1);
+        InetSocketAddress groupAddress;
+        try {
+            groupAddress = new InetSocketAddress(InetAddress.getByName(multicast[0].trim()), Integer.parseInt(multicast[1].trim()));
+        } catch (IOException | NumberFormatException | ArrayIndexOutOfBoundsException e) {
+            // as it states in the RFC 2347, the client ends the transfer with error 8 if it can't accept the OACK
+            TFTPUDPClient.sendErrorMessage(clientSocket, serverAddress, serverPort, (short) 8, "Multicast option not understood");
+            return false;
+        }
+        boolean master = multicast.length > 2 && multicast[2].trim().equals("1");
+        int blockSize = TFTPUDPClient.negotiatedBlockSize(acceptedOptions);
+        int windowSize = TFTPUDPClient.negotiatedWindowSize(acceptedOptions);
+
+        // blocks received but not written yet, in block order, they are ahead of a block that is still missing
+        TreeMap<Integer, ByteBuffer> pending = new TreeMap<>();
+        // blocks received, the last block with every block before it received, and the final (short) block once seen
+        BitSet received = new BitSet();
+        int inOrder = 0;
+        int lastBlock = 0;
+        long fileSize = 0;
+        // number of DATA packets since the last acknowledgment, and whether a gap has been acknowledged already
+        int packetsSinceAck = 0;
+        boolean gapAcked = false;
+
+        // acknowledgments go to the server's TID, as in a unicast transfer
+        ByteBuffer ackData = ByteBuffer.allocate(PacketCodec.DATA_HEADER_SIZE);
+        DatagramPacket ackPacket = new DatagramPacket(ackData.array(), ackData.capacity(), serverAddress, serverPort);
+        ByteBuffer receiveData = ByteBuffer.allocate(blockSize + PacketCodec.DATA_HEADER_SIZE);
+        DatagramPacket receivePacket = new DatagramPacket(receiveData.array(), receiveData.capacity());
+
+        // the packets sent to the client's own port (an OACK making it the master, or an ERROR) are read by a thread
+        // of their own, so the group is never left unread while the client waits for them
+        LinkedBlockingQueue<ByteBuffer> fromServer = new LinkedBlockingQueue<>();
+        AtomicBoolean listening = new AtomicBoolean(true);
+        Thread listener = Thread.ofVirtual().name("multicast-listener").start(() -> listen(clientSocket, fromServer, listening));
+
+        try (MulticastSocket groupSocket = new MulticastSocket(groupAddress.getPort())) {
+            groupSocket.joinGroup(groupAddress, TFTPUDPClient.multicastInterface == null ? null : NetworkInterface.getByName(TFTPUDPClient.multicastInterface));
+            Log.debug("Joined multicast group " + groupAddress + (master ? " as the master" : ""));
+            if (master) {
+                // as it states in the RFC 2347, the OACK is acknowledged with ACK 0
+                TFTPUDPClient.sendAck(clientSocket, ackData, ackPacket, inOrder);
+            }
+            long waitingSince = System.nanoTime();
+            int attempts = 0;
+            while (true) {
+                ByteBuffer packet;
+                while ((packet = fromServer.poll()) != null) {
+                    int opcode = PacketCodec.opcode(packet);
+                    if (opcode == PacketCodec.ERROR) {
+                        TFTPUDPClient.printError(packet);
+                        return false;
+                    }
+                    if (opcode == PacketCodec.OACK && PacketCodec.decodeOptionAck(packet).getOrDefault("multicast", "").endsWith(",1")) {
+                        // the client is the master now, the server continues from the first block it is missing
+                        Log.debug("Master client of the multicast group now, " + inOrder + " blocks in order");
+                        master = true;
+                        packetsSinceAck = 0;
+                        TFTPUDPClient.sendAck(clientSocket, ackData, ackPacket, inOrder);
+                    }
+                }
+
+                try {
+                    groupSocket.setSoTimeout(POLL_INTERVAL);
+                    receivePacket.setLength(receiveData.capacity());
+                    groupSocket.receive(receivePacket);
+                } catch (SocketTimeoutException e) {
+                    if (System.nanoTime() - waitingSince < timer.getTimeout() * 1_000_000L) {
+                        continue;
+                    }
+                    timer.onTimeout();
+                    waitingSince = System.nanoTime();
+                    // a client that isn't the master waits longer, the server first gives up on a master that vanished
+                    if (++attempts > (master ? TFTPUDPClient.maxRetries : 2 * TFTPUDPClient.maxRetries)) {
+                        Log.warn("Giving up after " + attempts + " timeouts waiting for the multicast group.");
+                        return false;
+                    }
+                    if (master) {
+                        // the acknowledgment is sent again
+                        TFTPUDPClient.sendAck(clientSocket, ackData, ackPacket, inOrder);
+                    }
+                    continue;
+                }
+                waitingSince = System.nanoTime();
+                attempts = 0;
+
+                receiveData.clear().limit(receivePacket.getLength());
+                if (receiveData.remaining() < PacketCodec.DATA_HEADER_SIZE || PacketCodec.opcode(receiveData) != PacketCodec.DATA) {
+                    continue;
+                }
+                int block = PacketCodec.blockNumber(receiveData);
+                if (block == 0) {
+                    continue;
+                }
+                if (!received.get(block)) {
+                    int dataLength = PacketCodec.dataLength(receiveData);
+                    long offset = (long) (block - 1) * blockSize;
+                    PacketCodec.skipDataHeader(receiveData);
+                    int nextBlock = (int) (out.position() / blockSize) + 1;
+                    if (offset > out.position() && received.nextClearBit(nextBlock) < block) {
+                        // a block before this one is missing, it may only be late, so the block is held
+                        if (pending.size() >= TFTPUDPClient.reorderBlocks) {
+                            // no room left, the gap is skipped
+                            writePending(out, pending, blockSize);
+                        }
+                        if (TFTPUDPClient.reorderBlocks > 0) {
+                            pending.put(block, BufferPool.acquire(blockSize).put(receiveData).flip());
+                        } else {
+                            writeBlock(out, block, blockSize, receiveData);
+                        }
+                    } else {
+                        writeBlock(out, block, blockSize, receiveData);
+                        // the held blocks that follow on from it
+                        ByteBuffer next;
+                        while ((next = pending.remove((int) (out.position() / blockSize) + 1)) != null) {
+                            out.write(next);
+                            BufferPool.release(next);
+                        }
+                    }
+                    received.set(block);
+                    // as it states in the RFC 1350, a DATA packet with less than a full block is the last one
+                    if (dataLength < blockSize) {
+                        lastBlock = block;
+                        fileSize = offset + dataLength;
+                    }
+                    if (Log.isEnabled(Log.Level.TRACE)) {
+                        Log.trace("Received Multicast Data Packet " + block);
+                    }
+                }
+                packetsSinceAck++;
+
+                int previousInOrder = inOrder;
+                inOrder = received.nextClearBit(inOrder + 1) - 1;
+                boolean complete = lastBlock != 0 && inOrder >= lastBlock;
+                if (master) {
+                    if (inOrder > previousInOrder) {
+                        gapAcked = false;
+                    }
+                    // the window is acknowledged once it has arrived, and a gap once (as for a unicast window)
+                    if (complete || packetsSinceAck >= windowSize || (block > inOrder + 1 && !gapAcked)) {
+                        gapAcked = block > inOrder + 1;
+                        packetsSinceAck = 0;
+                        TFTPUDPClient.sendAck(clientSocket, ackData, ackPacket, inOrder);
+                    }
+                } else if (complete) {
+                    // the ACK of the last block tells the server the client has left the group
+                    TFTPUDPClient.sendAck(clientSocket, ackData, ackPacket, lastBlock);
+                }
+
+                if (complete) {
+                    writePending(out, pending, blockSize);
+                    // the buffer is moved to the end of the file, which is where the file is cut when it is completed
+                    out.flush();
+                    out.reset(fileSize);
+                    return true;
+                }
+            }
+        } finally {
+            pending.values().forEach(BufferPool::release);
+            listening.set(false);
+            try {
+                listener.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    // method to write a block at its own offset, the buffer only has to move when the block doesn't follow the one
+    // written before it
+    private static void writeBlock(WriteBuffer out, int block, int blockSize, ByteBuffer data) throws IOException {
+        long offset = (long) (block - 1) * blockSize;
+        if (out.position() != offset) {
+            out.flush();
+            out.reset(offset);
+        }
+        out.write(data);
+    }
+
+    // method to write every held block, lowest first, the buffer moves once for each run of blocks that follow on
+    // from each other
+    private static void writePending(WriteBuffer out, TreeMap<Integer, ByteBuffer> pending, int blockSize) throws IOException {
+        Map.Entry<Integer, ByteBuffer> held;
+        while ((held = pending.pollFirstEntry()) != null) {
+            writeBlock(out, held.getKey(), blockSize, held.getValue());
+            BufferPool.release(held.getValue());
+        }
+    }
+
+    // method run by the listener thread, puts the packets sent to the client's port in the queue until the
+    // transfer is over
+    private static void listen(DatagramSocket clientSocket, LinkedBlockingQueue<ByteBuffer> fromServer, AtomicBoolean listening) {
+        byte[] data = new byte[PacketCodec.MAX_REQUEST_SIZE];
+        DatagramPacket packet = new DatagramPacket(data, data.length);
+        try {
+            clientSocket.setSoTimeout(POLL_INTERVAL);
+            while (listening.get()) {
+                try {
+                    packet.setLength(data.length);
+                    clientSocket.receive(packet);
+                } catch (SocketTimeoutException e) {
+                    continue;
+                }
+                if (packet.getLength() >= PacketCodec.DATA_HEADER_SIZE) {
+                    fromServer.add(ByteBuffer.wrap(data.clone(), 0, packet.getLength()));
+                }
+            }
+        } catch (IOException e) {
+            // the socket was closed, the transfer is over
+        }
+    }
+}
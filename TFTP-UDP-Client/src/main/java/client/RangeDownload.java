@@ -0,0 +1,151 @@
+package client;
+
+// imports that are using in this project
+import common.Checkpoint;
+import common.Log;
+import common.PacketCodec;
+import common.RetransmitTimer;
+import common.WriteBuffer;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+// a single large download split over several sessions at once...
+// one session waits for an acknowledgment every window, so it can't fill a fast link on its own however big the
+// blocks are, instead the file is split in ranges of whole blocks and every range is fetched by a session of its
+// own (own socket, own TID) with the range option, each session writing its data at its own position of the file
+// (the part file, see Checkpoint, which is given its real name once every range has arrived)
+//
+// the size of the file is asked for first with the tsize option (RFC 2349), a server that doesn't answer it (or
+// doesn't accept the range option) gets a normal single session download
+public class RangeDownload {
+    // result of asking for the size of the file when the server doesn't support the tsize option
+    private static final long SIZE_UNKNOWN = -1;
+    // result of asking for the size of the file when the file can't be read (the error has been output)
+    private static final long SIZE_ERROR = -2;
+
+    // method to download the file asked for in requestPacket over the given number of sessions
+    public static boolean download(DatagramSocket clientSocket, String filename, DatagramPacket requestPacket, int streams) throws IOException {
+        InetAddress serverAddress = requestPacket.getAddress();
+        int serverPort = requestPacket.getPort();
+        String remoteFilename = PacketCodec.decodeRequest(ByteBuffer.wrap(requestPacket.getData(), requestPacket.getOffset(), requestPacket.getLength())).filename();
+
+        long fileSize = fileSize(clientSocket, remoteFilename, serverAddress, serverPort);
+        if (fileSize == SIZE_ERROR) {
+            return false;
+        }
+        // ranges are a whole number of blocks, and a file of less than a block per session isn't worth splitting
+        long rangeSize = (fileSize / streams / TFTPUDPClient.blockSize + 1) * TFTPUDPClient.blockSize;
+        if (fileSize == SIZE_UNKNOWN || fileSize < (long) streams * TFTPUDPClient.blockSize) {
+            Log.debug("Downloading " + remoteFilename + " over a single session...");
+            // a new socket, so a late answer to the size request can't be taken for the start of the download
+            try (DatagramSocket socket = new DatagramSocket()) {
+                return TFTPUDPClient.receiveFile(socket, filename, requestPacket, 1);
+            }
+        }
+
+        int ranges = (int) ((fileSize + rangeSize - 1) / rangeSize);
+        Log.debug("Downloading " + remoteFilename + " (" + fileSize + " bytes) over " + ranges + " sessions...");
+        long start = System.nanoTime();
+        boolean received = true;
+        // the file is given its full size first, the sessions then fill it in at their own positions
+        Checkpoint checkpoint = Checkpoint.start(filename);
+        try (WriteBuffer out = checkpoint.open(fileSize)) {
+            FileChannel fileChannel = out.channel();
+            List<Future<Boolean>> sessions = new ArrayList<>(ranges);
+            try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+                for (int i = 0; i < ranges; i++) {
+                    long rangeStart = i * rangeSize;
+                    long rangeEnd = Math.min(rangeStart + rangeSize, fileSize);
+                    sessions.add(executor.submit(() -> receiveRange(fileChannel, remoteFilename, rangeStart, rangeEnd, serverAddress, serverPort)));
+                }
+            }
+            for (Future<Boolean> session : sessions) {
+                try {
+                    received &= session.get();
+                } catch (InterruptedException | ExecutionException e) {
+                    Log.warn("Error receiving range: " + e.getMessage());
+                    received = false;
+                }
+            }
+            if (received) {
+                checkpoint.complete(fileChannel, fileSize, filename);
+            }
+        }
+        // one line for the whole transfer, with the throughput of all sessions together
+        TFTPUDPClient.logSummary(serverAddress, "RRQ", filename, received, received ? fileSize : 0, start);
+        if (!received) {
+            // deletes the created file, the ranges that did arrive are no use on their own
+            checkpoint.discard();
+            return false;
+        }
+        return true;
+    }
+
+    // method to fetch the bytes from rangeStart up to rangeEnd on a session of its own
+    private static boolean receiveRange(FileChannel fileChannel, String remoteFilename, long rangeStart, long rangeEnd, InetAddress serverAddress, int serverPort) throws IOException {
+        Map<String, String> options = TFTPUDPClient.requestOptions();
+        options.put("range", rangeStart + "-" + rangeEnd);
+        ByteBuffer request = TFTPUDPClient.createReadRequest(remoteFilename, TFTPUDPClient.mode, options);
+        // every range has a buffer of its own in front of the shared file
+        try (DatagramSocket socket = new DatagramSocket()) {
+            WriteBuffer out = new WriteBuffer(fileChannel, rangeStart);
+            return TFTPUDPClient.receiveData(socket, out, new DatagramPacket(request.array(), request.limit(), serverAddress, serverPort), "range", null);
+        }
+    }
+
+    // method to ask the server for the size of a file, a RRQ with the tsize option that is ended as soon as the
+    // server answers (as it states in the RFC 2349, a client can use tsize to find out the size before a transfer)
+    private static long fileSize(DatagramSocket clientSocket, String remoteFilename, InetAddress serverAddress, int serverPort) throws IOException {
+        ByteBuffer request = TFTPUDPClient.createReadRequest(remoteFilename, TFTPUDPClient.mode, Map.of("tsize", "0"));
+        DatagramPacket requestPacket = new DatagramPacket(request.array(), request.limit(), serverAddress, serverPort);
+        ByteBuffer responseData = ByteBuffer.allocate(PacketCodec.MAX_BLOCK_SIZE + PacketCodec.DATA_HEADER_SIZE);
+        DatagramPacket responsePacket = new DatagramPacket(responseData.array(), responseData.capacity());
+
+        // sends the request, again after every timeout
+        RetransmitTimer timer = new RetransmitTimer();
+        int attempts = 0;
+        while (true) {
+            clientSocket.send(requestPacket);
+            try {
+                clientSocket.setSoTimeout(timer.getTimeout());
+                clientSocket.receive(responsePacket);
+                break;
+            } catch (SocketTimeoutException e) {
+                timer.onTimeout();
+                if (++attempts > TFTPUDPClient.maxRetries) {
+                    Log.warn("Timeout: Did not receive expected packet from server.");
+                    return SIZE_ERROR;
+                }
+            }
+        }
+
+        responseData.clear().limit(responsePacket.getLength());
+        int opcode = PacketCodec.opcode(responseData);
+        if (opcode == PacketCodec.ERROR) {
+            TFTPUDPClient.printError(responseData);
+            return SIZE_ERROR;
+        }
+        long fileSize = SIZE_UNKNOWN;
+        if (opcode == PacketCodec.OACK) {
+            String tsize = PacketCodec.decodeOptionAck(responseData).get("tsize");
+            if (tsize != null) {
+                fileSize = Long.parseLong(tsize.trim());
+            }
+        }
+        // the transfer isn't wanted, as it states in the RFC 2347 the OACK is declined with error 8
+        TFTPUDPClient.sendErrorMessage(clientSocket, responsePacket.getAddress(), responsePacket.getPort(), (short) 8, "Only the size was needed");
+        return fileSize;
+    }
+}
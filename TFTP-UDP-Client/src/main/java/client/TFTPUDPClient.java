@@ -1,13 +1,23 @@
 package client;
 
 // imports that are using in this project
+import common.Checkpoint;
+import common.Log;
+import common.PacketCodec;
+import common.ReadAhead;
+import common.ReorderBuffer;
+import common.RetransmitTimer;
+import common.SackScoreboard;
+import common.WriteBuffer;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.net.DatagramPacket;
 import java.net.DatagramSocket;
 import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Scanner;
 import java.net.SocketTimeoutException;
 
@@ -17,18 +27,93 @@ public class TFTPUDPClient {
 
     // as the requirements says, Transfer mode is always set to octet
     public static String mode = "octet";
-    // as the requirements says, packet size will be 512 (excluding headers)
-    public static int MAX_BYTES = 512;
-    public static int RRQ = 1;
-    public static int WRQ = 2;
-    public static int DATA = 3;
-    public static int ACK = 4;
-    public static int  ERROR = 5;
 
-    // timeout set to 60 seconds
-    public static int TIMEOUT = 60000;
+    // block size asked for with the blksize option (RFC 2348), change with "-blksize <n>" on the command line
+    // 1428 fits a DATA packet in a standard 1500 byte Ethernet frame, use up to 65464 on loopback or jumbo frames
+    // the server may answer with a smaller one, and servers without option support fall back to 512
+    public static int blockSize = 1428;
+    // number of DATA packets in flight asked for with the windowsize option (RFC 7440), change with "-windowsize <n>"
+    public static int windowSize = 16;
+    // retransmission timeout in seconds asked for with the timeout option (RFC 2349), change with "-timeout <n>"
+    // 0 doesn't ask for one, and the timeout then adapts to the measured round trip time (see RetransmitTimer)
+    public static int timeoutOption = 0;
+    // how many timeouts in a row a transfer survives before giving up, change with "-retries <n>"
+    public static int maxRetries = 8;
+    // number of transfers run at the same time in batch mode, change with "-sessions <n>"
+    public static int sessions = 8;
+    // number of sessions a single download is split over, change with "-streams <n>" (see RangeDownload)
+    public static int streams = 1;
+    // whether interrupted transfers are resumed, turned on with "-resume"
+    // a download is written as "<file>.part" with a checkpoint (see Checkpoint) and continues from it next time,
+    // an upload asks the server where its part file ends and sends the rest
+    public static boolean resume = false;
+    // whether downloads ask to be sent to a multicast group with the other clients of the same file (RFC 2090),
+    // turned on with "-multicast", and the network interface the group is joined on ("-multicast-if <name>")
+    public static boolean multicast = false;
+    public static String multicastInterface = null;
+    // most blocks of a download held ahead of a missing one (see ReorderBuffer), asked for with the sack option so
+    // the server only sends the missing blocks again, change with "-reorder <n>" (0 doesn't ask for the option)
+    public static int reorderBlocks = 64;
+    // what the block number goes back to after 65535, 0 (what servers do without the rollover option) or 1, asked
+    // for with the rollover option, change with "-rollover <n>"
+    public static int rollover = 0;
 
     public static void main(String[] args) {
+        // files to download or upload without asking, see BatchTransfer
+        String batchGet = null;
+        String batchPut = null;
+        // command line options, e.g. "-blksize 8192 -windowsize 32 -resume"
+        // "-log <level>" sets what is logged, "info" (default) is a line per transfer, "trace" is a line per packet
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-resume")) {
+                resume = true;
+            } else if (args[i].equals("-multicast")) {
+                multicast = true;
+            } else if (i + 1 >= args.length) {
+                break;
+            } else if (args[i].equals("-blksize")) {
+                blockSize = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("-windowsize")) {
+                windowSize = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("-timeout")) {
+                timeoutOption = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("-retries")) {
+                maxRetries = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("-reorder")) {
+                reorderBlocks = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("-rollover")) {
+                rollover = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("-streams")) {
+                streams = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("-sessions")) {
+                sessions = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("-get")) {
+                batchGet = args[++i];
+            } else if (args[i].equals("-put")) {
+                batchPut = args[++i];
+            } else if (args[i].equals("-multicast-if")) {
+                multicastInterface = args[++i];
+            } else if (args[i].equals("-log")) {
+                Log.level = Log.Level.parse(args[++i]);
+            }
+        }
+
+        // batch mode, e.g. "-get @files.txt -sessions 16" or "-put 'logs/*.txt'"
+        if (batchGet != null || batchPut != null) {
+            try {
+                InetAddress serverAddress = InetAddress.getByName("localhost");
+                boolean getOk = batchGet == null || BatchTransfer.run(true, batchGet, serverAddress, serverPort, sessions);
+                boolean putOk = batchPut == null || BatchTransfer.run(false, batchPut, serverAddress, serverPort, sessions);
+                if (!getOk || !putOk) {
+                    System.exit(1);
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+                System.exit(1);
+            }
+            return;
+        }
+
         try {
             // datagramSocket to send packets
             DatagramSocket clientSocket = new DatagramSocket();
@@ -36,8 +121,6 @@ public class TFTPUDPClient {
             // server address is local host
             InetAddress serverAddress = InetAddress.getByName("localhost");
 
-            clientSocket.setSoTimeout(TIMEOUT);
-
             // as the requirement says, options for the user to read or write a file
             System.out.println("Select an option:");
             System.out.println("1. Retrieve a file");
@@ -56,17 +139,16 @@ public class TFTPUDPClient {
                     String readFilename = scanner.nextLine();
 
                     // method to create read request packet
-                    byte[] readRequestData = createReadRequest(readFilename, mode);
+                    ByteBuffer readRequestData = createReadRequest(readFilename, mode, requestOptions());
 
                     // datagramPacket to send the read request to the server
-                    DatagramPacket readSendPacket = new DatagramPacket(readRequestData, readRequestData.length, serverAddress, serverPort);
-
-                    // send the read request packet to the server
-                    clientSocket.send(readSendPacket);
-
-                    // method to handle Read (Downloads the file content)
-                    receiveFile(clientSocket, readFilename);
+                    DatagramPacket readSendPacket = new DatagramPacket(readRequestData.array(), readRequestData.limit(), serverAddress, serverPort);
 
+                    // method to handle Read (sends the read request and downloads the file content)
+                    if (!receiveFile(clientSocket, readFilename, readSendPacket)) {
+                        clientSocket.close();
+                        System.exit(1);
+                    }
                     break;
                 // write file option
                 case "2":
@@ -76,48 +158,20 @@ public class TFTPUDPClient {
                     String writeFilename = scanner.nextLine();
 
                     // method to create write request packet
-                    byte[] writeRequestData = createWriteRequest(writeFilename, mode);
+                    ByteBuffer writeRequestData = createWriteRequest(writeFilename, mode, requestOptions());
 
                     // datagramPacket to send the write request to the server
-                    DatagramPacket writeSendPacket = new DatagramPacket(writeRequestData, writeRequestData.length, serverAddress, serverPort);
-
-                    // sends the write request packet to the server
-                    clientSocket.send(writeSendPacket);
-
-                    // wait for acknowledgment packet from the server
-                    // acknowledgment packets are 4 bytes
-                    byte[] ackData = new byte[4];
-                    DatagramPacket ackPacket = new DatagramPacket(ackData, ackData.length);
-
-                    try {
-                        clientSocket.receive(ackPacket);
-                    } catch (SocketTimeoutException e) {
-                        // if the client doesn't receive any acknowledgment packet from the server...
-                        System.err.println("Timeout: Did not receive acknowledgment from server.");
-                        return;
-                    }
+                    DatagramPacket writeSendPacket = new DatagramPacket(writeRequestData.array(), writeRequestData.limit(), serverAddress, serverPort);
 
-                    // extract the opcode from the acknowledgment packet
-                    short opcode = (short) (((ackData[0] & 0xFF) << 8) | (ackData[1] & 0xFF));
-
-                    // check if it's an acknowledgment packet
-                    if (opcode == ACK) {
-                        System.out.println("Acknowledgment received from server. Attempting to send file data...");
-                        // method to handle Write (sends the file to the server)
-                        // extract the server address and port from the acknowledgment packet
-                        InetAddress serverAddressAck = ackPacket.getAddress();
-                        int serverPortAck = ackPacket.getPort();
-
-                        // method to handle Write (sends the file to the server)
-                        sendFile(clientSocket, writeFilename, serverAddressAck, serverPortAck);
-                    } else {
-                        // an output error message if an unexpected error occurs...
-                        System.err.println("Unexpected response received from server.");
+                    // method to handle Write (sends the write request and uploads the file content)
+                    if (!sendFile(clientSocket, writeFilename, writeSendPacket)) {
+                        clientSocket.close();
+                        System.exit(1);
                     }
                     break;
                 // an output error message if the user enters any invalid options
                 default:
-                    System.err.println("Invalid option.");
+                    Log.error("Invalid option.");
             }
 
             // close the socket
@@ -127,91 +181,419 @@ public class TFTPUDPClient {
         }
     }
 
-    // method to handle Reading (Downloads the file content)
-    public static void receiveFile(DatagramSocket clientSocket, String filename) throws IOException {
-        // opens the FileOutputStream
-        FileOutputStream fileOutputStream = new FileOutputStream(filename);
+    // method to handle Reading (sends the read request and downloads the file content)
+    // returns whether the whole file was received, the file is deleted if it wasn't (kept to resume with -resume)
+    public static boolean receiveFile(DatagramSocket clientSocket, String filename, DatagramPacket requestPacket) throws IOException {
+        return receiveFile(clientSocket, filename, requestPacket, streams);
+    }
+
+    // method to download a file over the given number of sessions at once
+    public static boolean receiveFile(DatagramSocket clientSocket, String filename, DatagramPacket requestPacket, int streams) throws IOException {
+        // with "-streams <n>" the file is downloaded over several sessions at once, each fetching a range of it
+        if (streams > 1) {
+            return RangeDownload.download(clientSocket, filename, requestPacket, streams);
+        }
+        long startedAt = System.nanoTime();
+        // the file is written as "<file>.part" and only given its real name once it is complete (see Checkpoint),
+        // with -resume it continues from the checkpoint of an earlier attempt
+        Checkpoint checkpoint = resume ? Checkpoint.load(filename) : Checkpoint.start(filename);
+        if (checkpoint.offset() > 0) {
+            // the server is asked for the rest of the file
+            requestPacket = withOption(requestPacket, "resume", String.valueOf(checkpoint.offset()));
+            Log.info("Resuming " + filename + " from byte " + checkpoint.offset());
+        }
+        long resumedFrom = checkpoint.offset();
+        // as it states in the RFC 2349, a tsize of 0 asks the server for the size of the file, so the part file can
+        // be given its full size before the data arrives
+        requestPacket = withOption(requestPacket, "tsize", "0");
+        if (multicast) {
+            // as it states in the RFC 2090, the multicast option is sent without a value
+            requestPacket = withOption(requestPacket, "multicast", "");
+        }
+        boolean received;
+        long bytesReceived;
+        try (WriteBuffer out = checkpoint.open(-1)) {
+            received = receiveData(clientSocket, out, requestPacket, null, resume ? checkpoint : null);
+            bytesReceived = Math.max(0, out.position() - resumedFrom);
+            if (received) {
+                checkpoint.complete(out, filename);
+            } else if (resume) {
+                checkpoint.keep(out);
+            }
+        }
+        // one line for the whole transfer, successful or not
+        logSummary(requestPacket.getAddress(), "RRQ", filename, received, bytesReceived, startedAt);
+        if (!received) {
+            if (resume && checkpoint.offset() > 0) {
+                Log.warn("Kept " + checkpoint.offset() + " bytes in " + checkpoint.partFile() + ", run again with -resume to continue.");
+            } else {
+                // deletes the created file
+                checkpoint.discard();
+            }
+            return false;
+        }
+        return true;
+    }
+
+    // method to log the summary line of a transfer, e.g. "127.0.0.1: RRQ big.bin completed, 10485760 bytes in 412 ms (24.27 MB/s)"
+    static void logSummary(InetAddress server, String requestType, String filename, boolean completed, long bytes, long startedAt) {
+        if (Log.isEnabled(Log.Level.INFO)) {
+            Log.info(Log.summary(server.getHostAddress(), requestType, filename, completed, bytes, System.nanoTime() - startedAt));
+        }
+    }
+
+    // method to download the data answering requestPacket and write it to out from its position onwards
+    // a requiredOption is an option the server has to accept in its OACK (e.g. "range"), the transfer is
+    // abandoned if it doesn't, returns whether the whole data was received
+    // with a checkpoint the data is checkpointed every few megabytes, and if the server doesn't accept the resume
+    // option the data is received again from the start of the file
+    public static boolean receiveData(DatagramSocket clientSocket, WriteBuffer out, DatagramPacket requestPacket, String requiredOption, Checkpoint checkpoint) throws IOException {
         // variables to use later on
-        int blockNumber = 0;
         InetAddress senderAddress = null;
         int senderPort = 0;
+        // block size and window size in use, 512 and 1 unless the server accepts the options with an OACK
+        int negotiatedBlockSize = PacketCodec.DEFAULT_BLOCK_SIZE;
+        int negotiatedWindowSize = 1;
+        // the blocks received, written to out in order (created with the first DATA packet, once the block size is
+        // known), how many blocks it holds out of order and whether the server agreed to the sack option
+        ReorderBuffer reorder = null;
+        int negotiatedReorderBlocks = 0;
+        boolean selectiveAcks = false;
+        // the block number after 65535
+        int negotiatedRollover = 0;
+        // last block acknowledged and number of blocks received since then
+        long ackedUpTo = 0;
+        int blocksSinceAck = 0;
+        // set once an acknowledgment has been sent for a gap in the window, so a burst of out-of-order packets only causes one
+        boolean gapAcked = false;
+        // retransmission timer, and when the last acknowledgment (or the request) was sent and whether it was sent again
+        // the time until the next DATA packet arrives is a round trip
+        RetransmitTimer timer = new RetransmitTimer();
+        long lastAckSentAt = System.nanoTime();
+        boolean lastAckResent = false;
+        // number of timeouts in a row
+        int attempts = 0;
+        // set once the server has answered the options with an OACK
+        boolean optionAckReceived = false;
+        // set once the file has been started again from the beginning (the server didn't resume), only done once
+        // before the first block is written, a duplicate OACK or the next DATA packets leave the file alone
+        boolean restarted = false;
+
+        // buffer to receive response from the server, reused for every packet
+        // big enough for the block size that was requested + 4 bytes of header
+        ByteBuffer receiveData = ByteBuffer.allocate(Math.max(blockSize, PacketCodec.DEFAULT_BLOCK_SIZE) + PacketCodec.DATA_HEADER_SIZE);
+
+        // datagramPacket to receive the file data from the server
+        DatagramPacket receivePacket = new DatagramPacket(receiveData.array(), receiveData.capacity());
+
+        // the acknowledgment packet, rewritten for every ACK sent (big enough for a selective ACK)
+        ByteBuffer ackData = ByteBuffer.allocate(PacketCodec.MAX_REQUEST_SIZE);
+        DatagramPacket ackPacket = new DatagramPacket(ackData.array(), ackData.capacity());
+
+        // send the read request packet to the server
+        clientSocket.send(requestPacket);
 
         while (true) {
-            // byte array to receive response from the server
-            // set buffer size to maximum packet size + 4 as we are receiving DatagramPackets size 516...
-            byte[] receiveData = new byte[MAX_BYTES + 4];
-
-            // datagramPacket to receive the file data from the server
-            DatagramPacket receivePacket = new DatagramPacket(receiveData, receiveData.length);
+            receivePacket.setLength(receiveData.capacity());
 
             try {
                 // receive a packet from the server
+                clientSocket.setSoTimeout(timer.getTimeout());
                 clientSocket.receive(receivePacket);
             } catch (SocketTimeoutException e) {
-                System.err.println("Timeout: Did not receive expected packet from server.");
+                Log.debug("Timeout: Did not receive expected packet from server.");
+                timer.onTimeout();
+                if (++attempts > maxRetries) {
+                    Log.warn("Giving up after " + maxRetries + " timeouts.");
+                    return false;
+                }
                 // handle timeout exception
-                // retransmit the previous acknowledgment packet
-                // structure of the ACK Packet as mentioned in the RFC1350
-                // 2 bytes     2 bytes
-                //  ---------------------
-                // | Opcode |   Block #  |
-                //  ---------------------
+                // retransmit the previous acknowledgment packet (or the request if the server hasn't answered yet)
+                lastAckResent = true;
                 if (senderAddress != null && senderPort != 0) {
-                    byte[] ackPacketData = {0, 4, (byte) ((blockNumber) >> 8), (byte) ((blockNumber) & 0xFF)};
-                    DatagramPacket ackPacketRetransmit = new DatagramPacket(ackPacketData, ackPacketData.length, senderAddress, senderPort);
-                    clientSocket.send(ackPacketRetransmit);
-                    System.out.println("Retransmitted Acknowledgment for Data Packet " + blockNumber);
+                    sendAck(clientSocket, ackData, ackPacket, reorder, selectiveAcks);
+                    if (Log.isEnabled(Log.Level.TRACE)) {
+                        Log.trace("Retransmitted Acknowledgment for Data Packet " + ackedUpTo);
+                    }
+                } else {
+                    clientSocket.send(requestPacket);
                 }
                 continue;
             }
+            attempts = 0;
 
             // if it's the first packet, extract sender's address and port
             if (senderAddress == null) {
                 senderAddress = receivePacket.getAddress();
                 senderPort = receivePacket.getPort();
+                // as it states in the RFC 1350, the rest of the transfer goes to the server's TID
+                ackPacket.setAddress(senderAddress);
+                ackPacket.setPort(senderPort);
+            } else if (!isFromServer(clientSocket, receivePacket, senderAddress, senderPort)) {
+                continue;
             }
+            receiveData.clear().limit(receivePacket.getLength());
+            if (receiveData.remaining() < PacketCodec.DATA_HEADER_SIZE) {
+                continue;
+            }
+            int opcode = PacketCodec.opcode(receiveData);
             // check if the received packet is an error packet
-            if (receiveData[1] == ERROR) {
-                // close FileOutputStream
-                fileOutputStream.close();
-                // method to handle error packet
-                handleError(clientSocket, receivePacket.getData(), receivePacket.getLength(), filename);
+            if (opcode == PacketCodec.ERROR) {
+                // method to output the error packet
+                printError(receiveData);
+                return false;
+            }
+            // check if the server accepted the options with an option acknowledgment
+            if (opcode == PacketCodec.OACK) {
+                Map<String, String> acceptedOptions = PacketCodec.decodeOptionAck(receiveData);
+                optionAckReceived = true;
+                negotiatedBlockSize = negotiatedBlockSize(acceptedOptions);
+                negotiatedWindowSize = negotiatedWindowSize(acceptedOptions);
+                negotiatedReorderBlocks = negotiatedReorderBlocks(acceptedOptions);
+                selectiveAcks = acceptedOptions.containsKey("sack");
+                negotiatedRollover = negotiatedRollover(acceptedOptions);
+                timer = negotiatedTimer(acceptedOptions, timer);
+                if (Log.isEnabled(Log.Level.DEBUG)) {
+                    Log.debug("Option Acknowledgment received " + acceptedOptions);
+                }
+                if (checkpoint != null && !restarted && !acceptedOptions.containsKey("resume")) {
+                    restart(checkpoint, out);
+                    restarted = true;
+                }
+                // the server answered the tsize option with the size of the file
+                long fileSize = negotiatedSize(acceptedOptions);
+                if (fileSize >= 0) {
+                    out.preallocate(fileSize);
+                }
+                // the server sends the file to a multicast group instead (see MulticastDownload)
+                if (acceptedOptions.containsKey("multicast") && requiredOption == null) {
+                    return MulticastDownload.receive(clientSocket, out, senderAddress, senderPort, acceptedOptions, timer);
+                }
+                if (requiredOption != null && !acceptedOptions.containsKey(requiredOption)) {
+                    // as it states in the RFC 2347, the client ends the transfer with error 8 if it can't accept the OACK
+                    sendErrorMessage(clientSocket, senderAddress, senderPort, (short) 8, "Option " + requiredOption + " not accepted");
+                    return false;
+                }
+                requiredOption = null;
+                // as it states in the RFC 2347, the OACK is acknowledged with ACK 0
+                sendAck(clientSocket, ackData, ackPacket, 0);
+                lastAckSentAt = System.nanoTime();
+                lastAckResent = false;
+                continue;
+            }
+            if (opcode != PacketCodec.DATA) {
+                continue;
+            }
+            if (checkpoint != null && !optionAckReceived && !restarted) {
+                // DATA without an OACK, the server ignored the resume option and sends the file from the start
+                restart(checkpoint, out);
+                restarted = true;
+            }
+            if (requiredOption != null) {
+                // DATA without an OACK, the server ignored the options
+                sendErrorMessage(clientSocket, senderAddress, senderPort, (short) 8, "Option " + requiredOption + " not accepted");
+                return false;
             }
-            // an output message of the DATA packet and its corresponding block number sent from the server
-            System.out.println("Received Data Packet " + (blockNumber + 1));
 
-            // write received file data to local file
-            fileOutputStream.write(receiveData, 4, receivePacket.getLength() - 4);
+            // the next block in order is written to the file along with the blocks held after it, a block ahead of a
+            // missing one is held, duplicates are dropped
+            if (reorder == null) {
+                reorder = new ReorderBuffer(negotiatedBlockSize, Math.min(negotiatedReorderBlocks, negotiatedWindowSize - 1), negotiatedRollover);
+            }
+            int receivedBlockNumber = PacketCodec.blockNumber(receiveData);
+            // write received file data to the local file, the buffer hands it to a thread that writes it to the disk
+            // in large chunks, so the acknowledgment below doesn't wait for the disk
+            long written = reorder.accept(receiveData, out);
+            if (written == ReorderBuffer.DROPPED) {
+                // as it states in the RFC 7440, the server is told the last block received in order, so it goes back to the next one
+                if (!gapAcked) {
+                    gapAcked = true;
+                    sendAck(clientSocket, ackData, ackPacket, reorder, selectiveAcks);
+                }
+                continue;
+            }
+
+            // the first block after an acknowledgment gives a round trip measurement
+            if (blocksSinceAck == 0 && !lastAckResent) {
+                timer.onSample(System.nanoTime() - lastAckSentAt);
+            }
+            blocksSinceAck++;
 
-            // send acknowledgment packet to the server
-            // structure of the ACK Packet as mentioned in the RFC1350
-            // 2 bytes     2 bytes
-            //  ---------------------
-            // | Opcode |   Block #  |
-            //  ---------------------
+            // an output message of the DATA packet and its corresponding block number sent from the server
+            if (Log.isEnabled(Log.Level.TRACE)) {
+                Log.trace("Received Data Packet " + receivedBlockNumber);
+            }
+
+            if (written == ReorderBuffer.HELD) {
+                // a block is missing, the server is told once which one (and which blocks are held after it)
+                if (!gapAcked) {
+                    gapAcked = true;
+                    sendAck(clientSocket, ackData, ackPacket, reorder, selectiveAcks);
+                }
+                continue;
+            }
 
-            byte[] ackPacketData = {0, 4, (byte) ((blockNumber + 1) >> 8), (byte) ((blockNumber + 1) & 0xFF)};
-            DatagramPacket ackPacket = new DatagramPacket(ackPacketData, ackPacketData.length, senderAddress, senderPort);
-            clientSocket.send(ackPacket);
+            // as it states in the RFC 1350, a DATA packet with less than a full block signals the end of the transfer
+            boolean lastBlock = reorder.isComplete();
+
+            // as it states in the RFC 7440, the acknowledgment is sent once the whole window has arrived
+            // a missing block that arrived with blocks still missing after it is acknowledged straight away, so the
+            // server learns about the next one
+            if (lastBlock || reorder.inOrder() - ackedUpTo >= negotiatedWindowSize || reorder.hasGap()) {
+                // every few megabytes the data received so far is saved as a checkpoint, before the acknowledgment
+                // so the server doesn't send the next window while the data is being forced to disk
+                if (checkpoint != null && !lastBlock && checkpoint.due(out.position())) {
+                    checkpoint.save(out);
+                }
+                sendAck(clientSocket, ackData, ackPacket, reorder, selectiveAcks);
+                ackedUpTo = reorder.inOrder();
+                lastAckSentAt = System.nanoTime();
+                lastAckResent = false;
+                blocksSinceAck = 0;
+                // an output message of the ACK packet and its corresponding block number sent to the server
+                if (Log.isEnabled(Log.Level.TRACE)) {
+                    Log.trace("Sent Acknowledgment Packet " + ackedUpTo);
+                }
+            }
+            gapAcked = reorder.hasGap();
 
-            // an output message of the ACK packet and its corresponding block number sent to the server
-            System.out.println("Sent Acknowledgment Packet " + (blockNumber + 1));
-            // increasing the block number by one for the next packet
-            blockNumber++;
+            if (lastBlock) {
+                out.flush();
+                return true;
+            }
+        }
+    }
 
-            // as it states in the RFC 1350, if the size of the file is less than 516, it signals the end of the transfer
-            if (receivePacket.getLength() < MAX_BYTES + 4) {
+    // method to handle Writing (sends the write request and uploads the file content)
+    // returns whether the whole file was sent and acknowledged
+    public static boolean sendFile(DatagramSocket clientSocket, String filename, DatagramPacket requestPacket) throws IOException {
+        if (resume) {
+            // the server answers with the offset its part file of an earlier attempt ends at (0 if there is none)
+            requestPacket = withOption(requestPacket, "resume", "0");
+        }
+        // as it states in the RFC 2349, the size of the file is sent with a WRQ, so the server can make room for it
+        requestPacket = withOption(requestPacket, "tsize", String.valueOf(new File(filename).length()));
+        long startedAt = System.nanoTime();
+        // wait for acknowledgment packet (or option acknowledgment) from the server
+        ByteBuffer ackData = ByteBuffer.allocate(PacketCodec.MAX_REQUEST_SIZE);
+        DatagramPacket ackPacket = new DatagramPacket(ackData.array(), ackData.capacity());
+
+        // sends the write request packet to the server, again after every timeout
+        RetransmitTimer timer = new RetransmitTimer();
+        long requestSentAt = System.nanoTime();
+        int attempts = 0;
+        while (true) {
+            clientSocket.send(requestPacket);
+            try {
+                clientSocket.setSoTimeout(timer.getTimeout());
+                clientSocket.receive(ackPacket);
                 break;
+            } catch (SocketTimeoutException e) {
+                timer.onTimeout();
+                if (++attempts > maxRetries) {
+                    // if the client doesn't receive any acknowledgment packet from the server...
+                    Log.warn("Timeout: Did not receive acknowledgment from server.");
+                    return false;
+                }
             }
         }
-        // close FileOutputStream
-        fileOutputStream.close();
-        // an output message if the file transfer was successful
-        System.out.println("File downloaded successfully.");
+        // as Karn's algorithm says, only a request that was sent once gives a round trip measurement
+        if (attempts == 0) {
+            timer.onSample(System.nanoTime() - requestSentAt);
+        }
+
+        // extract the opcode from the acknowledgment packet
+        ackData.clear().limit(ackPacket.getLength());
+        int opcode = PacketCodec.opcode(ackData);
+
+        // check if it's an acknowledgment packet or an option acknowledgment
+        if (opcode == PacketCodec.ACK || opcode == PacketCodec.OACK) {
+            Log.debug("Acknowledgment received from server. Attempting to send file data...");
+            // as it states in the RFC 2347, a plain ACK means the server ignored the options
+            Map<String, String> acceptedOptions = new LinkedHashMap<>();
+            if (opcode == PacketCodec.OACK) {
+                acceptedOptions = PacketCodec.decodeOptionAck(ackData);
+            }
+            // extract the server address and port from the acknowledgment packet
+            InetAddress serverAddressAck = ackPacket.getAddress();
+            int serverPortAck = ackPacket.getPort();
+
+            // method to handle Write (sends the file to the server)
+            boolean sent = sendFile(clientSocket, filename, serverAddressAck, serverPortAck, acceptedOptions, timer);
+            // one line for the whole transfer, successful or not
+            logSummary(serverAddressAck, "WRQ", filename, sent, sent ? new File(filename).length() - resumeOffset(acceptedOptions) : 0, startedAt);
+            return sent;
+        } else if (opcode == PacketCodec.ERROR) {
+            // the server refused the write (e.g. Access violation)
+            Log.warn("Error message: " + PacketCodec.errorMessage(ackData));
+        } else {
+            // an output error message if an unexpected error occurs...
+            Log.warn("Unexpected response received from server.");
+        }
+        return false;
+    }
+
+    // method to start writing a file again from its beginning, when a transfer that was meant to resume is sent
+    // from the start
+    // the checkpoint of the earlier attempt is thrown away too, it no longer matches the part file
+    private static void restart(Checkpoint checkpoint, WriteBuffer out) throws IOException {
+        if (out.position() != 0) {
+            Log.info("Server can't resume the transfer, receiving the whole file again.");
+            out.reset(0);
+            out.channel().truncate(0);
+        }
+        checkpoint.reset();
+    }
+
+    // method to add an option to a request that has already been created
+    public static DatagramPacket withOption(DatagramPacket requestPacket, String option, String value) {
+        PacketCodec.Request request = PacketCodec.decodeRequest(ByteBuffer.wrap(requestPacket.getData(), requestPacket.getOffset(), requestPacket.getLength()));
+        Map<String, String> options = new LinkedHashMap<>(request.options());
+        options.put(option, value);
+        ByteBuffer requestData = PacketCodec.encodeRequest(ByteBuffer.allocate(PacketCodec.MAX_REQUEST_SIZE), request.opcode(), request.filename(), request.mode(), options);
+        return new DatagramPacket(requestData.array(), requestData.limit(), requestPacket.getAddress(), requestPacket.getPort());
+    }
+
+    // method to send an acknowledgment packet to the server
+    // the same buffer and datagramPacket (already addressed to the server) are reused for every ACK of a transfer
+    public static void sendAck(DatagramSocket clientSocket, ByteBuffer ackData, DatagramPacket ackPacket, int blockNumber) throws IOException {
+        PacketCodec.encodeAck(ackData, blockNumber);
+        ackPacket.setLength(ackData.limit());
+        clientSocket.send(ackPacket);
+    }
+
+    // method to send the acknowledgment of the last block received in order (ACK 0 before any DATA packet), with the
+    // bitmap of the blocks held after it when the server agreed to the sack option
+    private static void sendAck(DatagramSocket clientSocket, ByteBuffer ackData, DatagramPacket ackPacket, ReorderBuffer reorder, boolean selective) throws IOException {
+        if (reorder == null) {
+            PacketCodec.encodeAck(ackData, 0);
+        } else {
+            reorder.encodeAck(ackData, selective);
+        }
+        ackPacket.setLength(ackData.limit());
+        clientSocket.send(ackPacket);
+    }
+
+    // method to check that a packet comes from the server's TID, as it states in the RFC 1350 a packet from any other
+    // port is answered with error 5 (Unknown transfer ID) and the transfer carries on
+    private static boolean isFromServer(DatagramSocket clientSocket, DatagramPacket packet, InetAddress serverAddress, int serverPort) throws IOException {
+        if (packet.getPort() == serverPort && packet.getAddress().equals(serverAddress)) {
+            return true;
+        }
+        Log.debug("Packet from unknown transfer ID " + packet.getAddress().getHostAddress() + ":" + packet.getPort() + " ignored");
+        sendErrorMessage(clientSocket, packet.getAddress(), packet.getPort(), (short) 5, "Unknown transfer ID");
+        return false;
     }
 
     // method to handle Writing (sends the file to the server)
-    public static void sendFile(DatagramSocket clientSocket, String filename, InetAddress address, int port) throws IOException {
+    // sends a window of DATA packets (one unless the windowsize option was negotiated) and waits for its acknowledgment
+    public static boolean sendFile(DatagramSocket clientSocket, String filename, InetAddress address, int port, Map<String, String> acceptedOptions, RetransmitTimer timer) throws IOException {
+        // block size and window size the server agreed to (512 and 1 without an OACK)
+        int blockSize = negotiatedBlockSize(acceptedOptions);
+        int windowSize = negotiatedWindowSize(acceptedOptions);
+        int rollover = negotiatedRollover(acceptedOptions);
+        timer = negotiatedTimer(acceptedOptions, timer);
+
         // read the content of the file to be written
         File file = new File(filename);
         // checks if the file exists on the clients side (needs to be in the current directory)
@@ -219,246 +601,297 @@ public class TFTPUDPClient {
             // method to send an Error message to the server (Error code 1 - File not Found)
             // as the requirement says, only error handle for file not found
             sendErrorMessage(clientSocket, address, port, (short) 1, "File not found ");
-            System.out.println("Error: FILE NOT FOUND");
-            return;
+            Log.warn("Error: FILE NOT FOUND");
+            return false;
+        }
+        // the server already has the file up to the offset it answered the resume option with, block 1 follows it
+        long resumeOffset = resumeOffset(acceptedOptions);
+        if (resumeOffset > file.length()) {
+            // the server has more than the file, it can't be the same file
+            sendErrorMessage(clientSocket, address, port, (short) 8, "Can't resume from byte " + resumeOffset);
+            Log.warn("Server has more of " + filename + " than the file itself, can't resume.");
+            return false;
+        }
+        if (resumeOffset > 0) {
+            Log.info("Resuming " + filename + " from byte " + resumeOffset);
         }
-        // if it does exist then, open an FileInputStream
-        FileInputStream fileInputStream = new FileInputStream(file);
-
-        // byte array to hold file data
-        // set buffer size to maximum packet size
-        byte[] fileData = new byte[MAX_BYTES];
-
-        // start with block number 1
-        short blockNumber = 1; //
-        int bytesRead;
-        while ((bytesRead = fileInputStream.read(fileData)) != -1) {
-            // structure of the DATA Packet as mentioned in the RFC1350
-            // 2 bytes     2 bytes      n bytes
-            //  ----------------------------------
-            // | Opcode |   Block #  |   Data     |
-            //  ----------------------------------
-            byte[] sendData = new byte[bytesRead + 4];
-            // opcode for Data packet 03
-            sendData[0] = 0;
-            sendData[1] = (byte) DATA;
-            sendData[2] = (byte) ((blockNumber >> 8) & 0xFF);
-            sendData[3] = (byte) (blockNumber & 0xFF);
-            // copy file data to sendData
-            for (int i = 0; i < bytesRead; i++) {
-                sendData[i + 4] = fileData[i];
+        // blocks are counted in an int, that is 1 TB with 512 byte blocks but less with tiny ones
+        if ((file.length() - resumeOffset) / blockSize >= Integer.MAX_VALUE) {
+            sendErrorMessage(clientSocket, address, port, (short) 0, "File too large for block size " + blockSize);
+            Log.warn(filename + " is too large to send with block size " + blockSize);
+            return false;
+        }
+        // if it does exist then, open the file, it is read ahead of the transfer by another thread (see ReadAhead)
+        // so the next window is in memory by the time its acknowledgment arrives
+        // the file is closed however the transfer ends (the reader thread stops and its chunks go back to the pool)
+        try (ReadAhead fileInput = new ReadAhead(FileChannel.open(file.toPath()), resumeOffset)) {
+            // the DATA packets of the current window, kept until they are acknowledged so they can be sent again
+            // block n is kept in window[n % windowSize]
+            ByteBuffer[] window = new ByteBuffer[windowSize];
+            for (int i = 0; i < windowSize; i++) {
+                window[i] = ByteBuffer.allocate(blockSize + PacketCodec.DATA_HEADER_SIZE);
             }
-            // sends the data packet to the server with its block number
-            DatagramPacket sendPacket = new DatagramPacket(sendData, sendData.length, address, port);
-
-            boolean sent = false;
-            // implement retransmission with maximum of 3 attempts
+            // one datagramPacket, pointed at the packet to send each time
+            DatagramPacket sendPacket = new DatagramPacket(window[0].array(), 0, address, port);
+            // when each packet of the window was sent, and whether it has been sent more than once (Karn's algorithm)
+            long[] sentAt = new long[windowSize];
+            boolean[] resent = new boolean[windowSize];
+
+            // first block that hasn't been acknowledged yet, next block to read and the final (short) block once it is known
+            int firstUnacked = 1;
+            int nextBlock = 1;
+            int lastBlock = 0;
+            // the blocks the server has reported holding, when it agreed to the sack option
+            SackScoreboard scoreboard = acceptedOptions.containsKey("sack") ? new SackScoreboard(windowSize) : null;
+            // set after an acknowledgment with the sack option, only the blocks reported missing are sent again
+            boolean onlyMissing = false;
+
+            // acknowledgment packet size is 4 bytes, and up to 512 bytes for a selective ACK
+            ByteBuffer ackData = ByteBuffer.allocate(PacketCodec.MAX_REQUEST_SIZE);
+            DatagramPacket ackPacket = new DatagramPacket(ackData.array(), ackData.capacity());
+
+            // number of timeouts in a row, the transfer is abandoned after maxRetries
             int attempts = 0;
-            while (!sent && attempts < 3) {
-                // send the packet
-                clientSocket.send(sendPacket);
-                // an output message of the DATA packets and its corresponding block number sent to the server
-                System.out.println("Sent Packet " + blockNumber);
+            // as it states in the RFC 7440, every window starts at the block after the last acknowledged one
+            boolean sendWindow = true;
+            while (true) {
+                if (sendWindow) {
+                    for (int block = firstUnacked; block < firstUnacked + windowSize; block++) {
+                        int slot = block % windowSize;
+                        if (block == nextBlock) {
+                            if (lastBlock != 0) {
+                                break;
+                            }
+                            ByteBuffer sendData = PacketCodec.beginData(window[slot], PacketCodec.wireBlockNumber(block, rollover));
+                            // copy the file data that was read ahead into the packet
+                            int bytesRead = fileInput.read(sendData.array(), PacketCodec.DATA_HEADER_SIZE, blockSize);
+                            sendData.position(PacketCodec.DATA_HEADER_SIZE + bytesRead);
+                            PacketCodec.endData(sendData);
+                            // as it states in the RFC 1350, the transfer ends with a DATA packet of less than a full block (even 0 bytes)
+                            if (bytesRead < blockSize) {
+                                lastBlock = block;
+                            }
+                            nextBlock++;
+                            sentAt[slot] = System.nanoTime();
+                            resent[slot] = false;
+                        } else if (scoreboard != null && (scoreboard.isReported(block) || onlyMissing && !scoreboard.isMissing(block))) {
+                            // the server holds the block already, or it is still on its way
+                            if (block == lastBlock) {
+                                break;
+                            }
+                            continue;
+                        } else {
+                            resent[slot] = true;
+                        }
+                        // sends the data packet to the server with its block number
+                        sendPacket.setData(window[slot].array(), 0, window[slot].limit());
+                        clientSocket.send(sendPacket);
+                        if (scoreboard != null) {
+                            scoreboard.sent(block);
+                        }
+                        // an output message of the DATA packets and its corresponding block number sent to the server
+                        if (Log.isEnabled(Log.Level.TRACE)) {
+                            Log.trace("Sent Packet " + block);
+                        }
+                        if (block == lastBlock) {
+                            break;
+                        }
+                    }
+                    sendWindow = false;
+                }
 
                 // wait for acknowledgment packet from the server with a timeout
                 try {
-                    // acknowledgment packet size is 4 bytes
-                    byte[] ackData = new byte[4]; // Acknowledgment packets are 4 bytes
-                    DatagramPacket ackPacket = new DatagramPacket(ackData, ackData.length);
+                    ackPacket.setLength(ackData.capacity());
+                    clientSocket.setSoTimeout(timer.getTimeout());
                     clientSocket.receive(ackPacket);
-
-                    // extract the opcode from the acknowledgment packet
-                    short opcode = (short) (((ackData[0] & 0xFF) << 8) | (ackData[1] & 0xFF));
-
-                    // check if it's an acknowledgment packet
-                    if (opcode == ACK) {
-                        // an output message of the ACK packet and its corresponding block number sent from the server
-                        System.out.println("Acknowledgment received from server for packet: " + blockNumber);
-                        // increasing the block number by one for the next packet
-                        blockNumber++;
-                        sent = true;
-                    } else {
-                        // an output error message if an unexpected error occurs...
-                        System.err.println("Unexpected response received from server.");
-                    }
                 } catch (SocketTimeoutException e) {
                     // timeout exception
-                    System.err.println("Socket timeout. No acknowledgment received within 60 seconds for packet " + blockNumber);
-                    // increment attempts counter by one
+                    if (Log.isEnabled(Log.Level.DEBUG)) {
+                        Log.debug("Socket timeout. No acknowledgment received for packet " + firstUnacked);
+                    }
+                    // back off the retransmission timer and increment attempts counter by one
+                    timer.onTimeout();
                     attempts++;
+                    // if not acknowledged after the maximum attempts, outputs an error message
+                    if (attempts > maxRetries) {
+                        Log.warn("Failed to send packet after maximum attempts for block number: " + firstUnacked);
+                        return false;
+                    }
+                    // go back to the last acknowledged block and send the window again
+                    sendWindow = true;
+                    onlyMissing = false;
+                    continue;
+                }
+                if (!isFromServer(clientSocket, ackPacket, address, port)) {
+                    continue;
                 }
-            }
 
-            // if not sent after 3 attempts, outputs an error message
-            if (!sent) {
-                System.err.println("Failed to send packet after maximum attempts for block number: " + blockNumber);
-                // close FileInputStream
-                fileInputStream.close();
-                // close the socket
-                clientSocket.close();
-                // terminate the program
-                System.exit(1);
+                // extract the opcode from the acknowledgment packet
+                ackData.clear().limit(ackPacket.getLength());
+                int opcode = ackData.remaining() < PacketCodec.DATA_HEADER_SIZE ? -1 : PacketCodec.opcode(ackData);
+
+                // check if it's an acknowledgment packet
+                if (opcode != PacketCodec.ACK) {
+                    // an output error message if an unexpected error occurs...
+                    Log.debug("Unexpected response received from server.");
+                    continue;
+                }
+
+                // find the block the ACK is for (the last one acknowledged up to the last one sent, the block numbers roll
+                // over after 65535), older (duplicate) acknowledgments are ignored
+                int ackedBlockNumber = PacketCodec.blockNumber(ackData);
+                int acked = (int) PacketCodec.blockAfter(firstUnacked - 1, ackedBlockNumber, rollover);
+                if (acked >= nextBlock) {
+                    continue;
+                }
+                if (scoreboard != null) {
+                    scoreboard.record(ackData, acked, nextBlock - 1);
+                    onlyMissing = true;
+                }
+                if (acked == firstUnacked - 1) {
+                    // the last acknowledgment again, with the sack option it says which blocks are missing so those are
+                    // sent again, without it it could just be a duplicate and is ignored
+                    sendWindow = scoreboard != null;
+                    continue;
+                }
+                // an output message of the ACK packet and its corresponding block number sent from the server
+                if (Log.isEnabled(Log.Level.TRACE)) {
+                    Log.trace("Acknowledgment received from server for packet: " + acked);
+                }
+                attempts = 0;
+                // measure the round trip of the acknowledged block, unless it was retransmitted
+                if (!resent[acked % windowSize]) {
+                    timer.onSample(System.nanoTime() - sentAt[acked % windowSize]);
+                }
+                firstUnacked = acked + 1;
+                if (acked == lastBlock) {
+                    break;
+                }
+                // if the ACK is for a block in the middle of the window the rest of the window was lost, so go back to it
+                sendWindow = true;
             }
         }
-
-        // close FileInputStream
-        fileInputStream.close();
-        // an output message if the file transfer was successful
-        System.out.println("File sent to server.");
+        return true;
     }
 
-    // method to send a Read Request to the server
-    // structure of the RRQ Packet as mentioned in the RFC1350
-    // 2 bytes     string    1 byte     string   1 byte
-    //  ------------------------------------------------
-    // | Opcode |  Filename  |   0  |    Mode    |   0  |
-    //  ------------------------------------------------
-    public static byte[] createReadRequest(String filename, String mode) {
+    // method to send a Read Request to the server (the packet structure is in PacketCodec)
+    public static ByteBuffer createReadRequest(String filename, String mode, Map<String, String> options) {
         // opcode for read request (RRQ)
-        // represents opcode 1 as two bytes
-        byte[] opcodeBytes = {0, (byte) RRQ};
-
-        // as the requirements say, file transfer should be done in raw sequence of bytes
-        // convert filename and mode to bytes
-        byte[] filenameBytes = filename.getBytes();
-        byte[] modeBytes = mode.getBytes();
-
-        // calculate the length of the requestData
-        int requestDataLength = opcodeBytes.length + filenameBytes.length + 1 + modeBytes.length + 1;
-
-        // byte array to hold the request
-        byte[] requestData = new byte[requestDataLength];
-
-        // copy the opcode (01) bytes to requestData
-        requestData[0] = opcodeBytes[0];
-        requestData[1] = opcodeBytes[1];
-
-        // copy the filename bytes to requestData
-        for (int i = 0; i < filenameBytes.length; i++) {
-            requestData[2 + i] = filenameBytes[i];
-        }
-
-        // set the null byte after filename
-        requestData[2 + filenameBytes.length] = 0;
-
-        // copy the mode bytes to requestData
-        for (int i = 0; i < modeBytes.length; i++) {
-            requestData[2 + filenameBytes.length + 1 + i] = modeBytes[i];
-        }
-
-        // set the null byte after mode
-        requestData[2 + filenameBytes.length + 1 + modeBytes.length] = 0;
-
-        return requestData;
+        return PacketCodec.encodeRequest(ByteBuffer.allocate(PacketCodec.MAX_REQUEST_SIZE), PacketCodec.RRQ, filename, mode, options);
     }
 
     // method to send a Write Request to the server
-    // structure of the WRQ Packet as mentioned in the RFC1350
-    // 2 bytes     string    1 byte     string   1 byte
-    //  ------------------------------------------------
-    // | Opcode |  Filename  |   0  |    Mode    |   0  |
-    //  ------------------------------------------------
-    public static byte[] createWriteRequest(String filename, String mode) {
+    // structure of the WRQ Packet is the same as the RRQ Packet, with opcode 2
+    public static ByteBuffer createWriteRequest(String filename, String mode, Map<String, String> options) {
         // opcode for write request (WRQ)
-        // represents opcode 2 as two bytes
-        byte[] opcodeBytes = {0, (byte) WRQ};
+        return PacketCodec.encodeRequest(ByteBuffer.allocate(PacketCodec.MAX_REQUEST_SIZE), PacketCodec.WRQ, filename, mode, options);
+    }
 
-        // as the requirements say, file transfer should be done in raw sequence of bytes
-        // convert filename and mode to bytes
-        byte[] filenameBytes = filename.getBytes();
-        byte[] modeBytes = mode.getBytes();
+    // method to build the options sent with every request
+    public static Map<String, String> requestOptions() {
+        Map<String, String> options = new LinkedHashMap<>();
+        // only ask for a block size if it differs from the default one
+        if (blockSize != PacketCodec.DEFAULT_BLOCK_SIZE) {
+            options.put("blksize", String.valueOf(blockSize));
+        }
+        if (windowSize != 1) {
+            options.put("windowsize", String.valueOf(windowSize));
+        }
+        if (timeoutOption > 0) {
+            options.put("timeout", String.valueOf(timeoutOption));
+        }
+        if (reorderBlocks > 0 && windowSize > 1) {
+            options.put("sack", String.valueOf(Math.min(reorderBlocks, PacketCodec.MAX_SACK_BLOCKS)));
+        }
+        // only ask for a rollover if it differs from the one servers use without the option
+        if (rollover != 0) {
+            options.put("rollover", String.valueOf(rollover));
+        }
+        return options;
+    }
 
-        // calculate the length of the request data
-        int requestDataLength = opcodeBytes.length + filenameBytes.length + 1 + modeBytes.length + 1;
+    // method to get the block size the server agreed to in its OACK
+    public static int negotiatedBlockSize(Map<String, String> options) {
+        String value = options.get("blksize");
+        return value != null ? Integer.parseInt(value.trim()) : PacketCodec.DEFAULT_BLOCK_SIZE;
+    }
 
-        // byte array to hold the request
-        byte[] requestData = new byte[requestDataLength];
+    // method to get the window size the server agreed to in its OACK
+    public static int negotiatedWindowSize(Map<String, String> options) {
+        String value = options.get("windowsize");
+        return value != null ? Integer.parseInt(value.trim()) : 1;
+    }
 
-        // copy the opcode (02) bytes to requestData
-        requestData[0] = opcodeBytes[0];
-        requestData[1] = opcodeBytes[1];
+    // method to get the number of blocks held out of order, what the server answered the sack option with
+    public static int negotiatedReorderBlocks(Map<String, String> options) {
+        String value = options.get("sack");
+        return value != null ? Integer.parseInt(value.trim()) : reorderBlocks;
+    }
 
-        // copy the filename bytes to requestData
-        for (int i = 0; i < filenameBytes.length; i++) {
-            requestData[2 + i] = filenameBytes[i];
+    // method to get the size of the file the server answered the tsize option with, -1 if it didn't (or sent
+    // something that isn't a size)
+    public static long negotiatedSize(Map<String, String> options) {
+        String value = options.get("tsize");
+        if (value == null) {
+            return -1;
         }
-
-        // set the null byte after filename
-        requestData[2 + filenameBytes.length] = 0;
-
-        // copy the mode bytes to requestData
-        for (int i = 0; i < modeBytes.length; i++) {
-            requestData[2 + filenameBytes.length + 1 + i] = modeBytes[i];
+        try {
+            return Math.max(-1, Long.parseLong(value.trim()));
+        } catch (NumberFormatException e) {
+            return -1;
         }
+    }
 
-        // set the null byte after mode
-        requestData[2 + filenameBytes.length + 1 + modeBytes.length] = 0;
+    // method to get the block number the server goes back to after 65535, 0 unless it agreed to the rollover option
+    public static int negotiatedRollover(Map<String, String> options) {
+        String value = options.get("rollover");
+        return value != null ? Integer.parseInt(value.trim()) : 0;
+    }
 
-        return requestData;
+    // method to get the offset the server answered the resume option with
+    public static long resumeOffset(Map<String, String> options) {
+        String value = options.get("resume");
+        return value != null ? Long.parseLong(value.trim()) : 0;
     }
 
+    // method to get the retransmission timer for the transfer, a fixed one if the server agreed to the timeout option
+    public static RetransmitTimer negotiatedTimer(Map<String, String> options, RetransmitTimer adaptiveTimer) {
+        String value = options.get("timeout");
+        return value != null ? RetransmitTimer.fixed(Integer.parseInt(value.trim()) * 1000) : adaptiveTimer;
+    }
 
     // method to handle Errors
-    public static void handleError(DatagramSocket clientSocket, byte[] errorData, int packetLength, String filepath) {
-        // extract the error code from the error packet
-        short errorCode = (short) ((errorData[2] << 8) | (errorData[3] & 0xFF));
-        System.out.println(packetLength);
-        // extract the error message from the error packet
-        String errorMessage = new String(errorData, 4, packetLength-6);
-        System.out.println(errorMessage.length());
-
-        // an error message to output the error code and the error message
-        System.err.println("Error code: " + errorCode);
-        System.err.println("Error message: " + errorMessage);
+    public static void handleError(DatagramSocket clientSocket, ByteBuffer errorData, String filepath) {
+        printError(errorData);
 
         // deletes the created file
         File file = new File(filepath);
         file.delete();
+    }
 
-        // close the client socket
-        clientSocket.close();
+    // method to output the error code and error message of an error packet
+    public static void printError(ByteBuffer errorData) {
+        // extract the error code from the error packet
+        int errorCode = PacketCodec.errorCode(errorData);
+        // extract the error message from the error packet
+        String errorMessage = PacketCodec.errorMessage(errorData);
 
-        // terminate the program
-        System.exit(1);
+        // an error message to output the error code and the error message
+        Log.warn("Error code: " + errorCode + ", Error message: " + errorMessage);
     }
 
-    // method to send the Error Message to the server
-    // structure of the ERROR Packet as mentioned in the RFC1350
-    // 2 bytes     2 bytes      string    1 byte
-    //  -----------------------------------------
-    // | Opcode |  ErrorCode |   ErrMsg   |   0  |
-    //  -----------------------------------------
+    // method to send the Error Message to the server (the packet structure is in PacketCodec)
     public static void sendErrorMessage(DatagramSocket clientSocket, InetAddress serverAddress, int serverPort, short errorCode, String errorMessage) throws IOException {
-        // as the requirements say, file transfer should be done in raw sequence of bytes
-        // convert the error message to bytes
-        byte[] errorMessageBytes = errorMessage.getBytes();
-
-        // byte array to hold error message packet data
-        // opcode (2 bytes) + Error Code (2 bytes) + Error Message + Null terminator
-        byte[] errorPacketData = new byte[4 + errorMessageBytes.length + 1];
-
-        // write opcode (05) to errorPacketData
-        errorPacketData[0] = 0;
-        errorPacketData[1] = (byte) ERROR;
-
-        // write error code to errorPacketData
-        errorPacketData[2] = (byte) (errorCode >> 8);
-        errorPacketData[3] = (byte) errorCode;
-
-        // write error message bytes to errorPacketData
-        for (int i = 0; i < errorMessageBytes.length; i++) {
-            errorPacketData[4 + i] = errorMessageBytes[i];
-        }
-        // set the null terminator
-        errorPacketData[errorPacketData.length - 1] = 0;
+        ByteBuffer errorPacketData = PacketCodec.encodeError(ByteBuffer.allocate(PacketCodec.MAX_REQUEST_SIZE), errorCode, errorMessage);
 
         // datagramPacket to send the error message packet to the server
-        DatagramPacket errorPacket = new DatagramPacket(errorPacketData, errorPacketData.length, serverAddress, serverPort);
+        DatagramPacket errorPacket = new DatagramPacket(errorPacketData.array(), errorPacketData.limit(), serverAddress, serverPort);
 
         // send the error message packet to the server
         clientSocket.send(errorPacket);
         // an output message for sending an ERROR packet to the server
-        System.out.println("Error Packet sent to the server");
+        Log.debug("Error Packet sent to the server - " + errorMessage);
     }
 
 }
@@ -0,0 +1,180 @@
+package server;
+
+// imports that are using in this project
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+// in-memory cache of the files served to clients...
+// when thousands of clients read the same few files (e.g. network boot images), every read request after the
+// first one is served from memory instead of opening and reading the file again
+// files are kept by path together with their modification time and size, so a file that changes on disk is read
+// again, and the least recently used files are dropped once the cache is full
+final class FileCache {
+    // most memory used by the cache, change with "-cache <megabytes>" on the command line (0 turns the cache off)
+    public static long MAX_CACHE_SIZE = 256L * 1024 * 1024;
+    // files bigger than this are never cached, they are memory-mapped by their session instead
+    public static long MAX_FILE_SIZE = 64L * 1024 * 1024;
+
+    // counters to find out how well the cache is sized
+    private static final AtomicLong hits = new AtomicLong();
+    private static final AtomicLong misses = new AtomicLong();
+    private static final AtomicLong evictions = new AtomicLong();
+
+    // cached files in least recently used order (access order), and the number of bytes they take up
+    private static final LinkedHashMap<Path, CachedFile> files = new LinkedHashMap<>(16, 0.75f, true);
+    private static long cachedBytes = 0;
+
+    private FileCache() {
+    }
+
+    // a file's content as it was at the given modification time
+    private static class CachedFile {
+        final long lastModified;
+        final long size;
+        // read by the first session that asks for the file, the other sessions wait for it
+        ByteBuffer content;
+        // set if the file changed while it was read, the sessions waiting for it map the file themselves
+        boolean stale;
+
+        CachedFile(long lastModified, long size) {
+            this.lastModified = lastModified;
+            this.size = size;
+        }
+    }
+
+    // method to get the content of a file, or null if it isn't cached (too big, or the cache is turned off)
+    // every caller gets its own view of the content, so it can move the position and limit as it likes
+    public static ByteBuffer get(File file) throws IOException {
+        Path path = file.toPath().toAbsolutePath().normalize();
+        BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        long lastModified = attributes.lastModifiedTime().toMillis();
+        long size = attributes.size();
+        if (size > MAX_FILE_SIZE || size > MAX_CACHE_SIZE) {
+            return null;
+        }
+
+        CachedFile cachedFile;
+        synchronized (files) {
+            cachedFile = files.get(path);
+            if (cachedFile != null && cachedFile.lastModified == lastModified && cachedFile.size == size) {
+                hits.incrementAndGet();
+            } else {
+                // the file isn't cached or has changed since it was read
+                misses.incrementAndGet();
+                if (cachedFile != null) {
+                    files.remove(path);
+                    cachedBytes -= cachedFile.size;
+                }
+                cachedFile = new CachedFile(lastModified, size);
+                files.put(path, cachedFile);
+                cachedBytes += size;
+                evict();
+            }
+        }
+
+        synchronized (cachedFile) {
+            if (cachedFile.stale) {
+                return null;
+            }
+            if (cachedFile.content == null) {
+                ByteBuffer content;
+                try {
+                    content = read(path, size);
+                } catch (IOException e) {
+                    remove(path, cachedFile);
+                    throw e;
+                }
+                // the size and modification time were taken before the read, if the file was written in the
+                // meantime the content may be half of each version, so it isn't kept (the session maps the file)
+                if (content.limit() != size || !unchanged(path, lastModified, size)) {
+                    cachedFile.stale = true;
+                    remove(path, cachedFile);
+                    return null;
+                }
+                cachedFile.content = content;
+            }
+            return cachedFile.content.duplicate();
+        }
+    }
+
+    // method to check that a file still has the given modification time and size
+    private static boolean unchanged(Path path, long lastModified, long size) {
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+            return attributes.lastModifiedTime().toMillis() == lastModified && attributes.size() == size;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    // method to drop the least recently used files until the cache fits in MAX_CACHE_SIZE
+    // (sessions still sending a dropped file keep their view of it until they finish)
+    private static void evict() {
+        Iterator<CachedFile> leastRecentlyUsed = files.values().iterator();
+        while (cachedBytes > MAX_CACHE_SIZE && leastRecentlyUsed.hasNext()) {
+            cachedBytes -= leastRecentlyUsed.next().size;
+            leastRecentlyUsed.remove();
+            evictions.incrementAndGet();
+        }
+    }
+
+    private static void remove(Path path, CachedFile cachedFile) {
+        synchronized (files) {
+            if (files.remove(path, cachedFile)) {
+                cachedBytes -= cachedFile.size;
+            }
+        }
+    }
+
+    // method to read a whole file into memory (outside of the heap, so it can be sent without being copied)
+    private static ByteBuffer read(Path path, long size) throws IOException {
+        ByteBuffer content = ByteBuffer.allocateDirect((int) size);
+        try (FileChannel fileChannel = FileChannel.open(path, StandardOpenOption.READ)) {
+            // a channel may read less than asked for, so keep reading until the buffer is full or the file ends
+            int bytesRead = 0;
+            while (content.hasRemaining() && bytesRead >= 0) {
+                bytesRead = fileChannel.read(content);
+            }
+        }
+        return content.flip().asReadOnlyBuffer();
+    }
+
+    public static long getHits() {
+        return hits.get();
+    }
+
+    public static long getMisses() {
+        return misses.get();
+    }
+
+    public static long getEvictions() {
+        return evictions.get();
+    }
+
+    public static long getCachedBytes() {
+        synchronized (files) {
+            return cachedBytes;
+        }
+    }
+
+    public static int getCachedFiles() {
+        synchronized (files) {
+            return files.size();
+        }
+    }
+
+    // method to describe the cache counters, e.g. for the server's output
+    public static String stats() {
+        return "File cache: " + getHits() + " hits, " + getMisses() + " misses, " + getEvictions() + " evictions, "
+                + getCachedFiles() + " files (" + getCachedBytes() / 1024 + " KB)";
+    }
+}
@@ -0,0 +1,418 @@
+package server;
+
+// imports that are using in this project
+import common.Log;
+import common.Metrics;
+import common.PacketCodec;
+import common.RetransmitTimer;
+import common.TrafficShaper;
+import java.io.File;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
+import java.net.SocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// a file sent to a multicast group, so many clients reading the same file (e.g. a boot image) get it from a single
+// stream instead of a unicast copy each...
+// as it states in the RFC 2090, a client asks for it with the multicast option (with an empty value) and the
+// server answers in its OACK with the group and which client is the master: "multicast" "239.255.42.69,1758,1"
+// the DATA packets go to the group and every client of the group keeps the ones it hasn't got yet, but only the
+// master client acknowledges them, so the file is sent at the pace of one client
+// a client joining in the middle of the file keeps the blocks from there on, and once the master has the whole
+// file the next client in line becomes the master (with an OACK of "multicast" ",,1") and acknowledges the blocks
+// it has got in order, so the server goes back to the first block that client is missing
+//
+// an ACK n from the master means it has every block up to n and the next window starts at block n + 1 (as in the
+// RFC 7440), a client that isn't the master only sends the ACK of the last block, to leave the group
+// the block number isn't rolled over in a group (a client joining late couldn't tell the rounds apart), so a
+// file of more than 65535 blocks is sent to every client on its own instead
+final class MulticastGroup {
+    // the multicast address the groups are given, null turns the multicast option off, change with
+    // "-multicast <address>", and the port of the first group (every group gets the next port)
+    public static InetAddress GROUP_ADDRESS = null;
+    public static int FIRST_PORT = 1758;
+    // the interface the groups are sent on, change with "-multicast-if <name>", null lets the system choose
+    public static NetworkInterface NETWORK_INTERFACE = null;
+
+    // groups that are sending, by file and the block and window size their clients agreed to
+    private static final Map<String, MulticastGroup> groups = new HashMap<>();
+    private static int nextPort = FIRST_PORT;
+
+    // a client of the group, when it joined (for the Metrics and the log) and whether its OACK made it the master
+    private record Member(InetSocketAddress address, long joinedAt, boolean toldMaster) {
+    }
+
+    private final String key;
+    private final String filename;
+    private final InetSocketAddress groupAddress;
+    private final int blockSize;
+    private final int windowSize;
+    private final long fileSize;
+    private final int lastBlock;
+    private final FileChannel fileChannel;
+    // the group's TID, the OACKs and the DATA packets are sent from it and the clients' ACKs arrive on it
+    private final DatagramChannel channel;
+    // buffer the DATA packets are put together in
+    private final ByteBuffer dataPacket;
+
+    // everything below the members is only used by the group's own thread
+    // clients in the order they joined, the first one is the master (guarded by the groups lock)
+    private final ArrayDeque<Member> members = new ArrayDeque<>();
+    private InetSocketAddress master;
+    // set from the OACK that makes a client the master until its first ACK, which can go back to any block
+    private boolean awaitingMaster;
+    // whether the master was made the master by an OACK of its own (not the one answering its request), and when
+    private boolean masterOffered;
+    private long masterOfferedAt;
+    // first block the master hasn't acknowledged, and the next block that has never been sent to the group
+    private int firstUnacked = 1;
+    private int nextBlock = 1;
+    // when the window was sent, and whether any block of it had been sent before (Karn's algorithm)
+    private long windowSentAt;
+    private boolean windowResent;
+    private final RetransmitTimer timer = new RetransmitTimer();
+    private int retries;
+    // the group's share of the bandwidth limits (see TrafficShaper), the group counts as a client of its own
+    private TrafficShaper.Flow flow;
+
+    private MulticastGroup(String key, String filename, InetSocketAddress groupAddress, int blockSize, int windowSize, FileChannel fileChannel) throws IOException {
+        this.key = key;
+        this.filename = filename;
+        this.groupAddress = groupAddress;
+        this.blockSize = blockSize;
+        this.windowSize = windowSize;
+        this.fileChannel = fileChannel;
+        this.fileSize = fileChannel.size();
+        // as it states in the RFC 1350, a DATA packet with less than a full block (even 0 bytes) ends the transfer
+        this.lastBlock = (int) (fileSize / blockSize) + 1;
+        this.dataPacket = ByteBuffer.allocateDirect(blockSize + PacketCodec.DATA_HEADER_SIZE);
+        this.channel = DatagramChannel.open(StandardProtocolFamily.INET);
+        channel.bind(null);
+        if (NETWORK_INTERFACE != null) {
+            channel.setOption(StandardSocketOptions.IP_MULTICAST_IF, NETWORK_INTERFACE);
+        }
+    }
+
+    // method to add the client of a RRQ with the multicast option to the group of its file (starting the group if
+    // there isn't one), returns false if the request should be served on its own instead (multicast is turned
+    // off, the file doesn't exist or is too big for a group)
+    public static boolean join(PacketCodec.Request request, InetAddress clientAddress, int clientPort) {
+        Map<String, String> options = request.options();
+        if (GROUP_ADDRESS == null || !options.containsKey("multicast")) {
+            return false;
+        }
+        File file = new File(request.filename());
+        if (!file.isFile()) {
+            // the session answers with File not found
+            return false;
+        }
+        // as it states in the RFC 2348 and RFC 7440, the server may choose smaller sizes than the ones requested
+        int blockSize = Math.min(number(options.get("blksize"), PacketCodec.DEFAULT_BLOCK_SIZE), PacketCodec.MAX_BLOCK_SIZE);
+        int windowSize = Math.min(number(options.get("windowsize"), 1), TFTPUDPServer.MAX_WINDOW_SIZE);
+        // a client that joins late can't tell which time around the block numbers a block is from, so files whose
+        // block numbers would roll over are sent to the client on its own
+        if (blockSize < 8 || windowSize < 1 || file.length() / blockSize + 1 > 0xFFFF) {
+            return false;
+        }
+        String key = file.getAbsolutePath() + "|" + blockSize + "|" + windowSize;
+        InetSocketAddress client = new InetSocketAddress(clientAddress, clientPort);
+
+        MulticastGroup group;
+        boolean master = false;
+        synchronized (groups) {
+            group = groups.get(key);
+            if (group == null) {
+                try {
+                    group = new MulticastGroup(key, request.filename(), nextGroupAddress(), blockSize, windowSize,
+                            FileChannel.open(file.toPath(), StandardOpenOption.READ));
+                } catch (IOException e) {
+                    Log.warn(clientAddress.getHostAddress() + ": Could not start a multicast group for " + request.filename() + " - " + e.getMessage());
+                    return false;
+                }
+                groups.put(key, group);
+                MulticastGroup newGroup = group;
+                Thread.ofVirtual().name("multicast-" + request.filename()).start(newGroup::run);
+            }
+            // a client that sends its request again (its OACK was lost) is only sent the OACK again
+            Member member = group.member(client);
+            if (member == null) {
+                master = group.members.isEmpty();
+                group.members.add(new Member(client, System.nanoTime(), master));
+                Metrics.sessionStarted();
+            } else {
+                master = member.toldMaster();
+            }
+        }
+
+        // the OACK tells the client the group, and whether it is the master
+        Map<String, String> acceptedOptions = new LinkedHashMap<>();
+        if (options.containsKey("blksize")) {
+            acceptedOptions.put("blksize", String.valueOf(blockSize));
+        }
+        if (options.containsKey("windowsize")) {
+            acceptedOptions.put("windowsize", String.valueOf(windowSize));
+        }
+        if (options.containsKey("tsize")) {
+            acceptedOptions.put("tsize", String.valueOf(group.fileSize));
+        }
+        acceptedOptions.put("multicast", group.groupAddress.getAddress().getHostAddress() + "," + group.groupAddress.getPort() + "," + (master ? 1 : 0));
+        try {
+            group.send(PacketCodec.encodeOptionAck(ByteBuffer.allocate(PacketCodec.MAX_REQUEST_SIZE), acceptedOptions), client);
+        } catch (IOException e) {
+            Log.warn(clientAddress.getHostAddress() + ": Could not answer the multicast request - " + e.getMessage());
+        }
+        Log.debug(clientAddress.getHostAddress() + ": Joined the multicast group of " + request.filename() + (master ? " as the master" : ""));
+        return true;
+    }
+
+    // method to find a client of the group (called holding the groups lock)
+    private Member member(InetSocketAddress client) {
+        for (Member member : members) {
+            if (member.address().equals(client)) {
+                return member;
+            }
+        }
+        return null;
+    }
+
+    // method to give every group a port of its own
+    private static InetSocketAddress nextGroupAddress() {
+        int port = nextPort;
+        nextPort = nextPort >= 0xFFFF ? FIRST_PORT : nextPort + 1;
+        return new InetSocketAddress(GROUP_ADDRESS, port);
+    }
+
+    private static int number(String value, int defaultValue) {
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    // method run by the group's thread, sends the file to the group until every client has left
+    private void run() {
+        DatagramSocket socket = channel.socket();
+        byte[] receiveData = new byte[PacketCodec.MAX_REQUEST_SIZE];
+        DatagramPacket receivePacket = new DatagramPacket(receiveData, receiveData.length);
+        flow = TrafficShaper.open(groupAddress.getAddress().getHostAddress());
+        try {
+            while (nextMaster()) {
+                socket.setSoTimeout(timer.getTimeout());
+                try {
+                    receivePacket.setLength(receiveData.length);
+                    socket.receive(receivePacket);
+                } catch (SocketTimeoutException e) {
+                    onTimeout();
+                    continue;
+                }
+                if (receivePacket.getLength() >= 4) {
+                    onPacket(ByteBuffer.wrap(receiveData, 0, receivePacket.getLength()), (InetSocketAddress) receivePacket.getSocketAddress());
+                }
+            }
+        } catch (IOException e) {
+            Log.warn("Multicast group of " + filename + " failed - " + e.getMessage());
+            synchronized (groups) {
+                while (!members.isEmpty()) {
+                    leave(members.peek().address(), false);
+                }
+            }
+        } finally {
+            flow.close();
+            synchronized (groups) {
+                groups.remove(key, this);
+            }
+            try {
+                channel.close();
+                fileChannel.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    // method to make the first client in line the master if the group has none, returns false once the group has
+    // no clients left (the group is removed then, so a new request starts a new group)
+    private boolean nextMaster() throws IOException {
+        Member first;
+        synchronized (groups) {
+            if (members.isEmpty()) {
+                groups.remove(key, this);
+                return false;
+            }
+            first = members.peek();
+        }
+        if (!first.address().equals(master)) {
+            master = first.address();
+            awaitingMaster = true;
+            retries = 0;
+            // the first client was told it is the master in its own OACK, the ones after it are told now
+            masterOffered = !first.toldMaster();
+            if (masterOffered) {
+                offerMaster();
+            }
+        }
+        return true;
+    }
+
+    // method to tell the client it is the master now, as it states in the RFC 2090 with an OACK without the address
+    private void offerMaster() throws IOException {
+        masterOfferedAt = System.nanoTime();
+        send(PacketCodec.encodeOptionAck(ByteBuffer.allocate(PacketCodec.MAX_REQUEST_SIZE), Map.of("multicast", ",,1")), master);
+        Log.debug(master.getAddress().getHostAddress() + ": Is the master client of " + filename + " now");
+    }
+
+    private void onPacket(ByteBuffer packet, InetSocketAddress client) throws IOException {
+        int opcode = PacketCodec.opcode(packet);
+        if (opcode == PacketCodec.ERROR) {
+            // the client gave up, the group carries on without it
+            Log.warn(client.getAddress().getHostAddress() + ": Error Code: " + PacketCodec.errorCode(packet) + ", Error Message: " + PacketCodec.errorMessage(packet));
+            synchronized (groups) {
+                leave(client, false);
+            }
+            return;
+        }
+        if (opcode != PacketCodec.ACK) {
+            return;
+        }
+        int acked = PacketCodec.blockNumber(packet);
+        if (!client.equals(master)) {
+            // a client that isn't the master only acknowledges the last block, once it has the whole file
+            if (acked == lastBlock) {
+                synchronized (groups) {
+                    leave(client, true);
+                }
+            }
+            return;
+        }
+        if (awaitingMaster) {
+            if (masterOffered) {
+                onRoundTrip(masterOfferedAt, retries > 0);
+            }
+            awaitingMaster = false;
+        } else if (acked < firstUnacked - 1 || acked >= nextBlock) {
+            // an old acknowledgment that arrived late (or one for a block never sent), ignored
+            return;
+        } else if (acked >= firstUnacked) {
+            onRoundTrip(windowSentAt, windowResent);
+        }
+        retries = 0;
+        if (acked >= lastBlock) {
+            // the master has the whole file, the next client in line takes over
+            synchronized (groups) {
+                leave(client, true);
+            }
+            return;
+        }
+        // the window starts after the last block the master has in order, which goes back to the first block it
+        // is missing if a block was lost (an ACK for firstUnacked - 1), or forward if it got blocks before it was
+        // the master
+        firstUnacked = acked + 1;
+        sendWindow();
+    }
+
+    private void onTimeout() throws IOException {
+        if (master == null) {
+            return;
+        }
+        Metrics.timedOut();
+        if (++retries > TransferSession.MAX_RETRIES) {
+            // the master is gone, the next client in line takes over
+            Log.warn(master.getAddress().getHostAddress() + ": Giving up on the multicast of " + filename + " after " + TransferSession.MAX_RETRIES + " retransmissions.");
+            synchronized (groups) {
+                leave(master, false);
+            }
+            return;
+        }
+        timer.onTimeout();
+        if (awaitingMaster) {
+            // the OACK that made the client the master is sent again (a client told in its own OACK sends its
+            // request again instead, see join())
+            if (masterOffered) {
+                Metrics.retransmitted();
+                offerMaster();
+            }
+            return;
+        }
+        if (Log.isEnabled(Log.Level.TRACE)) {
+            Log.trace(filename + ": Multicast retransmitting from Data Packet " + firstUnacked);
+        }
+        sendWindow();
+    }
+
+    // method to send the window from firstUnacked to the group
+    private void sendWindow() throws IOException {
+        windowSentAt = System.nanoTime();
+        windowResent = firstUnacked < nextBlock;
+        for (int block = firstUnacked; block < firstUnacked + windowSize && block <= lastBlock; block++) {
+            long offset = (long) (block - 1) * blockSize;
+            int length = (int) Math.min(blockSize, fileSize - offset);
+            PacketCodec.beginData(dataPacket, block);
+            dataPacket.limit(PacketCodec.DATA_HEADER_SIZE + length);
+            while (dataPacket.hasRemaining()) {
+                if (fileChannel.read(dataPacket, offset + dataPacket.position() - PacketCodec.DATA_HEADER_SIZE) < 0) {
+                    throw new IOException("File changed while it was being sent");
+                }
+            }
+            dataPacket.flip();
+            // the group has a thread of its own, so it waits for the bandwidth limits here
+            flow.acquire(dataPacket.remaining());
+            channel.send(dataPacket, groupAddress);
+            if (block == nextBlock) {
+                nextBlock++;
+                Metrics.blockSent(length);
+            } else {
+                Metrics.retransmitted();
+            }
+            if (Log.isEnabled(Log.Level.TRACE)) {
+                Log.trace(filename + ": Multicast Data Packet: " + block + ", Data Packet Size: " + length);
+            }
+        }
+    }
+
+    private void onRoundTrip(long sentAt, boolean resent) {
+        if (!resent) {
+            long rttNanos = System.nanoTime() - sentAt;
+            timer.onSample(rttNanos);
+            Metrics.roundTrip(rttNanos);
+        }
+    }
+
+    // method to remove a client from the group (called holding the groups lock), with its summary line
+    private void leave(InetSocketAddress client, boolean completed) {
+        Member member = member(client);
+        if (member != null) {
+            members.remove(member);
+            long nanos = System.nanoTime() - member.joinedAt();
+            Metrics.sessionEnded(completed, completed ? fileSize : 0, nanos);
+            if (Log.isEnabled(Log.Level.INFO)) {
+                Log.info(Log.summary(client.getAddress().getHostAddress(), "RRQ", filename, completed, completed ? fileSize : 0, nanos) + ", multicast");
+            }
+        }
+        if (client.equals(master)) {
+            master = null;
+        }
+    }
+
+    // method to send a packet to one client, from the group's TID
+    private void send(ByteBuffer packet, SocketAddress client) throws IOException {
+        channel.send(packet, client);
+    }
+}
@@ -0,0 +1,317 @@
+package server;
+
+// imports that are using in this project
+import common.Log;
+import common.PacketCodec;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// event-driven server mode...
+// instead of one thread per transfer, every session's DatagramChannel is registered with one of a few
+// reactor threads, each multiplexing thousands of sessions on a single Selector
+// a reactor never waits for the disk itself: a new session is started (its file opened, mapped or loaded into the
+// FileCache, its checkpoint read) by a worker thread before the reactor is handed it, and a session that forces its
+// file to disk (a checkpoint, the rename of a complete upload) does so on a worker too and waits for it without
+// being handed any packets (see TransferSession.offload)
+// two waits are left on the reactor, a page of a mapped file that was not loaded ahead in time (see
+// ReadSession.prefetch) and an upload whose disk falls behind by every chunk of its WriteBuffer
+class NioTransferEngine {
+    // how often the reactors check their sessions for timeouts, in milliseconds
+    public static int TIMER_TICK = 10;
+    // large enough for any packet a session can receive
+    public static int RECEIVE_BUFFER_SIZE = 65536;
+
+    // threads the sessions' blocking disk work is done on, a virtual thread per piece of work
+    private final ExecutorService diskWorkers = Executors.newVirtualThreadPerTaskExecutor();
+
+    private final Reactor[] reactors;
+    // round-robin index used to spread new sessions over the reactors
+    private int nextReactor = 0;
+
+    NioTransferEngine(int reactorCount) throws IOException {
+        reactors = new Reactor[Math.max(1, reactorCount)];
+        for (int i = 0; i < reactors.length; i++) {
+            reactors[i] = new Reactor();
+        }
+    }
+
+    // method to run the engine, the calling thread becomes the first reactor and also owns the listener
+    public void run(int port) throws IOException {
+        // datagramChannel to listen for incoming requests on the server port
+        DatagramChannel listener = DatagramChannel.open();
+        listener.bind(new InetSocketAddress(port));
+        listener.configureBlocking(false);
+        listener.register(reactors[0].selector, SelectionKey.OP_READ);
+
+        for (int i = 1; i < reactors.length; i++) {
+            Thread reactorThread = new Thread(reactors[i], "tftp-reactor-" + i);
+            reactorThread.setDaemon(true);
+            reactorThread.start();
+        }
+        Log.info("Server listening on port " + port + " (NIO mode, " + reactors.length + " reactor threads)...");
+        reactors[0].run();
+    }
+
+    // a session's channel together with the time at which it times out
+    private static class ChannelSession {
+        final TransferSession session;
+        final DatagramChannel channel;
+        long deadline;
+
+        ChannelSession(TransferSession session, DatagramChannel channel) {
+            this.session = session;
+            this.channel = channel;
+        }
+
+        void resetDeadline() {
+            deadline = System.nanoTime() + session.getTimeout() * 1_000_000L;
+        }
+    }
+
+    // a single thread that owns a selector and all the sessions registered with it
+    private class Reactor implements Runnable {
+        final Selector selector;
+        // sessions handed over by the listener once they have started, registered by the reactor thread itself
+        final Queue<ChannelSession> pending = new ConcurrentLinkedQueue<>();
+        // continuations of disk work handed back by the disk workers, run by the reactor thread itself
+        final Queue<Runnable> resumed = new ConcurrentLinkedQueue<>();
+        // one receive buffer shared by every session of this reactor
+        final ByteBuffer receiveBuffer = ByteBuffer.allocateDirect(RECEIVE_BUFFER_SIZE);
+        long nextSweep = 0;
+
+        Reactor() throws IOException {
+            selector = Selector.open();
+        }
+
+        // method to hand a new session over to this reactor (may be called from another reactor or a disk worker)
+        void submit(ChannelSession channelSession) {
+            pending.add(channelSession);
+            selector.wakeup();
+        }
+
+        // method to run a session's disk work on a disk worker, then to hand its continuation back to this reactor
+        void offload(ChannelSession channelSession, TransferSession.BlockingTask task, TransferSession.Continuation then) {
+            // the session is handed no packets until the work is done, they wait on its channel
+            channelSession.channel.keyFor(selector).interestOps(0);
+            diskWorkers.execute(() -> {
+                IOException failure = null;
+                try {
+                    task.run();
+                } catch (IOException e) {
+                    failure = e;
+                } catch (RuntimeException e) {
+                    // the session can't be left waiting for work that will never finish
+                    failure = new IOException(e);
+                }
+                IOException result = failure;
+                resumed.add(() -> resume(channelSession, then, result));
+                selector.wakeup();
+            });
+        }
+
+        public void run() {
+            while (true) {
+                try {
+                    selector.select(TIMER_TICK);
+                    registerPending();
+                    runResumed();
+
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        if (!key.isValid()) {
+                            continue;
+                        }
+                        if (key.attachment() == null) {
+                            acceptRequests((DatagramChannel) key.channel());
+                        } else {
+                            readPackets((ChannelSession) key.attachment());
+                        }
+                    }
+
+                    long now = System.nanoTime();
+                    if (now - nextSweep >= 0) {
+                        sweepTimeouts(now);
+                        nextSweep = now + TIMER_TICK * 1_000_000L;
+                    }
+                } catch (IOException e) {
+                    // an output error message, the reactor keeps on serving the other sessions
+                    e.printStackTrace();
+                }
+            }
+        }
+
+        // method to read every pending request from the listener and start a session for each RRQ/WRQ
+        private void acceptRequests(DatagramChannel listener) throws IOException {
+            SocketAddress source;
+            while (true) {
+                receiveBuffer.clear();
+                source = listener.receive(receiveBuffer);
+                if (source == null) {
+                    return;
+                }
+                receiveBuffer.flip();
+                InetSocketAddress client = (InetSocketAddress) source;
+
+                // an output message when a connection is made with the received packet data
+                if (Log.isEnabled(Log.Level.DEBUG)) {
+                    Log.debug("Received packet from " + client.getAddress().getHostAddress() + ": " + client.getPort());
+                }
+
+                if (receiveBuffer.remaining() < 2) {
+                    continue;
+                }
+                // extract opcode from the received packet
+                int opcode = PacketCodec.opcode(receiveBuffer);
+                if (opcode != PacketCodec.RRQ && opcode != PacketCodec.WRQ) {
+                    // an output error message if the server receives any invalid opcode
+                    Log.warn("Ignoring unsupported opcode: " + opcode);
+                    continue;
+                }
+                TransferSession session;
+                try {
+                    session = TransferSession.fromRequest(receiveBuffer, client.getAddress(), client.getPort());
+                } catch (IllegalArgumentException e) {
+                    // a request that is cut short only drops that request, the reactor carries on
+                    TransferSession.rejectRequest(client.getAddress(), client.getPort(), e.getMessage());
+                    continue;
+                } catch (RuntimeException e) {
+                    Log.warn(client.getAddress().getHostAddress() + ": Dropped request - " + e);
+                    continue;
+                }
+                if (session == null) {
+                    continue;
+                }
+
+                // as it states in the RFC 1350, every transfer gets its own TID (a new channel on an ephemeral port)
+                DatagramChannel channel = DatagramChannel.open();
+                channel.bind(null);
+                channel.connect(client);
+                channel.configureBlocking(false);
+
+                // spread the sessions over the reactors, a disk worker opens the file and sends the first packet
+                // first (the channel isn't registered yet, packets from the client wait on it until it is)
+                Reactor reactor = reactors[nextReactor];
+                nextReactor = (nextReactor + 1) % reactors.length;
+                ChannelSession channelSession = new ChannelSession(session, channel);
+                diskWorkers.execute(() -> {
+                    try {
+                        session.start(PacketSender.of(channel));
+                        reactor.submit(channelSession);
+                    } catch (IOException | RuntimeException e) {
+                        fail(channelSession, e);
+                    }
+                });
+            }
+        }
+
+        // method to register the sessions handed to this reactor, they have sent their first packet already
+        private void registerPending() {
+            ChannelSession channelSession;
+            while ((channelSession = pending.poll()) != null) {
+                ChannelSession registered = channelSession;
+                try {
+                    registered.channel.register(selector, SelectionKey.OP_READ, registered);
+                    registered.session.setDiskWorker((task, then) -> offload(registered, task, then));
+                    registered.resetDeadline();
+                    closeIfFinished(registered);
+                } catch (IOException e) {
+                    fail(registered, e);
+                }
+            }
+        }
+
+        // method to carry on with the sessions whose disk work is done
+        private void runResumed() {
+            Runnable continuation;
+            while ((continuation = resumed.poll()) != null) {
+                continuation.run();
+            }
+        }
+
+        private void resume(ChannelSession channelSession, TransferSession.Continuation then, IOException failure) {
+            try {
+                channelSession.channel.keyFor(selector).interestOps(SelectionKey.OP_READ);
+                then.resume(failure);
+                channelSession.resetDeadline();
+            } catch (IOException e) {
+                fail(channelSession, e);
+                return;
+            }
+            // the packets that arrived while the session was waiting are still on its channel
+            readPackets(channelSession);
+        }
+
+        // method to hand every packet waiting on a session's channel to its state machine
+        private void readPackets(ChannelSession channelSession) {
+            try {
+                while (!channelSession.session.isFinished() && !channelSession.session.isWaitingForDisk()) {
+                    receiveBuffer.clear();
+                    if (channelSession.channel.read(receiveBuffer) <= 0) {
+                        break;
+                    }
+                    receiveBuffer.flip();
+                    if (receiveBuffer.remaining() < 4) {
+                        continue;
+                    }
+                    channelSession.session.onPacket(receiveBuffer);
+                    channelSession.resetDeadline();
+                }
+                closeIfFinished(channelSession);
+            } catch (IOException e) {
+                fail(channelSession, e);
+            }
+        }
+
+        // method to fire the timeout of every session that has been quiet for too long
+        // (the keys of sessions closed since the last select are still in the key set, cancelled, and are skipped)
+        private void sweepTimeouts(long now) {
+            for (SelectionKey key : selector.keys()) {
+                if (!key.isValid() || !(key.attachment() instanceof ChannelSession channelSession) || now - channelSession.deadline < 0
+                        || channelSession.session.isWaitingForDisk()) {
+                    continue;
+                }
+                try {
+                    channelSession.session.onTimeout();
+                    channelSession.resetDeadline();
+                    closeIfFinished(channelSession);
+                } catch (IOException e) {
+                    fail(channelSession, e);
+                }
+            }
+        }
+
+        private void closeIfFinished(ChannelSession channelSession) {
+            if (channelSession.session.isFinished()) {
+                close(channelSession);
+            }
+        }
+
+        private void fail(ChannelSession channelSession, Exception e) {
+            // an output error message if the session fails, the other sessions carry on
+            Log.warn(channelSession.session.getClientHost() + ": Transfer failed - " + e.getMessage());
+            close(channelSession);
+        }
+
+        private void close(ChannelSession channelSession) {
+            channelSession.session.close();
+            try {
+                // closing the channel also cancels its selection key
+                channelSession.channel.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package server;
+
+// imports that are using in this project
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+
+// the way a session puts packets on the wire...
+// in both server modes this is the session's DatagramChannel, connected to the client
+interface PacketSender {
+    // sends the bytes between the buffer's position and limit to the client of the session
+    void send(ByteBuffer packet) throws IOException;
+
+    // sends the buffers one after the other as a single datagram (a gathering write), so a DATA header and
+    // a slice of the file can go out together without being copied into one packet buffer first
+    void send(ByteBuffer[] packetParts) throws IOException;
+
+    // method to create the sender for a session's channel
+    static PacketSender of(DatagramChannel channel) {
+        return new PacketSender() {
+            @Override
+            public void send(ByteBuffer packet) throws IOException {
+                channel.write(packet);
+            }
+
+            @Override
+            public void send(ByteBuffer[] packetParts) throws IOException {
+                channel.write(packetParts);
+            }
+        };
+    }
+}
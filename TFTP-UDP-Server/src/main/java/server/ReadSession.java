@@ -0,0 +1,433 @@
+package server;
+
+// imports that are using in this project
+import common.Log;
+import common.Metrics;
+import common.PacketCodec;
+import common.SackScoreboard;
+import common.TrafficShaper;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// state machine for a read request (RRQ)...
+// sends a window of DATA packets (one unless the windowsize option was negotiated), waits for the
+// acknowledgment of the window, then sends the next one
+// the file is memory-mapped, so any block can be sent (or sent again) straight from the mapping, and the part of
+// the mapping the next windows are sent from is loaded into memory ahead of time by another thread (see prefetch())
+//
+// with the range option the client asks for part of the file only, e.g. "range" "1048576-2097152" is the bytes
+// from offset 1048576 up to (not including) 2097152, block 1 is then the first block of the range
+// a client downloads a large file over several sessions at once this way, each session fetching its own range
+// (the client learns the size of the file first with the tsize option of the RFC 2349)
+// the resume option is the same from a byte offset to the end of the file, a client that already has the first
+// bytes of the file (from a transfer that died) asks for the rest
+//
+// with the sack option the client's acknowledgments report the blocks it holds past a missing one (see
+// SackScoreboard), and only the missing blocks are sent again instead of the rest of the window
+class ReadSession extends TransferSession {
+    // largest part of a file mapped at once, bigger files are mapped in several parts
+    public static int MAX_MAPPING_SIZE = 1 << 30;
+    // how much of the file is loaded into memory ahead of the next block sent
+    public static int READ_AHEAD = 4 * 1024 * 1024;
+
+    // the mapped range of the file (the whole file without the range option), split in parts of mappingSize
+    // bytes (a whole number of blocks, so no block is split)
+    private ByteBuffer[] fileMappings;
+    private int mappingSize;
+    // whether fileMappings are mappings of the file, a file from the FileCache is in memory already (its direct
+    // buffer is a MappedByteBuffer too, so the type doesn't tell them apart)
+    private boolean mapped;
+    private long fileSize;
+    // the part of the file that is sent, the offset of its first byte and its length
+    private long rangeOffset;
+    private long rangeLength;
+    // header of the DATA packet being sent, and the header and file data sent together as one datagram
+    private final ByteBuffer dataHeader = ByteBuffer.allocateDirect(PacketCodec.DATA_HEADER_SIZE);
+    private final ByteBuffer[] dataPacket = new ByteBuffer[2];
+    // when each packet of the window was sent, and whether it has been sent more than once (Karn's algorithm)
+    // block n is kept in slot n % windowSize
+    private final long[] sentAt = new long[windowSize];
+    private final boolean[] resent = new boolean[windowSize];
+    // the OACK, kept until the client acknowledges it with ACK 0
+    private ByteBuffer optionAckPacket;
+    private long optionAckSentAt;
+    private boolean optionAckResent;
+    // first block of the file that hasn't been acknowledged yet
+    private int firstUnacked = 1;
+    // next block of the file that hasn't been sent yet
+    private int nextBlock = 1;
+    // the final (short) block of the file
+    private int lastBlock;
+    // the blocks the client has reported with the sack option (null without it)
+    private SackScoreboard scoreboard;
+    // offset in the range up to which the file has been (or is being) loaded ahead, and whether a thread is loading it
+    private long prefetchedUpTo;
+    private final AtomicBoolean prefetching = new AtomicBoolean();
+    // the session's share of the bandwidth limits (see TrafficShaper), when the limits hold back the rest of a window
+    // it is sent from shapedFrom once shapedUntil has passed (0 while nothing is held back)
+    private TrafficShaper.Flow flow;
+    private int shapedFrom;
+    private boolean shapedOnlyMissing;
+    private long shapedUntil;
+
+    ReadSession(PacketCodec.Request request, InetAddress clientAddress, int clientPort) {
+        super(request, clientAddress, clientPort);
+    }
+
+    @Override
+    protected void onStart() throws IOException {
+        // an output message of the file that has been requested by the client
+        Log.debug(getClientHost() + ": Received read request for file - " + filename);
+
+        // check if the file exists
+        File file = new File(filename);
+        if (!file.exists()) {
+            // method to send an Error message to the client (Error code 1 - File not Found)
+            // as the requirement says, only error handle for file not found
+            sendErrorPacket(1, "File not found ");
+            Log.warn(getClientHost() + ": ERROR FILE NOT FOUND - " + filename);
+            finish();
+            return;
+        }
+        mapFile(file);
+        // blocks are counted in an int (the offsets of the file are 64 bits), that is 1 TB with 512 byte blocks but
+        // less with tiny ones
+        if (rangeLength / blockSize >= Integer.MAX_VALUE) {
+            sendErrorPacket(0, "File too large for block size " + blockSize);
+            Log.warn(getClientHost() + ": ERROR FILE TOO LARGE - " + filename);
+            finish();
+            return;
+        }
+        // the session's share of the bandwidth limits, given back when it is closed
+        flow = TrafficShaper.open(getClientHost());
+        // the client holds the blocks and reports them, the server only has to remember what it reported
+        if (selectiveAcks) {
+            scoreboard = new SackScoreboard(windowSize);
+        }
+
+        // as it states in the RFC 2347, if options were accepted the client has to acknowledge the OACK (as block 0) first
+        if (!acceptedOptions.isEmpty()) {
+            optionAckPacket = createOptionAcknowledgment();
+            optionAckSentAt = System.nanoTime();
+            sender.send(optionAckPacket);
+            Log.debug(getClientHost() + ": Sent Option Acknowledgment " + acceptedOptions);
+            return;
+        }
+        sendWindow(false);
+    }
+
+    // method to map the file (or the range of it that was asked for) into memory, the mappings stay valid after
+    // the channel is closed, popular files are served from the FileCache instead
+    private void mapFile(File file) throws IOException {
+        ByteBuffer cachedContent = FileCache.get(file);
+        if (cachedContent != null) {
+            fileSize = cachedContent.limit();
+            negotiateRange();
+            // the whole range is a single part
+            mappingSize = (int) (rangeLength / blockSize + 1) * blockSize;
+            fileMappings = new ByteBuffer[] {cachedContent.slice((int) rangeOffset, (int) rangeLength)};
+            mapped = false;
+        } else {
+            try (FileChannel fileChannel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                fileSize = fileChannel.size();
+                negotiateRange();
+                mappingSize = Math.max(1, MAX_MAPPING_SIZE / blockSize) * blockSize;
+                fileMappings = new ByteBuffer[(int) (rangeLength / mappingSize) + 1];
+                for (int i = 0; i < fileMappings.length; i++) {
+                    long offset = (long) i * mappingSize;
+                    fileMappings[i] = fileChannel.map(FileChannel.MapMode.READ_ONLY, rangeOffset + offset, Math.min(mappingSize, rangeLength - offset));
+                }
+                mapped = true;
+            }
+        }
+        // as it states in the RFC 1350, a DATA packet with less than a full block (even 0 bytes) ends the transfer
+        lastBlock = (int) (rangeLength / blockSize) + 1;
+    }
+
+    // method to answer the tsize, range and resume options once the size of the file is known
+    private void negotiateRange() {
+        rangeOffset = 0;
+        rangeLength = fileSize;
+        // as it states in the RFC 2349, the client sends a tsize of 0 in a RRQ and the server answers with the size
+        if (requestedOptions.containsKey("tsize")) {
+            acceptedOptions.put("tsize", String.valueOf(fileSize));
+        }
+        String resume = requestedOptions.get("resume");
+        if (resume != null) {
+            negotiateResume(resume);
+            return;
+        }
+        String range = requestedOptions.get("range");
+        if (range == null) {
+            return;
+        }
+        // a range that isn't "offset-end" is ignored (the whole file is sent), the end is cut at the end of the file
+        int dash = range.indexOf('-');
+        try {
+            long start = Long.parseLong(range.substring(0, dash).trim());
+            long end = Math.min(Long.parseLong(range.substring(dash + 1).trim()), fileSize);
+            if (start < 0 || start > end) {
+                return;
+            }
+            rangeOffset = start;
+            rangeLength = end - start;
+            acceptedOptions.put("range", start + "-" + end);
+        } catch (NumberFormatException | StringIndexOutOfBoundsException e) {
+            // not a range, ignored like any other option the server doesn't understand
+        }
+    }
+
+    // method to send the file from the offset the client asks for, an offset past the end of the file is ignored
+    // (the client then gets the whole file again)
+    private void negotiateResume(String resume) {
+        try {
+            long offset = Long.parseLong(resume.trim());
+            if (offset < 0 || offset > fileSize) {
+                return;
+            }
+            rangeOffset = offset;
+            rangeLength = fileSize - offset;
+            acceptedOptions.put("resume", String.valueOf(offset));
+        } catch (NumberFormatException e) {
+            // not an offset, ignored
+        }
+    }
+
+    // method to send any block of the file, the data goes from the mapping to the channel without being copied
+    private void sendBlock(int block, boolean firstTime) throws IOException {
+        int slot = block % windowSize;
+        if (firstTime) {
+            sentAt[slot] = System.nanoTime();
+            resent[slot] = false;
+        } else {
+            resent[slot] = true;
+        }
+        long offset = (long) (block - 1) * blockSize;
+        int length = (int) Math.min(blockSize, rangeLength - offset);
+        ByteBuffer fileData = fileMappings[(int) (offset / mappingSize)];
+        int position = (int) (offset % mappingSize);
+        fileData.limit(position + length).position(position);
+
+        dataPacket[0] = PacketCodec.endData(PacketCodec.beginData(dataHeader, PacketCodec.wireBlockNumber(block, rollover)));
+        dataPacket[1] = fileData;
+        sender.send(dataPacket);
+        if (scoreboard != null) {
+            scoreboard.sent(block);
+        }
+        if (firstTime) {
+            bytesTransferred += length;
+            Metrics.blockSent(length);
+        } else {
+            retransmitted();
+        }
+        // an output message of the DATA packets and its corresponding block number sent to the client along with its size
+        if (Log.isEnabled(Log.Level.TRACE)) {
+            Log.trace(getClientHost() + ": Sent for Packet: " + block + ", Data Packet Size: " + length);
+        }
+    }
+
+    // method to (re)send every block of the current window
+    // as it states in the RFC 7440, after an acknowledgment for block n the next window starts at block n + 1
+    // with the sack option the blocks the client holds are skipped, and after an acknowledgment (rather than a
+    // timeout) only the blocks reported missing are sent again, the others are still on their way
+    private void sendWindow(boolean onlyMissing) throws IOException {
+        sendWindow(firstUnacked, onlyMissing);
+    }
+
+    // method to send the blocks of the current window from the given block on, as far as the bandwidth limits allow
+    // the session can't wait for the limits (a reactor thread runs many sessions), so the rest of the window is held
+    // back and the session asks to be woken up when it can be sent (see getTimeout)
+    private void sendWindow(int from, boolean onlyMissing) throws IOException {
+        shapedUntil = 0;
+        for (int block = from; block < firstUnacked + windowSize && block <= lastBlock; block++) {
+            boolean firstTime = block == nextBlock;
+            if (!firstTime && scoreboard != null && (scoreboard.isReported(block) || onlyMissing && !scoreboard.isMissing(block))) {
+                continue;
+            }
+            long wait = flow.reserve(PacketCodec.DATA_HEADER_SIZE + Math.min(blockSize, rangeLength - (long) (block - 1) * blockSize));
+            if (wait > 0) {
+                shapedFrom = block;
+                shapedOnlyMissing = onlyMissing;
+                shapedUntil = System.nanoTime() + wait;
+                break;
+            }
+            if (firstTime) {
+                nextBlock++;
+            }
+            sendBlock(block, firstTime);
+        }
+        prefetch();
+    }
+
+    // while the bandwidth limits hold back part of the window, the session is woken up when it can be sent
+    @Override
+    public int getTimeout() {
+        if (shapedUntil != 0) {
+            return (int) Math.max(1, (shapedUntil - System.nanoTime() + 999_999) / 1_000_000);
+        }
+        return super.getTimeout();
+    }
+
+    // method to load the part of the file the next windows are sent from into memory on another thread
+    // sending a block whose pages aren't in memory yet waits for the disk (a page fault on the session's thread,
+    // or on the reactor thread in NIO mode), so the pages are loaded ahead of the transfer instead
+    // a file from the FileCache is in memory already
+    private void prefetch() {
+        if (!mapped) {
+            return;
+        }
+        long sendingFrom = (long) (nextBlock - 1) * blockSize;
+        long target = Math.min(sendingFrom + READ_AHEAD, rangeLength);
+        // a new load is started once half of the data loaded ahead has been sent, not after every window
+        if (prefetchedUpTo >= Math.min(sendingFrom + READ_AHEAD / 2, rangeLength) || !prefetching.compareAndSet(false, true)) {
+            return;
+        }
+        // the parts of the mappings to load, cut here as the session keeps moving the position of the mappings
+        long from = Math.max(prefetchedUpTo, sendingFrom);
+        prefetchedUpTo = target;
+        List<MappedByteBuffer> parts = new ArrayList<>(2);
+        for (long offset = from; offset < target; ) {
+            MappedByteBuffer mapping = (MappedByteBuffer) fileMappings[(int) (offset / mappingSize)];
+            int position = (int) (offset % mappingSize);
+            int length = (int) Math.min(mapping.capacity() - position, target - offset);
+            parts.add(mapping.duplicate().clear().slice(position, length));
+            offset += length;
+        }
+        Thread.ofVirtual().name("prefetch").start(() -> {
+            try {
+                for (MappedByteBuffer part : parts) {
+                    part.load();
+                }
+            } finally {
+                prefetching.set(false);
+            }
+        });
+    }
+
+    @Override
+    public void onPacket(ByteBuffer packet) throws IOException {
+        // extract opcode from the received packet
+        int opcode = PacketCodec.opcode(packet);
+
+        // check opcode for Acknowledgment packet (opcode 4)
+        if (opcode == PacketCodec.ACK) {
+            int ackedBlock = PacketCodec.blockNumber(packet);
+
+            // the acknowledgment of the OACK
+            if (optionAckPacket != null) {
+                if (ackedBlock == 0) {
+                    if (!optionAckResent) {
+                        onRoundTrip(System.nanoTime() - optionAckSentAt);
+                    }
+                    optionAckPacket = null;
+                    retries = 0;
+                    sendWindow(false);
+                }
+                return;
+            }
+
+            // find the block (the last one acknowledged up to the last one sent) the ACK is for, the block numbers
+            // roll over after 65535
+            int acked = (int) PacketCodec.blockAfter(firstUnacked - 1, ackedBlock, rollover);
+            if (acked >= nextBlock) {
+                // duplicate ACK for an older block, as it states in the RFC 1350 we don't resend on these
+                return;
+            }
+            if (scoreboard != null) {
+                scoreboard.record(packet, acked, nextBlock - 1);
+            }
+            if (acked == firstUnacked - 1) {
+                // the last acknowledgment again, the client repeats it when a block after it is missing
+                // with the sack option it says which blocks are missing, so those are sent again, without it it could
+                // just be a duplicate and as it states in the RFC 1350 we don't resend on these
+                if (scoreboard != null) {
+                    sendWindow(true);
+                }
+                return;
+            }
+            // an output message of the ACK packet and its corresponding block number sent from the client
+            if (Log.isEnabled(Log.Level.TRACE)) {
+                Log.trace(getClientHost() + ": Acknowledgment Received For Packet " + acked);
+            }
+            retries = 0;
+            // measure the round trip of the acknowledged block, unless it was retransmitted
+            if (!resent[acked % windowSize]) {
+                onRoundTrip(System.nanoTime() - sentAt[acked % windowSize]);
+            }
+            firstUnacked = acked + 1;
+
+            if (acked == lastBlock) {
+                // the file was sent, the session logs its summary line when it is closed
+                if (Log.isEnabled(Log.Level.DEBUG)) {
+                    Log.debug(FileCache.stats());
+                }
+                complete();
+                return;
+            }
+            // if the ACK is for a block in the middle of the window the rest of the window was lost, so go back to it
+            // (with the sack option only to the blocks reported missing)
+            sendWindow(scoreboard != null);
+        }
+        // check opcode for ERROR packet (opcode 5)
+        else if (opcode == PacketCodec.ERROR) {
+            // method to handle Error sent from the client
+            handleError(packet);
+            finish();
+        } else {
+            // an output error message if an unexpected error occurs...
+            Log.warn(getClientHost() + ": Unexpected response received from client.");
+            finish();
+        }
+    }
+
+    @Override
+    public void onTimeout() throws IOException {
+        // not a timeout, the rest of the window the bandwidth limits held back can be sent now
+        if (shapedUntil != 0) {
+            sendWindow(shapedFrom, shapedOnlyMissing);
+            return;
+        }
+        // handle timeout (no acknowledgment received within timeout duration)
+        if (++retries > MAX_RETRIES) {
+            Log.warn(getClientHost() + ": Giving up on " + filename + " after " + MAX_RETRIES + " retransmissions.");
+            finish();
+            return;
+        }
+        if (Log.isEnabled(Log.Level.DEBUG)) {
+            Log.debug(getClientHost() + ": Socket timeout. No acknowledgment received for packet " + firstUnacked);
+        }
+        timedOut();
+        // back off the retransmission timer
+        timer.onTimeout();
+        if (optionAckPacket != null) {
+            // retransmit the OACK
+            retransmitted();
+            optionAckResent = true;
+            optionAckPacket.rewind();
+            sender.send(optionAckPacket);
+            return;
+        }
+        // go back to the last acknowledged block and retransmit the window
+        if (Log.isEnabled(Log.Level.TRACE)) {
+            Log.trace(getClientHost() + ": Retransmitting from Data Packet " + firstUnacked);
+        }
+        sendWindow(false);
+    }
+
+    @Override
+    protected void onClose() {
+        // the file was closed once mapped (or read from the cache), the mappings are released when the session is garbage collected
+        fileMappings = null;
+        if (flow != null) {
+            flow.close();
+        }
+    }
+}
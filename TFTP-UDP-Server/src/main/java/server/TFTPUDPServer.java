@@ -1,43 +1,117 @@
 package server;
 
 // imports that are using in this project
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
+import common.BufferPool;
+import common.Log;
+import common.Metrics;
+import common.PacketCodec;
+import common.TrafficShaper;
 import java.io.IOException;
 import java.net.DatagramPacket;
 import java.net.DatagramSocket;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
 import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 public class TFTPUDPServer {
     // as the requirements says, any port above 1024
     public static int serverPort = 9000;
-    // as the requirements says, packet size will be 512 (excluding headers)
-    public static int MAX_BYTES = 512;
-    public static int RRQ = 1;
-    public static int WRQ = 2;
-    public static int DATA = 3;
-    public static int ACK = 4;
-    public static int  ERROR = 5;
+    // largest window the server agrees to with the windowsize option (RFC 7440), limits the memory kept per session
+    public static int MAX_WINDOW_SIZE = 64;
 
-    // timeout set to 60 seconds
+    // the listener reports when no request has arrived for 60 seconds
+    // (transfers use their own retransmission timer, see RetransmitTimer)
     public static int TIMEOUT = 60000;
 
+    // every transfer runs as its own session on a virtual thread, so thousands of transfers can run at once
+    // and the listener on port 9000 only has to accept new requests
+    public static ExecutorService sessionExecutor = Executors.newVirtualThreadPerTaskExecutor();
+
     public static void main(String[] args) {
+        // the server mode can be chosen on the command line:
+        // "threaded" (default) runs every transfer on its own virtual thread
+        // "nio" multiplexes every transfer on a few reactor threads, e.g. "nio 4", the disk work of a transfer (opening
+        // its file, checkpoints) is done by worker threads, but a reactor can still wait on a page of a mapped file
+        // or on a disk that falls behind an upload (see NioTransferEngine)
+        // "-retries <n>" sets how many timeouts in a row a transfer survives
+        // "-reorder <n>" sets how many blocks of an upload are held ahead of a missing one (and the sack option)
+        // "-cache <megabytes>" sets the size of the in-memory cache of served files (0 turns it off)
+        // "-metrics <port>" serves the Metrics as text on http://localhost:<port>/metrics (they are always in JMX)
+        // "-multicast <address>" sends the files asked for with the multicast option to groups on that address
+        // (RFC 2090), "-multicast-if <name>" the network interface they are sent on
+        // "-rate <KB/s>", "-client-rate <KB/s>" and "-session-rate <KB/s>" limit the file data sent by the whole server,
+        // to each client address and by each transfer (see TrafficShaper, they can be changed later through JMX),
+        // "-weight <address>=<n>" gives a client n times the share of a limit of the others
+        // "-log <level>" sets what is logged, "info" (default) is a line per transfer, "trace" is a line per packet
+        String serverMode = "threaded";
+        int reactorCount = 1;
+        int metricsPort = 0;
+        String multicastAddress = null;
+        String multicastInterface = null;
+        long serverRate = 0;
+        long clientRate = 0;
+        long sessionRate = 0;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-retries")) {
+                TransferSession.MAX_RETRIES = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("-reorder")) {
+                TransferSession.REORDER_BLOCKS = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("-cache")) {
+                FileCache.MAX_CACHE_SIZE = Long.parseLong(args[++i]) * 1024 * 1024;
+            } else if (args[i].equals("-metrics")) {
+                metricsPort = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("-multicast")) {
+                multicastAddress = args[++i];
+            } else if (args[i].equals("-multicast-if")) {
+                multicastInterface = args[++i];
+            } else if (args[i].equals("-rate")) {
+                serverRate = Long.parseLong(args[++i]) * 1024;
+            } else if (args[i].equals("-client-rate")) {
+                clientRate = Long.parseLong(args[++i]) * 1024;
+            } else if (args[i].equals("-session-rate")) {
+                sessionRate = Long.parseLong(args[++i]) * 1024;
+            } else if (args[i].equals("-weight")) {
+                TrafficShaper.parseWeight(args[++i]);
+            } else if (args[i].equals("-log")) {
+                Log.level = Log.Level.parse(args[++i]);
+            } else if (args[i].equals("threaded") || args[i].equals("nio")) {
+                serverMode = args[i];
+            } else {
+                reactorCount = Integer.parseInt(args[i]);
+            }
+        }
+        TrafficShaper.setRates(serverRate, clientRate, sessionRate);
+        startMetrics(metricsPort);
+        if (multicastAddress != null) {
+            startMulticast(multicastAddress, multicastInterface);
+        }
+        if (serverMode.equals("nio")) {
+            try {
+                new NioTransferEngine(reactorCount).run(serverPort);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            return;
+        }
+
         try {
             // datagramSocket to listen for incoming packets on port 9000
             DatagramSocket serverSocket = new DatagramSocket(serverPort);
 
             serverSocket.setSoTimeout(TIMEOUT);
 
-            System.out.println("Server listening on port 9000...");
+            Log.info("Server listening on port 9000...");
 
             while (true) {
                 try {
                     // byte array to hold incoming data
-                    // set buffer size to maximum packet size
-                    byte[] receiveData = new byte[MAX_BYTES];
+                    // set buffer size to maximum request size
+                    byte[] receiveData = new byte[PacketCodec.MAX_REQUEST_SIZE];
 
                     // datagramPacket to receive incoming packets
                     DatagramPacket receivePacket = new DatagramPacket(receiveData, receiveData.length);
@@ -53,30 +127,28 @@ public class TFTPUDPServer {
                     int clientPort = receivePacket.getPort();
 
                     // an output message when a connection is made with the received packet data
-                    System.out.println("Received packet from " + clientAddress.getHostAddress() + ": " + clientPort);
+                    if (Log.isEnabled(Log.Level.DEBUG)) {
+                        Log.debug("Received packet from " + clientAddress.getHostAddress() + ": " + clientPort);
+                    }
 
                     // extract opcode from the received packet
-                    short opcode = (short) (((receiveData[0] & 0xFF) << 8) | (receiveData[1] & 0xFF));
+                    ByteBuffer requestPacket = ByteBuffer.wrap(receiveData, 0, receivePacket.getLength());
+                    int opcode = receivePacket.getLength() >= 2 ? PacketCodec.opcode(requestPacket) : 0;
 
-                    // check if it's a read request (RRQ)
-                    if (opcode == RRQ) {
-                        // method to handle read request
-                        handleReadRequest(serverSocket, receiveData, receivePacket.getLength(), clientAddress, clientPort);
-                    }
-                    // check if it's a write request (WRQ)
-                    else if (opcode == WRQ) {
-                        // method to handle write request
-                        handleWriteRequest(serverSocket, receiveData, receivePacket.getLength(), clientAddress, clientPort);
+                    // check if it's a read request (RRQ) or a write request (WRQ)
+                    if (opcode == PacketCodec.RRQ || opcode == PacketCodec.WRQ) {
+                        // method to start a new transfer session for the request
+                        startSession(requestPacket, clientAddress, clientPort);
                     }
                     // ignore other types of requests (Errors are handled further down the code in methods)
                     else {
                         // an output error message if the server receives any invalid opcode (user enters any invalid options)
-                        System.err.println("Ignoring unsupported opcode: " + opcode);
+                        Log.warn("Ignoring unsupported opcode: " + opcode);
                     }
                 } catch (SocketTimeoutException e) {
                     // an output error message if socket timeout occurs...
                     // the server will still be listening for any packets in-case any arrive
-                    System.err.println("Socket timeout. No packet received within 60 seconds.");
+                    Log.debug("Socket timeout. No packet received within 60 seconds.");
                 }
             }
         } catch (IOException e) {
@@ -84,258 +156,109 @@ public class TFTPUDPServer {
         }
     }
 
-    // method to handle read requests...
-    public static void handleReadRequest(DatagramSocket serverSocket, byte[] requestData, int requestLength, InetAddress clientAddress, int clientPort) throws IOException {
-        // extract filename from the packet (skip opcode and null byte)
-        String requestDataString = new String(requestData, 2, requestLength - 2);
-        String[] requestDataParts = requestDataString.split("\0"); // Split by null byte
-        String filename = requestDataParts[0]; // First part is the filename
-        // an output message of the file that has been requested by the client
-        System.out.println(clientAddress.getHostAddress() + ": Received read request for file - " + filename);
-
-        // check if the file exists
-        File file = new File(filename);
-        if (!file.exists()) {
-            // method to send an Error message to the server (Error code 1 - File not Found)
-            // as the requirement says, only error handle for file not found
-            sendErrorPacket(serverSocket, clientAddress, clientPort, (short) 1, "File not found ");
-            System.err.println(clientAddress.getHostAddress() + ": ERROR FILE NOT FOUND - " + filename);
-            return;
-        }
-
-        // buffer for file data
-        // set buffer size to maximum packet size
-        byte[] buffer = new byte[MAX_BYTES];
-        int bytesRead;
-        // initial block number
-        short blockNumber = 1;
-
-        // fileInputStream to read the content of the file
-        FileInputStream fileInputStream = new FileInputStream(file);
-
-        // read file data and send it in data packets
-        while ((bytesRead = fileInputStream.read(buffer)) != -1) {
-            // structure of the DATA Packet as mentioned in the RFC1350
-            // 2 bytes     2 bytes      n bytes
-            //  ----------------------------------
-            // | Opcode |   Block #  |   Data     |
-            //  ----------------------------------
-            byte[] dataPacketData = new byte[bytesRead + 4];
-
-            //opcode for Data Packet (03)
-            dataPacketData[0] = 0;
-            dataPacketData[1] = (byte) DATA;
-            dataPacketData[2] = (byte) (blockNumber >> 8);
-            dataPacketData[3] = (byte) blockNumber;
-            // copy file data into data packet
-            for (int i = 0; i < bytesRead; i++) {
-                dataPacketData[i + 4] = buffer[i];
-            }
-            // send data packet to client
-            DatagramPacket dataPacket = new DatagramPacket(dataPacketData, dataPacketData.length, clientAddress, clientPort);
-            serverSocket.send(dataPacket);
-
-            // an output message of the DATA packets and its corresponding block number sent to the client along with its size
-            System.out.println(clientAddress.getHostAddress() + ": Sent for Packet: " + blockNumber + ", Data Packet Size: " + (dataPacket.getLength()-4));
-
-            // acknowledgment packet size is 4 bytes
-            byte[] ackData = new byte[4];
-            DatagramPacket ackPacketFromClient = new DatagramPacket(ackData, ackData.length);
-
-            // wait for acknowledgment packet from the client with a timeout
+    // method to publish the Metrics of the transfers, with the file cache's counters alongside them
+    private static void startMetrics(int httpPort) {
+        Metrics.gauge("cache_hits", FileCache::getHits);
+        Metrics.gauge("cache_misses", FileCache::getMisses);
+        Metrics.gauge("cache_evictions", FileCache::getEvictions);
+        Metrics.gauge("cache_bytes", FileCache::getCachedBytes);
+        Metrics.gauge("cache_files", FileCache::getCachedFiles);
+        Metrics.gauge("shaper_flows", TrafficShaper::getFlows);
+        Metrics.gauge("shaper_deferred_sends", TrafficShaper::getDeferrals);
+        Metrics.registerMBean("udp-server");
+        TrafficShaper.registerMBean("udp-server");
+        if (httpPort > 0) {
             try {
-                serverSocket.receive(ackPacketFromClient);
-
-                // extract opcode from acknowledgment packet
-                short opcode = (short) ((ackData[0] << 8) | (ackData[1] & 0xFF));
-                // check opcode for Acknowledgment packet (opcode 4)
-                if (opcode != ACK) {
-                    // an output error message if an unexpected error occurs...
-                    System.err.println(clientAddress.getHostAddress() + ": Unexpected response received from client.");
-                    return;
-                } else {
-                    // an output message of the ACK packet and its corresponding block number sent from the client
-                    System.out.println(clientAddress.getHostAddress() + ": Acknowledgment Received For Packet " + blockNumber);
-                }
-            } catch (SocketTimeoutException e) {
-                // handle timeout exception (no acknowledgment received within timeout duration)
-                System.err.println("Socket timeout. No acknowledgment received within 60 seconds for packet " + blockNumber);
-                // retransmit the data packet
-                System.out.println("Retransmitting Data Packet " + blockNumber);
-                // retransmit the same data packet
-                serverSocket.send(dataPacket);
-                continue;
+                Metrics.serveHttp(httpPort);
+            } catch (IOException e) {
+                Log.error("Could not serve the metrics on port " + httpPort + ": " + e.getMessage());
             }
-            // increasing the block number by one for the next packet
-            blockNumber++;
         }
-        System.out.println(clientAddress.getHostAddress() + ": End of file transfer.");
-        // close FileInputStream
-        fileInputStream.close();
-        // an output message if the file transfer was successful
-        System.out.println(clientAddress.getHostAddress() + ": File sent to client successfully");
     }
 
-    //method to handle write request
-    public static void handleWriteRequest(DatagramSocket serverSocket, byte[] requestData, int requestLength, InetAddress clientAddress, int clientPort) throws IOException {
-        // extract filename from the packet (skip opcode and null byte)
-        String requestDataString = new String(requestData, 2, requestLength - 2);
-        String[] requestDataParts = requestDataString.split("\0"); // Split by null byte
-        // extract filename
-        String filename = requestDataParts[0];
-
-        // an output message for receiving the request with the filename
-        System.out.println(clientAddress.getHostAddress() + ": Received write request for file - " + filename);
-
-        // initial block number
-        int blockNumber = 0;
-
-        // sends acknowledgment packet to the client indicating it's ready for file transfer
-        // structure of the ACK Packet as mentioned in the RFC1350
-        // 2 bytes     2 bytes
-        //  ---------------------
-        // | Opcode |   Block #  |
-        //  ---------------------
-        byte[] ackPacket = {0, (byte) ACK, 0, 0};
-        DatagramPacket ackDatagram = new DatagramPacket(ackPacket, ackPacket.length, clientAddress, clientPort);
-        serverSocket.send(ackDatagram);
-
-        // an output message of the ACK packets and its corresponding block number sent to the client
-        System.out.println(clientAddress.getHostAddress() + ": Acknowledgment sent for Packet: " + blockNumber);
-
-        // fileOutputStream to write received file data to a local file (current directory as the requirement says)
-        FileOutputStream fileOutputStream = new FileOutputStream(filename);
-
-        while (true) {
-            // byte array to receive response from the client
-            // set buffer size to maximum packet size + 4 as we are receiving DatagramPackets size 516...
-            byte[] receiveData = new byte[MAX_BYTES + 4];
-
-            // datagramPacket to receive the file data from the client
-            DatagramPacket receivePacket = new DatagramPacket(receiveData, receiveData.length);
-
-            try {
-                // receive a packet from the client
-                serverSocket.receive(receivePacket);
-            } catch (SocketTimeoutException e) {
-                // handle timeout exception
-                System.err.println(clientAddress.getHostAddress() + ": Timeout - Did not receive expected packet from client.");
-
-                // retransmit the acknowledgment for the previous block
-                byte[] ackData = {0, (byte) ACK, (byte) (blockNumber >> 8), (byte) (blockNumber & 0xFF)};
-                DatagramPacket ackPacketRetransmit = new DatagramPacket(ackData, ackData.length, clientAddress, clientPort);
-                serverSocket.send(ackPacketRetransmit);
-                System.out.println(clientAddress.getHostAddress() + ": Retransmitted acknowledgment for Packet: " + blockNumber);
-                continue;
-            }
-
-            // extract the opcode from the received packet
-            short opcode = (short) (((receiveData[0] & 0xFF) << 8) | (receiveData[1] & 0xFF));
-
-            // check opcode for Data packet (opcode 3)
-            if (opcode == DATA) {
-                // extract block number from the received packet
-                int receivedBlockNumber = ((receiveData[2] & 0xFF) << 8) | (receiveData[3] & 0xFF);
-
-                // if the received block number is the expected one, write data to file
-                if (receivedBlockNumber == blockNumber + 1) {
-                    // write received file data to local file
-                    fileOutputStream.write(receiveData, 4, receivePacket.getLength() - 4);
-
-                    // increasing the block number by one for the next packet
-                    blockNumber++;
-                    // an output message of the DATA packets and its corresponding block number sent from the client along with its size
-                    System.out.println(clientAddress.getHostAddress() + ": Received Data Packet: " + blockNumber + ", Data Packet Size: " + (receivePacket.getLength() - 4));
-
-                    // send acknowledgment packet to the client for the received block
-                    // structure of the ACK Packet as mentioned in the RFC1350
-                    // 2 bytes     2 bytes
-                    //  ---------------------
-                    // | Opcode |   Block #  |
-                    //  ---------------------
-                    byte[] ackData = {0, (byte) ACK, (byte) (receivedBlockNumber >> 8), (byte) (receivedBlockNumber & 0xFF)};
-                    DatagramPacket ackPacketToSend = new DatagramPacket(ackData, ackData.length, clientAddress, clientPort);
-                    serverSocket.send(ackPacketToSend);
-                    // an output message of the ACK packets and its corresponding block number sent to the client
-                    System.out.println(clientAddress.getHostAddress() + ": Acknowledgment sent for Packet: " + blockNumber);
-
-                    // as it states in the RFC 1350, if the size of the file is less than 516, it signals the end of the transfer
-                    if (receivePacket.getLength() < MAX_BYTES + 4) {
-                        System.out.println(clientAddress.getHostAddress() + ": End of file transfer.");
-                        // close the fileOutputStream
-                        fileOutputStream.close();
-                        // an output message if the file transfer was successful
-                        System.out.println(clientAddress.getHostAddress() + ": File received from client successfully.");
-                        break;
-                    }
-                } else {
-                    // an output error message if an error occurs with potentially 2 things:
-                    // * receiving packet with different block number to the expected block number
-                    // * receiving duplicate packets
-                    // both are ignored but still an output message is there
-                    System.err.println(clientAddress.getHostAddress() + ": Received out-of-order or duplicate packet. Ignoring.");
-                }
+    // method to turn on the multicast option, the address has to be a multicast address (e.g. 239.255.42.69)
+    private static void startMulticast(String address, String interfaceName) {
+        try {
+            InetAddress groupAddress = InetAddress.getByName(address);
+            if (!groupAddress.isMulticastAddress()) {
+                Log.error(address + " is not a multicast address, the multicast option stays off");
+                return;
             }
-            // check opcode for ERROR packet (opcode 5)
-            else if (opcode == ERROR) {
-                // close the fileOutputStream
-                fileOutputStream.close();
-                // method to handle Error sent from the client
-                handleError(receivePacket, clientAddress);
-                // deletes the file that was created above as an error has occurred
-                File filepath = new File(filename);
-                filepath.delete();
-                break;
+            if (interfaceName != null) {
+                MulticastGroup.NETWORK_INTERFACE = NetworkInterface.getByName(interfaceName);
             }
+            MulticastGroup.GROUP_ADDRESS = groupAddress;
+            Log.info("Multicast groups on " + address + " from port " + MulticastGroup.FIRST_PORT);
+        } catch (IOException e) {
+            Log.error("Could not turn on the multicast option: " + e.getMessage());
         }
     }
 
-    // method to create and send Error packets to the client
-    // structure of the ERROR Packet as mentioned in the RFC1350
-    // 2 bytes     2 bytes      string    1 byte
-    //  -----------------------------------------
-    // | Opcode |  ErrorCode |   ErrMsg   |   0  |
-    //  -----------------------------------------
-    public static void sendErrorPacket(DatagramSocket socket, InetAddress address, int port, int errorCode, String errorMessage) throws IOException {
-        // opcode (2 bytes) + error code (2 bytes) + error message + null terminator
-        int packetLength = 4 + errorMessage.length() + 1;
-
-        // byte array to hold the error packet
-        byte[] sendData = new byte[packetLength];
-
-        // write the opcode for error packet (05)
-        sendData[0] = 0;
-        sendData[1] = (byte) ERROR;
-
-        // write the error code
-        sendData[2] = (byte) (errorCode >> 8);
-        sendData[3] = (byte) errorCode;
-
-        // write the error message
-        byte[] errorMessageBytes = errorMessage.getBytes();
-        for (int i = 0; i < errorMessageBytes.length; i++) {
-            sendData[4 + i] = errorMessageBytes[i];
+    // method to start a new transfer session...
+    // as it states in the RFC 1350, each side of a transfer chooses its own transfer identifier (TID),
+    // so every session gets a fresh channel on an ephemeral port and port 9000 is only used for requests
+    public static void startSession(ByteBuffer requestPacket, InetAddress clientAddress, int clientPort) {
+        TransferSession session;
+        try {
+            session = TransferSession.fromRequest(requestPacket, clientAddress, clientPort);
+        } catch (IllegalArgumentException e) {
+            // a request that is cut short only drops that request, the listener carries on
+            TransferSession.rejectRequest(clientAddress, clientPort, e.getMessage());
+            return;
+        } catch (RuntimeException e) {
+            Log.warn(clientAddress.getHostAddress() + ": Dropped request - " + e);
+            return;
         }
-        // write the null terminator
-        sendData[packetLength-1] = 0;
-
-        // datagramPacket and sends the packet
-        DatagramPacket sendPacket = new DatagramPacket(sendData, sendData.length, address, port);
-        socket.send(sendPacket);
-        // an output message for sending an ERROR packet to the client
-        System.out.println("Error Packet sent to the client");
+        if (session == null) {
+            return;
+        }
+        sessionExecutor.execute(() -> {
+            // the session channel only talks to the client that made the request
+            // (a channel rather than a plain socket, so DATA packets can be sent with a gathering write)
+            try (DatagramChannel sessionChannel = DatagramChannel.open()) {
+                sessionChannel.bind(null);
+                sessionChannel.connect(new InetSocketAddress(clientAddress, clientPort));
+                // method to drive the session until the transfer is over
+                runSession(sessionChannel, session);
+            } catch (IOException e) {
+                // an output error message if the session fails, the other sessions carry on
+                Log.warn(clientAddress.getHostAddress() + ": Transfer failed - " + e.getMessage());
+            } finally {
+                session.close();
+            }
+        });
     }
 
-    // method to handle Error sent from the client
-    public static void handleError(DatagramPacket receivePacket, InetAddress clientAddress) {
-        // extract error code from the received packet
-        short errorCode = (short) ((receivePacket.getData()[2] << 8) | (receivePacket.getData()[3] & 0xFF));
+    // method to drive a session from its own thread (thread-per-session mode)...
+    // blocks on the session channel and hands every packet or timeout to the session's state machine
+    public static void runSession(DatagramChannel sessionChannel, TransferSession session) throws IOException {
+        // the channel's socket is used for receiving, as it supports a receive timeout
+        DatagramSocket sessionSocket = sessionChannel.socket();
+        // buffer to receive packets from the client, reused for the whole transfer
+        ByteBuffer receiveBuffer = BufferPool.acquire(session.getMaxPacketSize());
+        DatagramPacket receivePacket = new DatagramPacket(receiveBuffer.array(), receiveBuffer.capacity());
 
-        // extract error message from the received packet
-        String errorMessage = new String(receivePacket.getData(), 4, receivePacket.getLength() - 6);
+        try {
+            // send the first packet of the transfer through the session channel
+            session.start(PacketSender.of(sessionChannel));
 
-        // an output error message of the Error Code and the Error Message
-        System.err.println(clientAddress.getHostAddress() + ": Error Code: " + errorCode);
-        System.err.println(clientAddress.getHostAddress() + ": Error Message: " + errorMessage);
+            while (!session.isFinished()) {
+                sessionSocket.setSoTimeout(session.getTimeout());
+                try {
+                    receivePacket.setLength(receiveBuffer.capacity());
+                    sessionSocket.receive(receivePacket);
+                } catch (SocketTimeoutException e) {
+                    session.onTimeout();
+                    continue;
+                }
+                // ignore anything too short to carry an opcode and a block number / error code
+                if (receivePacket.getLength() >= 4) {
+                    receiveBuffer.clear().limit(receivePacket.getLength());
+                    session.onPacket(receiveBuffer);
+                }
+            }
+        } finally {
+            BufferPool.release(receiveBuffer);
+        }
     }
-}
\ No newline at end of file
+}
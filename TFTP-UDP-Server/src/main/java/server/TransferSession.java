@@ -0,0 +1,312 @@
+package server;
+
+// imports that are using in this project
+import common.BufferPool;
+import common.Log;
+import common.Metrics;
+import common.PacketCodec;
+import common.RetransmitTimer;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// a single RRQ or WRQ transfer written as a state machine...
+// the session never waits on a socket itself, it is driven by either a thread of its own (thread-per-session mode)
+// or by a reactor thread (NIO mode) which hands it every packet and every timeout
+// every session adds what it does to the server's Metrics, and logs a summary line when it ends
+abstract class TransferSession {
+    // as it states in the RFC 1350, a packet is retransmitted after a timeout, but we give up at some point
+    // (the timeout is at least RetransmitTimer.MIN_TIMEOUT and doubles every time, so 8 retries wait at least
+    // 511 times that, over a minute and a half, however short the round trip is)
+    public static int MAX_RETRIES = 8;
+    // most blocks a receiving session holds ahead of a missing one (see ReorderBuffer), and the most the server
+    // agrees to with the sack option, change with "-reorder <n>" (0 drops every block that isn't the next one)
+    public static int REORDER_BLOCKS = 64;
+
+    protected final InetAddress clientAddress;
+    protected final int clientPort;
+    protected final String filename;
+    // "RRQ" or "WRQ", for the log
+    private final String requestType;
+    protected PacketSender sender;
+
+    // options sent by the client after the mode (RFC 2347), keyed by lower case option name
+    protected final Map<String, String> requestedOptions;
+    // options the server agreed to, sent back to the client in an OACK
+    protected final Map<String, String> acceptedOptions = new LinkedHashMap<>();
+    // number of data bytes in a full DATA packet, 512 unless the blksize option was negotiated
+    protected int blockSize = PacketCodec.DEFAULT_BLOCK_SIZE;
+    // number of DATA packets sent before waiting for an acknowledgment, 1 unless the windowsize option was negotiated
+    protected int windowSize = 1;
+    // retransmission timeout, adapts to the round trip time unless the timeout option was negotiated
+    protected RetransmitTimer timer = new RetransmitTimer();
+    // blocks the receiver holds out of order, and whether the acknowledgments report them (the sack option)
+    protected int reorderBlocks = REORDER_BLOCKS;
+    protected boolean selectiveAcks;
+    // the block number sent after block 65535, 0 unless the rollover option asked for 1 (see PacketCodec.wireBlockNumber)
+    protected int rollover;
+
+    // set once the transfer is complete or has been abandoned, and whether it was complete
+    private boolean finished;
+    private boolean completed;
+    // when the session started and how many bytes of the file it has moved so far, for the Metrics
+    private long startedAt;
+    protected long bytesTransferred;
+    // packets sent again and timeouts over the whole session, for the summary line
+    private int retransmits;
+    private int timeouts;
+    // set once close() has released the session's file and buffers
+    private boolean closed;
+    // number of timeouts in a row without any progress
+    protected int retries;
+    // runs the session's blocking disk work on another thread (null: the thread driving the session does it), and
+    // whether the session is waiting for that work, it is handed no packets and no timeouts until then
+    private DiskWorker diskWorker;
+    private boolean waitingForDisk;
+
+    // disk work that may keep the thread doing it waiting, e.g. forcing a file to disk
+    @FunctionalInterface
+    interface BlockingTask {
+        void run() throws IOException;
+    }
+
+    // what the session does once its disk work is done, failure is null if the work succeeded
+    @FunctionalInterface
+    interface Continuation {
+        void resume(IOException failure) throws IOException;
+    }
+
+    // the NIO engine runs the disk work of its sessions on worker threads, so a reactor never waits for the disk,
+    // and hands the continuation back to the session's reactor once the work is done
+    @FunctionalInterface
+    interface DiskWorker {
+        void submit(BlockingTask task, Continuation then);
+    }
+
+    protected TransferSession(PacketCodec.Request request, InetAddress clientAddress, int clientPort) {
+        this.clientAddress = clientAddress;
+        this.clientPort = clientPort;
+        this.filename = request.filename();
+        this.requestType = request.opcode() == PacketCodec.RRQ ? "RRQ" : "WRQ";
+        // after the filename and mode come the options as name and value pairs, e.g. "blksize", "1428"
+        this.requestedOptions = request.options();
+        negotiateOptions();
+    }
+
+    // method to decide which of the requested options the server accepts
+    protected void negotiateOptions() {
+        // as it states in the RFC 2348, the block size can be 8 to 65464 bytes and the server may choose a smaller one
+        Integer requestedBlockSize = requestedNumber("blksize");
+        if (requestedBlockSize != null && requestedBlockSize >= 8) {
+            blockSize = Math.min(requestedBlockSize, PacketCodec.MAX_BLOCK_SIZE);
+            acceptedOptions.put("blksize", String.valueOf(blockSize));
+        }
+        // as it states in the RFC 7440, the window size can be 1 to 65535 blocks and the server may choose a smaller one
+        Integer requestedWindowSize = requestedNumber("windowsize");
+        if (requestedWindowSize != null && requestedWindowSize >= 1) {
+            windowSize = Math.min(requestedWindowSize, TFTPUDPServer.MAX_WINDOW_SIZE);
+            acceptedOptions.put("windowsize", String.valueOf(windowSize));
+        }
+        // as it states in the RFC 2349, the timeout is 1 to 255 seconds, the server has to use the one requested
+        Integer requestedTimeout = requestedNumber("timeout");
+        if (requestedTimeout != null && requestedTimeout >= 1 && requestedTimeout <= 255) {
+            timer = RetransmitTimer.fixed(requestedTimeout * 1000);
+            acceptedOptions.put("timeout", String.valueOf(requestedTimeout));
+        }
+        // the sack option (an extension, see ReorderBuffer) is the number of blocks the receiver holds out of order,
+        // the server answers with fewer if it holds fewer itself
+        Integer requestedReorder = requestedNumber("sack");
+        if (requestedReorder != null && requestedReorder >= 1 && REORDER_BLOCKS >= 1) {
+            reorderBlocks = Math.min(Math.min(requestedReorder, REORDER_BLOCKS), PacketCodec.MAX_SACK_BLOCKS);
+            selectiveAcks = true;
+            acceptedOptions.put("sack", String.valueOf(reorderBlocks));
+        }
+        // the rollover option says what the block number goes back to after 65535, 0 or 1, files of more blocks than
+        // that are sent (and received) either way
+        Integer requestedRollover = requestedNumber("rollover");
+        if (requestedRollover != null && (requestedRollover == 0 || requestedRollover == 1)) {
+            rollover = requestedRollover;
+            acceptedOptions.put("rollover", String.valueOf(rollover));
+        }
+    }
+
+    // method to read a numeric option, options with a value that isn't a number are ignored
+    protected Integer requestedNumber(String option) {
+        String value = requestedOptions.get(option);
+        if (value == null) {
+            return null;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    // method to create the session for a RRQ or WRQ packet, null if the request needs no session of its own
+    public static TransferSession fromRequest(ByteBuffer requestPacket, InetAddress clientAddress, int clientPort) {
+        PacketCodec.Request request = PacketCodec.decodeRequest(requestPacket);
+        if (request.opcode() == PacketCodec.RRQ) {
+            // a RRQ with the multicast option joins the group its file is sent to (see MulticastGroup)
+            if (MulticastGroup.join(request, clientAddress, clientPort)) {
+                return null;
+            }
+            return new ReadSession(request, clientAddress, clientPort);
+        }
+        return new WriteSession(request, clientAddress, clientPort);
+    }
+
+    // method to answer a request that couldn't be read (see PacketCodec.decodeRequest) with an ERROR packet
+    // (code 4, illegal TFTP operation) from a TID of its own as a session would, no session is started for it
+    public static void rejectRequest(InetAddress clientAddress, int clientPort, String reason) {
+        Log.warn(clientAddress.getHostAddress() + ": Rejected request - " + reason);
+        try (DatagramChannel channel = DatagramChannel.open()) {
+            ByteBuffer errorPacket = BufferPool.acquire(PacketCodec.MAX_REQUEST_SIZE);
+            channel.send(PacketCodec.encodeError(errorPacket, 4, "Illegal TFTP operation"), new InetSocketAddress(clientAddress, clientPort));
+            BufferPool.release(errorPacket);
+        } catch (IOException e) {
+            // the client times out instead
+            Log.warn(clientAddress.getHostAddress() + ": Could not send the Error Packet - " + e.getMessage());
+        }
+    }
+
+    // sends the first packet of the transfer (DATA 1 for a read, ACK 0 for a write)
+    public final void start(PacketSender sender) throws IOException {
+        this.sender = sender;
+        startedAt = System.nanoTime();
+        Metrics.sessionStarted();
+        onStart();
+    }
+
+    protected abstract void onStart() throws IOException;
+
+    // method to hand the session's blocking disk work to a worker thread, called by the NIO engine once the
+    // session has started (onStart() itself is already run by a worker)
+    void setDiskWorker(DiskWorker diskWorker) {
+        this.diskWorker = diskWorker;
+    }
+
+    // method to do blocking disk work and carry on with then once it is done, straight away on the thread driving
+    // the session unless a DiskWorker was set
+    protected void offload(BlockingTask task, Continuation then) throws IOException {
+        if (diskWorker == null) {
+            IOException failure = null;
+            try {
+                task.run();
+            } catch (IOException e) {
+                failure = e;
+            }
+            then.resume(failure);
+            return;
+        }
+        waitingForDisk = true;
+        diskWorker.submit(task, failure -> {
+            waitingForDisk = false;
+            then.resume(failure);
+        });
+    }
+
+    public boolean isWaitingForDisk() {
+        return waitingForDisk;
+    }
+
+    // called with every packet received from the client on this session's TID
+    public abstract void onPacket(ByteBuffer packet) throws IOException;
+
+    // called when nothing has been received from the client within getTimeout()
+    public abstract void onTimeout() throws IOException;
+
+    // releases the session's file and gives its buffers back to the pool, only the first call does anything
+    public final void close() {
+        if (!closed) {
+            closed = true;
+            onClose();
+            if (startedAt != 0) {
+                long nanos = System.nanoTime() - startedAt;
+                Metrics.sessionEnded(completed, bytesTransferred, nanos);
+                logSummary(nanos);
+            }
+        }
+    }
+
+    // method to log one line for the whole transfer, e.g.
+    // "127.0.0.1: RRQ big.bin completed, 10485760 bytes in 412 ms (24.27 MB/s), 3 retransmits, 1 timeouts"
+    private void logSummary(long nanos) {
+        if (Log.isEnabled(Log.Level.INFO)) {
+            Log.info(Log.summary(getClientHost(), requestType, filename, completed, bytesTransferred, nanos)
+                    + ", " + retransmits + " retransmits, " + timeouts + " timeouts");
+        }
+    }
+
+    protected abstract void onClose();
+
+    // how long to wait for the next packet before onTimeout() is called, in milliseconds
+    public int getTimeout() {
+        return timer.getTimeout();
+    }
+
+    // the largest packet this session can receive from the client, a DATA packet or a selective ACK
+    public int getMaxPacketSize() {
+        return Math.max(blockSize + PacketCodec.DATA_HEADER_SIZE, PacketCodec.MAX_REQUEST_SIZE);
+    }
+
+    public boolean isFinished() {
+        return finished;
+    }
+
+    protected void finish() {
+        finished = true;
+    }
+
+    // method to end the session once the whole file has been transferred
+    protected void complete() {
+        completed = true;
+        finish();
+    }
+
+    // method to count a packet sent again (to the session's summary and to the Metrics)
+    protected void retransmitted() {
+        retransmits++;
+        Metrics.retransmitted();
+    }
+
+    // method to count a timeout (to the session's summary and to the Metrics)
+    protected void timedOut() {
+        timeouts++;
+        Metrics.timedOut();
+    }
+
+    // method to add a round trip measurement to the timer (and to the Metrics)
+    protected void onRoundTrip(long rttNanos) {
+        timer.onSample(rttNanos);
+        Metrics.roundTrip(rttNanos);
+    }
+
+    public String getClientHost() {
+        return clientAddress.getHostAddress();
+    }
+
+    // method to create the Option Acknowledgment packet for the accepted options
+    protected ByteBuffer createOptionAcknowledgment() {
+        return PacketCodec.encodeOptionAck(ByteBuffer.allocate(PacketCodec.MAX_REQUEST_SIZE), acceptedOptions);
+    }
+
+    // method to create and send Error packets to the client
+    protected void sendErrorPacket(int errorCode, String errorMessage) throws IOException {
+        ByteBuffer errorPacket = BufferPool.acquire(PacketCodec.MAX_REQUEST_SIZE);
+        sender.send(PacketCodec.encodeError(errorPacket, errorCode, errorMessage));
+        BufferPool.release(errorPacket);
+        // an output message for sending an ERROR packet to the client
+        Log.debug(getClientHost() + ": Error Packet sent to the client - " + errorMessage);
+    }
+
+    // method to handle Error sent from the client
+    protected void handleError(ByteBuffer packet) {
+        // an output error message of the Error Code and the Error Message
+        Log.warn(getClientHost() + ": Error Code: " + PacketCodec.errorCode(packet) + ", Error Message: " + PacketCodec.errorMessage(packet));
+    }
+}
@@ -0,0 +1,291 @@
+package server;
+
+// imports that are using in this project
+import common.Checkpoint;
+import common.Log;
+import common.Metrics;
+import common.PacketCodec;
+import common.ReorderBuffer;
+import common.WriteBuffer;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+// state machine for a write request (WRQ)...
+// acknowledges every window of DATA packets from the client (every packet unless the windowsize option
+// was negotiated) once it has been handed to the write-behind buffer, the disk is written by another thread
+// (see WriteBuffer) so a slow disk doesn't delay the acknowledgments
+//
+// the file is written as "<file>.part" and renamed once complete, if the transfer dies the part file is kept with
+// a checkpoint (see Checkpoint), and a client that sends the resume option is told the offset to continue from
+// a client that sends the tsize option gets a part file of the full size from the start
+// the part file belongs to one session (see Checkpoint.claim), a WRQ for a file that is still being written is
+// refused, and the last block is only acknowledged once the file has been given its real name
+//
+// blocks that arrive ahead of a missing one are held (see ReorderBuffer) and written once it arrives, with the sack
+// option the acknowledgments tell the client which blocks are held so it only sends the missing ones again
+class WriteSession extends TransferSession {
+    // write-behind buffer in front of the part file the received file data is written to (current directory as the requirement says)
+    private WriteBuffer out;
+    // the part file and how much of it is known to be on disk, and whether this session has claimed the part file
+    private Checkpoint checkpoint;
+    private boolean claimed;
+    // the blocks received, written to out in order
+    private ReorderBuffer reorder;
+    // last block acknowledged
+    private long ackedUpTo;
+    // reused for every acknowledgment sent to the client (big enough for a selective ACK)
+    private final ByteBuffer ackPacket = ByteBuffer.allocate(PacketCodec.MAX_REQUEST_SIZE);
+    // the packet (OACK or ACK) that is retransmitted if the next DATA packet doesn't arrive
+    private ByteBuffer lastPacket;
+    // number of blocks received since the last acknowledgment was sent
+    private int blocksSinceAck = 0;
+    // set once an acknowledgment has been sent for a gap in the window, so a burst of out-of-order packets only causes one
+    private boolean gapAcked;
+    // when the last acknowledgment (or OACK) was sent, and whether it has been sent more than once (Karn's algorithm)
+    // the time until the next DATA packet arrives is a round trip
+    private long lastPacketSentAt;
+    private boolean lastPacketResent;
+
+    WriteSession(PacketCodec.Request request, InetAddress clientAddress, int clientPort) {
+        super(request, clientAddress, clientPort);
+    }
+
+    @Override
+    protected void onStart() throws IOException {
+        // an output message for receiving the request with the filename
+        Log.debug(getClientHost() + ": Received write request for file - " + filename);
+
+        // another session is writing the same file, its part file is left alone
+        if (!Checkpoint.claim(filename)) {
+            sendErrorPacket(2, "Access violation - file is being written");
+            Log.warn(getClientHost() + ": Refused write request for " + filename + ", it is already being written");
+            finish();
+            return;
+        }
+        claimed = true;
+
+        // as the resume option, the client is told where to continue from (0 if there is nothing to resume)
+        if (requestedOptions.containsKey("resume")) {
+            checkpoint = Checkpoint.load(filename);
+            acceptedOptions.put("resume", String.valueOf(checkpoint.offset()));
+            if (checkpoint.offset() > 0) {
+                Log.info(getClientHost() + ": Resuming " + filename + " from byte " + checkpoint.offset());
+            }
+        } else {
+            checkpoint = Checkpoint.start(filename);
+        }
+        // as it states in the RFC 2349, the client sends the size of the file in a WRQ and the server sends it back
+        long fileSize = requestedSize();
+        if (fileSize >= 0) {
+            Path directory = Path.of(filename).toAbsolutePath().getParent();
+            if (fileSize - checkpoint.offset() > Files.getFileStore(directory).getUsableSpace()) {
+                // the file can't fit, the client is told before it sends anything
+                sendErrorPacket(3, "Disk full or allocation exceeded");
+                Log.warn(getClientHost() + ": Not enough space for " + filename + " (" + fileSize + " bytes)");
+                finish();
+                return;
+            }
+            acceptedOptions.put("tsize", String.valueOf(fileSize));
+        }
+        out = checkpoint.open(fileSize);
+        reorder = new ReorderBuffer(blockSize, Math.min(reorderBlocks, windowSize - 1), rollover);
+
+        // as it states in the RFC 2347, if options were accepted the OACK takes the place of ACK 0
+        if (!acceptedOptions.isEmpty()) {
+            lastPacket = createOptionAcknowledgment();
+            lastPacketSentAt = System.nanoTime();
+            lastPacketResent = false;
+            sender.send(lastPacket);
+            Log.debug(getClientHost() + ": Sent Option Acknowledgment " + acceptedOptions);
+            return;
+        }
+        // sends acknowledgment packet to the client indicating it's ready for file transfer
+        sendAck();
+    }
+
+    // method to read the tsize option, -1 if the client didn't send the size of the file
+    private long requestedSize() {
+        String value = requestedOptions.get("tsize");
+        if (value == null) {
+            return -1;
+        }
+        try {
+            return Math.max(-1, Long.parseLong(value.trim()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    // method to send the acknowledgment for the last block written (with the blocks held after it, with the sack option)
+    private void sendAck() throws IOException {
+        blocksSinceAck = 0;
+        ackedUpTo = reorder.inOrder();
+        lastPacket = reorder.encodeAck(ackPacket, selectiveAcks);
+        lastPacketSentAt = System.nanoTime();
+        lastPacketResent = false;
+        sender.send(ackPacket);
+        // an output message of the ACK packets and its corresponding block number sent to the client
+        if (Log.isEnabled(Log.Level.TRACE)) {
+            Log.trace(getClientHost() + ": Acknowledgment sent for Packet: " + ackedUpTo);
+        }
+    }
+
+    @Override
+    public void onPacket(ByteBuffer packet) throws IOException {
+        // extract the opcode from the received packet
+        int opcode = PacketCodec.opcode(packet);
+
+        // check opcode for Data packet (opcode 3)
+        if (opcode == PacketCodec.DATA) {
+            // extract block number from the received packet
+            int receivedBlockNumber = PacketCodec.blockNumber(packet);
+            int dataLength = PacketCodec.dataLength(packet);
+
+            // the next block in order is written to the file along with the blocks held after it, a block ahead of
+            // a missing one is held
+            long written = reorder.accept(packet, out);
+            if (written == ReorderBuffer.DROPPED) {
+                // an output error message if an error occurs with potentially 2 things:
+                // * receiving packet too far ahead of the expected block number
+                // * receiving duplicate packets
+                // both are ignored but still an output message is there
+                if (Log.isEnabled(Log.Level.DEBUG)) {
+                    Log.debug(getClientHost() + ": Received duplicate or out-of-window packet " + receivedBlockNumber + ". Ignoring.");
+                }
+                // as it states in the RFC 7440, the client is told the last block received in order, so it goes back to the next one
+                if (!gapAcked) {
+                    gapAcked = true;
+                    sendAck();
+                }
+                return;
+            }
+            // the first block after an acknowledgment gives a round trip measurement
+            if (blocksSinceAck == 0 && !lastPacketResent) {
+                onRoundTrip(System.nanoTime() - lastPacketSentAt);
+            }
+            blocksSinceAck++;
+            retries = 0;
+            Metrics.blockReceived(dataLength);
+            // an output message of the DATA packets and its corresponding block number sent from the client along with its size
+            if (Log.isEnabled(Log.Level.TRACE)) {
+                Log.trace(getClientHost() + ": Received Data Packet: " + receivedBlockNumber + ", Data Packet Size: " + dataLength);
+            }
+
+            if (written == ReorderBuffer.HELD) {
+                // a block is missing, the client is told once which one (and which blocks are held after it)
+                if (!gapAcked) {
+                    gapAcked = true;
+                    sendAck();
+                }
+                return;
+            }
+            // the block and the held blocks after it have been written
+            bytesTransferred += written;
+
+            if (reorder.isComplete()) {
+                // force the file to disk and give it its real name, readers never see half of it
+                // the last block is acknowledged only then, so the client isn't told the file arrived if it can't be saved
+                offload(() -> checkpoint.complete(out, filename), failure -> {
+                    if (failure != null) {
+                        sendErrorPacket(0, "Could not save the file");
+                        throw failure;
+                    }
+                    sendAck();
+                    // the file was received, the session logs its summary line when it is closed
+                    complete();
+                });
+                return;
+            }
+            // as it states in the RFC 7440, the acknowledgment is sent once the whole window has arrived
+            // a missing block that arrived with blocks still missing after it is acknowledged straight away, so the
+            // client learns about the next one
+            if (reorder.inOrder() - ackedUpTo >= windowSize || reorder.hasGap()) {
+                // every few megabytes the data received so far is saved as a checkpoint, before the
+                // acknowledgment so the client doesn't send the next window while it is forced to disk
+                if (checkpoint.due(out.position())) {
+                    offload(() -> checkpoint.save(out), failure -> {
+                        if (failure != null) {
+                            throw failure;
+                        }
+                        sendAck();
+                    });
+                } else {
+                    sendAck();
+                }
+            }
+            gapAcked = reorder.hasGap();
+        }
+        // check opcode for ERROR packet (opcode 5)
+        else if (opcode == PacketCodec.ERROR) {
+            // method to handle Error sent from the client
+            handleError(packet);
+            abort();
+        }
+    }
+
+    @Override
+    public void onTimeout() throws IOException {
+        // handle timeout
+        if (++retries > MAX_RETRIES) {
+            Log.warn(getClientHost() + ": Giving up on " + filename + " after " + MAX_RETRIES + " retransmissions.");
+            abort();
+            return;
+        }
+        Log.debug(getClientHost() + ": Timeout - Did not receive expected packet from client.");
+        timedOut();
+        // back off the retransmission timer
+        timer.onTimeout();
+        // retransmit the acknowledgment (or OACK) for the previous block
+        retransmitted();
+        lastPacketResent = true;
+        lastPacket.rewind();
+        sender.send(lastPacket);
+        if (Log.isEnabled(Log.Level.TRACE)) {
+            Log.trace(getClientHost() + ": Retransmitted acknowledgment for Packet: " + ackedUpTo);
+        }
+    }
+
+    // method to stop the transfer as an error has occurred, the part file is kept (with a checkpoint) so the
+    // client can resume it, unless nothing was received
+    private void abort() throws IOException {
+        if (out == null) {
+            // the session never got to write, there is no part file of its own to keep
+            close();
+            finish();
+            return;
+        }
+        offload(() -> checkpoint.keep(out), failure -> {
+            try {
+                if (failure != null) {
+                    throw failure;
+                }
+                if (out.position() > 0) {
+                    Log.info(getClientHost() + ": Kept " + out.position() + " bytes of " + filename + " to resume");
+                }
+            } finally {
+                close();
+                finish();
+            }
+        });
+    }
+
+    @Override
+    protected void onClose() {
+        try {
+            // close the part file
+            if (out != null) {
+                out.close();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            // another session can write the file now
+            if (claimed) {
+                Checkpoint.release(filename);
+            }
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package server;
+
+// imports that are using in this project
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+import common.PacketCodec;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class TFTPUDPServerTest {
+    @TempDir
+    Path directory;
+
+    // method to hand a RRQ for the file to startSession as the listener would, the client is a socket of the test
+    private static void requestFile(DatagramSocket client, Path file) {
+        ByteBuffer request = PacketCodec.encodeRequest(ByteBuffer.allocate(PacketCodec.MAX_REQUEST_SIZE), PacketCodec.RRQ, file.toString(), "octet", Map.of());
+        TFTPUDPServer.startSession(request, client.getLocalAddress(), client.getLocalPort());
+    }
+
+    // method to receive the first DATA packet of a transfer and acknowledge it, which ends a one block transfer
+    private static DatagramPacket receiveBlock(DatagramSocket client) throws IOException {
+        DatagramPacket packet = new DatagramPacket(new byte[PacketCodec.MAX_REQUEST_SIZE], PacketCodec.MAX_REQUEST_SIZE);
+        client.receive(packet);
+        ByteBuffer data = ByteBuffer.wrap(packet.getData(), 0, packet.getLength());
+        assertEquals(PacketCodec.DATA, PacketCodec.opcode(data));
+        assertEquals(1, PacketCodec.blockNumber(data));
+        ByteBuffer ack = PacketCodec.encodeAck(ByteBuffer.allocate(PacketCodec.DATA_HEADER_SIZE), 1);
+        client.send(new DatagramPacket(ack.array(), ack.remaining(), packet.getSocketAddress()));
+        return packet;
+    }
+
+    private static DatagramSocket client() throws IOException {
+        DatagramSocket client = new DatagramSocket(0, InetAddress.getLoopbackAddress());
+        client.setSoTimeout(5000);
+        return client;
+    }
+
+    @Test
+    void transferIsAnsweredFromItsOwnPort() throws IOException {
+        Path file = directory.resolve("hello.txt");
+        Files.writeString(file, "hello", StandardCharsets.US_ASCII);
+        try (DatagramSocket client = client()) {
+            requestFile(client, file);
+            DatagramPacket packet = receiveBlock(client);
+            // as it states in the RFC 1350, the server's side of the transfer is a new TID, not port 9000
+            assertNotEquals(TFTPUDPServer.serverPort, packet.getPort());
+            assertEquals("hello", new String(packet.getData(), PacketCodec.DATA_HEADER_SIZE, packet.getLength() - PacketCodec.DATA_HEADER_SIZE, StandardCharsets.US_ASCII));
+        }
+    }
+
+    @Test
+    void transfersRunAtTheSameTimeOnPortsOfTheirOwn() throws IOException {
+        Path file = directory.resolve("hello.txt");
+        Files.writeString(file, "hello", StandardCharsets.US_ASCII);
+        try (DatagramSocket first = client(); DatagramSocket second = client()) {
+            requestFile(first, file);
+            requestFile(second, file);
+            // the second transfer is answered while the first one is still waiting for its ACK
+            DatagramPacket secondPacket = receiveBlock(second);
+            DatagramPacket firstPacket = receiveBlock(first);
+            assertNotEquals(firstPacket.getPort(), secondPacket.getPort());
+        }
+    }
+}